@@ -13,6 +13,7 @@ import android.os.Bundle;
 import com.wanikani.wklib.ExtendedLevelProgression;
 import com.wanikani.wklib.LevelProgression;
 import com.wanikani.wklib.SRSDistribution;
+import com.wanikani.wklib.SnapshotCodec;
 import com.wanikani.wklib.StudyQueue;
 import com.wanikani.wklib.UserInformation;
 
@@ -199,6 +200,14 @@ public class DashboardData {
 		
 		public void putSerializable (String key, Serializable value);
 
+		/**
+		 * Stores a binary blob. Storages that can't hold blobs may refuse it.
+		 * @param key the key
+		 * @param value the value
+		 * @return <code>true</code> if stored
+		 */
+		public boolean putBytes (String key, byte value []);
+
 		public boolean containsKey (String key);
 		
 		public void removeKey (String key);
@@ -212,6 +221,8 @@ public class DashboardData {
 		public boolean getBoolean (String key);
 		
 		public Serializable getSerializable (String key);
+
+		public byte [] getBytes (String key);
 	}
 	
 	private static class BundleStorage implements Storage {
@@ -265,6 +276,14 @@ public class DashboardData {
 			bundle.putSerializable (key, value);
 		}
 
+		@Override
+		public boolean putBytes (String key, byte value [])
+		{
+			bundle.putByteArray (key, value);
+
+			return true;
+		}
+
 		@Override
 		public boolean containsKey (String key)
 		{
@@ -306,6 +325,12 @@ public class DashboardData {
 		{
 			return bundle.getSerializable (key);
 		}
+
+		@Override
+		public byte [] getBytes (String key)
+		{
+			return bundle.getByteArray (key);
+		}
 	}
 	
 	private static class PreferencesStorage implements Storage {
@@ -369,6 +394,13 @@ public class DashboardData {
 		{
 			/* ignored */
 		}
+
+		@Override
+		public boolean putBytes (String key, byte value [])
+		{
+			/* Preferences hold strings, not blobs: let the caller use plain keys */
+			return false;
+		}
 		
 		@Override
 		public boolean containsKey (String key)
@@ -411,6 +443,12 @@ public class DashboardData {
 		{
 			return null;
 		}
+
+		@Override
+		public byte [] getBytes (String key)
+		{
+			return null;
+		}
 	}
 
 	private static final String PREFIX = "com.wanikani.wanikaninotifier.DashboardData.";
@@ -426,7 +464,8 @@ public class DashboardData {
 	private static final String KEY_NEXT_REVIEW_DATE = PREFIX + "next_review_date";
 	private static final String KEY_REVIEWS_AVAILABLE_NEXT_HOUR = PREFIX + "reviews_available_next_hour";
 	private static final String KEY_REVIEWS_AVAILABLE_NEXT_DAY = PREFIX + "reviews_available_next_day";
-	private static final String KEY_EXCEPTION = PREFIX + "exception";	
+	private static final String KEY_EXCEPTION = PREFIX + "exception";
+	private static final String KEY_SNAPSHOT = PREFIX + "snapshot";	
 	
 	private static final String KEY_APPRENTICE = PREFIX + "apprentice";
 	private static final String KEY_GURU = PREFIX + "guru";
@@ -626,39 +665,13 @@ public class DashboardData {
 			storage.putInt (KEY_REVIEWS_AVAILABLE_NEXT_HOUR, reviewsAvailableNextHour);
 			storage.putInt (KEY_REVIEWS_AVAILABLE_NEXT_DAY, reviewsAvailableNextDay);
 		
-			if (od.srs != null) {
-				storage.putInt (KEY_APPRENTICE, od.srs.apprentice.total);
-				storage.putInt (KEY_GURU, od.srs.guru.total);
-				storage.putInt (KEY_MASTER, od.srs.master.total);
-				storage.putInt (KEY_ENLIGHTEN, od.srs.enlighten.total);
-				storage.putInt (KEY_BURNED, od.srs.burned.total);
-
-				storage.putInt (KEY_KANJI_APPRENTICE, od.srs.apprentice.kanji);
-				storage.putInt (KEY_KANJI_GURU, od.srs.guru.kanji);
-				storage.putInt (KEY_KANJI_MASTER, od.srs.master.kanji);
-				storage.putInt (KEY_KANJI_ENLIGHTEN, od.srs.enlighten.kanji);
-				storage.putInt (KEY_KANJI_BURNED, od.srs.burned.kanji);
-			
-				storage.putInt (KEY_VOCAB_APPRENTICE, od.srs.apprentice.vocabulary);
-				storage.putInt (KEY_VOCAB_GURU, od.srs.guru.vocabulary);
-				storage.putInt (KEY_VOCAB_MASTER, od.srs.master.vocabulary);
-				storage.putInt (KEY_VOCAB_ENLIGHTEN, od.srs.enlighten.vocabulary);
-				storage.putInt (KEY_VOCAB_BURNED, od.srs.burned.vocabulary);
-			} else
+			if (putSnapshot (storage)) {
 				storage.removeKey (KEY_APPRENTICE);
-		
-			if (od.elp != null) {
-				storage.putInt(KEY_RADICALS_PROGRESS, od.elp.radicalsProgress);
-				storage.putInt (KEY_RADICALS_UNLOCKED, od.elp.radicalsUnlocked);
-				storage.putInt(KEY_RADICALS_TOTAL, od.elp.radicalsTotal);
-				storage.putInt(KEY_KANJI_PROGRESS, od.elp.kanjiProgress);
-				storage.putInt (KEY_KANJI_UNLOCKED, od.elp.kanjiUnlocked);
-				storage.putInt (KEY_KANJI_TOTAL, od.elp.kanjiTotal);
-				storage.putInt (KEY_CURRENT_LEVEL_RADICALS, od.elp.currentLevelRadicalsAvailable);
-				storage.putInt (KEY_CURRENT_LEVEL_KANJI, od.elp.currentLevelKanjiAvailable);
-			
-			} else
 				storage.removeKey (KEY_RADICALS_PROGRESS);
+			} else {
+				storage.removeKey (KEY_SNAPSHOT);
+				putOptionalData (storage);
+			}
 		
 			if (od.ciStatus == OptionalDataStatus.RETRIEVED)
 				storage.putInt (KEY_CRITICAL_ITEMS, od.criticalItems);
@@ -676,6 +689,69 @@ public class DashboardData {
 		}
 	}
 	
+	/**
+	 * Stores the SRS distribution and the level progression as a single
+	 * binary snapshot, if the storage supports it. This is much cheaper
+	 * than a few dozens of separate keys when the activity is recreated.
+	 * @param storage the storage
+	 * @return <code>true</code> if the snapshot was stored
+	 */
+	private boolean putSnapshot (Storage storage)
+	{
+		SnapshotCodec.Writer w;
+		
+		w = new SnapshotCodec.Writer ();
+		try {
+			w.writeSRSDistribution (od.srs);
+			w.writeLevelProgression (od.elp);
+		} catch (IOException x) {
+			return false;
+		}
+		
+		return storage.putBytes (KEY_SNAPSHOT, w.toByteArray ());
+	}
+	
+	/**
+	 * Stores the SRS distribution and the level progression as plain keys.
+	 * @param storage the storage
+	 */
+	private void putOptionalData (Storage storage)
+	{
+		if (od.srs != null) {
+			storage.putInt (KEY_APPRENTICE, od.srs.apprentice.total);
+			storage.putInt (KEY_GURU, od.srs.guru.total);
+			storage.putInt (KEY_MASTER, od.srs.master.total);
+			storage.putInt (KEY_ENLIGHTEN, od.srs.enlighten.total);
+			storage.putInt (KEY_BURNED, od.srs.burned.total);
+
+			storage.putInt (KEY_KANJI_APPRENTICE, od.srs.apprentice.kanji);
+			storage.putInt (KEY_KANJI_GURU, od.srs.guru.kanji);
+			storage.putInt (KEY_KANJI_MASTER, od.srs.master.kanji);
+			storage.putInt (KEY_KANJI_ENLIGHTEN, od.srs.enlighten.kanji);
+			storage.putInt (KEY_KANJI_BURNED, od.srs.burned.kanji);
+		
+			storage.putInt (KEY_VOCAB_APPRENTICE, od.srs.apprentice.vocabulary);
+			storage.putInt (KEY_VOCAB_GURU, od.srs.guru.vocabulary);
+			storage.putInt (KEY_VOCAB_MASTER, od.srs.master.vocabulary);
+			storage.putInt (KEY_VOCAB_ENLIGHTEN, od.srs.enlighten.vocabulary);
+			storage.putInt (KEY_VOCAB_BURNED, od.srs.burned.vocabulary);
+		} else
+			storage.removeKey (KEY_APPRENTICE);
+		
+		if (od.elp != null) {
+			storage.putInt(KEY_RADICALS_PROGRESS, od.elp.radicalsProgress);
+			storage.putInt (KEY_RADICALS_UNLOCKED, od.elp.radicalsUnlocked);
+			storage.putInt(KEY_RADICALS_TOTAL, od.elp.radicalsTotal);
+			storage.putInt(KEY_KANJI_PROGRESS, od.elp.kanjiProgress);
+			storage.putInt (KEY_KANJI_UNLOCKED, od.elp.kanjiUnlocked);
+			storage.putInt (KEY_KANJI_TOTAL, od.elp.kanjiTotal);
+			storage.putInt (KEY_CURRENT_LEVEL_RADICALS, od.elp.currentLevelRadicalsAvailable);
+			storage.putInt (KEY_CURRENT_LEVEL_KANJI, od.elp.currentLevelKanjiAvailable);
+		
+		} else
+			storage.removeKey (KEY_RADICALS_PROGRESS);
+	}
+	
 	/**
 	 * Deserialize data from a bundle
 	 * @param bundle the source bundle
@@ -710,6 +786,31 @@ public class DashboardData {
 		reviewsAvailableNextHour = storage.getInt (KEY_REVIEWS_AVAILABLE_NEXT_HOUR);
 		reviewsAvailableNextDay = storage.getInt (KEY_REVIEWS_AVAILABLE_NEXT_DAY);
 
+		if (!getSnapshot (storage))
+			getOptionalData (storage);
+			
+		if (storage.containsKey (KEY_CRITICAL_ITEMS)) {
+			od.ciStatus = OptionalDataStatus.RETRIEVED;
+			od.criticalItems = storage.getInt (KEY_CRITICAL_ITEMS);
+		} else {
+			/* RETRIEVING is correct, because this is what DashboardActivity
+			 * will do right after calling this method */
+			od.ciStatus = OptionalDataStatus.RETRIEVING;
+			od.criticalItems = 0;
+		}
+			
+		if (storage.containsKey (KEY_EXCEPTION))
+			e = (IOException) storage.getSerializable (KEY_EXCEPTION);
+		else
+			e = null;
+	}
+	
+	/**
+	 * Reads the SRS distribution and the level progression from plain keys.
+	 * @param storage the storage
+	 */
+	private void getOptionalData (Storage storage)
+	{
 		if (storage.containsKey (KEY_APPRENTICE)) {
 			od.srs = new SRSDistribution ();
 
@@ -756,22 +857,40 @@ public class DashboardData {
 			od.lpStatus = OptionalDataStatus.RETRIEVING;
 			od.elp = null;
 		}
-			
-		if (storage.containsKey (KEY_CRITICAL_ITEMS)) {
-			od.ciStatus = OptionalDataStatus.RETRIEVED;
-			od.criticalItems = storage.getInt (KEY_CRITICAL_ITEMS);
-		} else {
-			/* RETRIEVING is correct, because this is what DashboardActivity
-			 * will do right after calling this method */
-			od.ciStatus = OptionalDataStatus.RETRIEVING;
-			od.criticalItems = 0;
-		}
-			
-		if (storage.containsKey (KEY_EXCEPTION))
-			e = (IOException) storage.getSerializable (KEY_EXCEPTION);
-		else
-			e = null;
+	}
+	
+	/**
+	 * Reads the SRS distribution and the level progression from the
+	 * binary snapshot built by {@link #putSnapshot(Storage)}.
+	 * @param storage the storage
+	 * @return <code>true</code> if the snapshot was there and valid
+	 */
+	private boolean getSnapshot (Storage storage)
+	{
+		SnapshotCodec.Reader r;
+		byte data [];
+		
+		data = storage.getBytes (KEY_SNAPSHOT);
+		if (data == null)
+			return false;
+		
+		try {
+			r = new SnapshotCodec.Reader (data);
+			od.srs = r.readSRSDistribution ();
+			od.elp = r.readLevelProgression ();
+		} catch (IOException x) {
+			return false;
 		}
+		
+		/* RETRIEVING is correct, because this is what DashboardActivity
+		 * will do right after calling this method */
+		od.srsStatus = od.srs != null ? 
+				OptionalDataStatus.RETRIEVED : OptionalDataStatus.RETRIEVING;
+		od.lpStatus = od.elp != null ? 
+				OptionalDataStatus.RETRIEVED : OptionalDataStatus.RETRIEVING;
+		
+		return true;
+	}
 	
 	/**
 	 * Tells whether some optional data is still missing.
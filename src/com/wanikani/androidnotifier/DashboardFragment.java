@@ -841,6 +841,29 @@ public class DashboardFragment extends Fragment implements Tab {
 		/* empty */
 	}
 	
+	/**
+	 * Reloads the level progression, if the radicals or kanji of the
+	 * current level have been refreshed. Other items are not displayed here.
+	 */
+	public void itemsUpdated (Item.Type type, int levels [], boolean fg)
+	{
+		DashboardData dd;
+		int i;
+		
+		if (type == Item.Type.VOCABULARY)
+			return;
+		
+		dd = main.getDashboardData ();
+		if (dd == null)
+			return;
+		
+		for (i = 0; i < levels.length; i++)
+			if (levels [i] == dd.level) {
+				main.refreshLevelProgression ();
+				break;
+			}
+	}
+	
 	/**
 	 * This item has no scroll view.
 	 * @return false
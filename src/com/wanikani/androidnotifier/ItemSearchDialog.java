@@ -2,18 +2,20 @@ package com.wanikani.androidnotifier;
 
 import java.util.EnumMap;
 import java.util.List;
-import java.util.StringTokenizer;
 import java.util.Vector;
 
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.ImageButton;
 
+import com.wanikani.wklib.Histogram;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemSearchIndex;
 import com.wanikani.wklib.SRSLevel;
 
 /* 
@@ -139,6 +141,128 @@ public class ItemSearchDialog {
 		
 	}
 	
+	/**
+	 * A snapshot of the filter state, taken on the UI thread, that
+	 * can be applied to a list of items on any thread.
+	 */
+	public static class Query {
+		
+		/// Which item types match the filter criteria
+		private EnumMap<Item.Type, Boolean> types;
+		
+		/// Which SRS levels match the filter criteria
+		private EnumMap<SRSLevel, Boolean> srses;
+		
+		/// If set, SRS filter is applied
+		private boolean srsApplied;
+		
+		/// The search text, or <code>null</code> if the filter is not applied
+		private String text;
+		
+		/// When the query was issued, in ms
+		private long issued;
+		
+		/// The result of the text search, once the filter has been applied
+		private ItemSearchIndex.Result result;
+		
+		/**
+		 * Constructor.
+		 * @param iss the filter state
+		 * @param text the search text
+		 */
+		private Query (State iss, String text)
+		{
+			types = new EnumMap<Item.Type, Boolean> (iss.types);
+			srses = new EnumMap<SRSLevel, Boolean> (iss.srses);
+			srsApplied = iss.srsApplied;
+			this.text = iss.visible ? text : null;
+			
+			issued = System.currentTimeMillis ();
+		}
+		
+		/**
+		 * Given an item list, it returns another list containing all the elements
+		 * that match the filter. The original list is not touched. The returned
+		 * object may be the original list if all the elements match the filter.
+		 * @param l the list
+		 * @param index a search index holding the same items as <code>l</code>
+		 * @param previous the last query applied to the same items. If this query
+		 * is narrower, its results are refined instead of searching from scratch
+		 * (may be <code>null</code>)
+		 * @return a subset
+		 */
+		public List<Item> filter (List<Item> l, ItemSearchIndex index, Query previous)
+		{
+			List<Item> ans;
+			
+			if (text == null)
+				return l;
+			
+			/* The index resolves the text query, so only the other
+			 * criteria need to be checked on each item */
+			result = index.search (text, previous != null ? previous.result : null);
+			if (result != null)
+				l = index.getItems (result);
+						
+			ans = new Vector<Item> (l.size ());
+			for (Item i : l)
+				if (matches (i))
+					ans.add (i);
+			
+			return ans;
+		}
+		
+		/**
+		 * Tells whether an item matches the item type and SRS level criteria
+		 * @param i an item
+		 * @return <tt>true</tt> if it does
+		 */
+		protected boolean matches (Item i)
+		{
+			if (!types.get (i.type))
+				return false;
+			
+			if (srsApplied) {
+				/* Locked items may have SRS unset */
+				if (i.stats == null || i.stats.srs == null)
+					return false;
+				
+				if (!srses.get (i.stats.srs))				
+					return false;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Records the latency of this query. To be called when its
+		 * results are shown.
+		 */
+		public void done ()
+		{
+			if (text == null)
+				return;
+			
+			synchronized (LATENCY) {
+				LATENCY.record (System.currentTimeMillis () - issued);
+				if (result != null && result.isRefined ())
+					refined++;
+			}
+		}
+	}
+	
+	/**
+	 * Applies the filter after the user stops typing.
+	 */
+	private class Debouncer implements Runnable {
+		
+		@Override
+		public void run ()
+		{
+			updateFilter ();
+		}
+	}
+	
 	/**
 	 * The listener attached to item type filter buttons. 
 	 */
@@ -252,7 +376,8 @@ public class ItemSearchDialog {
 		@Override
 		public void afterTextChanged (Editable s)
 		{
-			updateFilter ();
+			handler.removeCallbacks (debouncer);
+			handler.postDelayed (debouncer, DEBOUNCE_DELAY);
 		}
 		
 		@Override
@@ -295,6 +420,15 @@ public class ItemSearchDialog {
 		
 	}
 	
+	/// Delay between the last keystroke and the search, in milliseconds
+	private static final long DEBOUNCE_DELAY = 250;
+	
+	/// Latency of the searches, from the request to the results, in milliseconds
+	private static final Histogram LATENCY = new Histogram ();
+	
+	/// Number of searches that refined the previous results
+	private static long refined;
+	
 	/// The complete filter state
 	private State iss;
 	
@@ -318,6 +452,12 @@ public class ItemSearchDialog {
 	
 	/// A reference to the object to notify when the filter changes
 	private Listener listener;
+	
+	/// The handler that delays searches while the user is typing
+	private Handler handler;
+	
+	/// The delayed search
+	private Runnable debouncer;
 
 	/**
 	 * Constructor
@@ -334,6 +474,9 @@ public class ItemSearchDialog {
 		this.view = view;
 		this.listener = listener;
 		
+		handler = new Handler ();
+		debouncer = new Debouncer ();
+		
 		res = view.getResources ();
 		
 		filter = (EditText) view.findViewById (R.id.et_filter);
@@ -486,63 +629,47 @@ public class ItemSearchDialog {
 	 */
 	private void updateFilter ()
 	{
+		handler.removeCallbacks (debouncer);
 		listener.filterChanged ();
 	}
 	
 	/**
-	 * Given an item list, it returns another list containing all the elements
-	 * that match the filter. The original list is not touched. The returned
-	 * object may be the original list if all the elements match the filter.
-	 * @param l the list
-	 * @return a subset
+	 * Takes a snapshot of the current filter state, to be applied
+	 * through {@link Query#filter(List, ItemSearchIndex, Query)}.
+	 * Must be called on the UI thread.
+	 * @return the query
 	 */
-	public List<Item> filter (List<Item> l)
+	public Query getQuery ()
 	{
-		List<Item> ans;
+		return new Query (iss, filter.getText ().toString ());
+	}
+	
+	/**
+	 * Returns the latency of the searches.
+	 * @return a copy of the histogram, in milliseconds
+	 */
+	public static Histogram getLatency ()
+	{
+		Histogram ans;
 		
-		if (!iss.visible)
-			return l;
-					
-		ans = new Vector<Item> (l.size ());
-		for (Item i : l)
-			if (matches (i))
-				ans.add (i);
+		ans = new Histogram ();
+		synchronized (LATENCY) {
+			ans.add (LATENCY);
+		}
 		
 		return ans;
 	}
 	
 	/**
-	 * Tells whether an item matches the filter criteria
-	 * @param i an item
-	 * @return <tt>true</tt> if it does
+	 * Returns the number of searches that refined the previous results,
+	 * instead of searching from scratch.
+	 * @return the number of searches
 	 */
-	protected boolean matches (Item i)
+	public static long getRefined ()
 	{
-		StringTokenizer st;
-		String s;
-		
-		if (!iss.types.get (i.type))
-			return false;
-		
-		if (iss.srsApplied) {
-			/* Locked items may have SRS unset */
-			if (i.stats == null || i.stats.srs == null)
-				return false;
-			
-			if (!iss.srses.get (i.stats.srs))				
-				return false;
+		synchronized (LATENCY) {
+			return refined;
 		}
-		
-		s = filter.getText ().toString ().trim ();
-		if (s.length () == 0)
-			return true;
-		
-		st = new StringTokenizer (s, ",");
-		while (st.hasMoreTokens ())
-			if (i.matches (st.nextToken ().trim ()))
-				return true;
-			
-		return false;
 	}
 	
 	/**
@@ -1,7 +1,6 @@
 package com.wanikani.androidnotifier;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumMap;
@@ -17,6 +16,7 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
@@ -38,6 +38,8 @@ import com.wanikani.androidnotifier.db.FontDatabase;
 import com.wanikani.androidnotifier.db.FontDatabase.FontBox;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemSearchIndex;
+import com.wanikani.wklib.ItemSorter;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
 import com.wanikani.wklib.SRSLevel;
@@ -713,11 +715,83 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 	 */
 	class ItemListAdapter extends BaseAdapter implements ItemSearchDialog.Listener {
 
+		/**
+		 * Filters and sorts the items off the UI thread. Each time the
+		 * filter, the comparator or the items change, a new task is started
+		 * and the previous one is cancelled.
+		 */
+		private class FilterTask extends AsyncTask<Void, Void, List<Item>> {
+			
+			/// The query, or <code>null</code> if there is no search dialog
+			ItemSearchDialog.Query query;
+			
+			/// The last query applied, to be refined if possible
+			ItemSearchDialog.Query previous;
+			
+			/// A snapshot of the items
+			List<Item> items;
+			
+			/// The comparator
+			Comparator<Item> cmp;
+			
+			/**
+			 * Constructor. Must be called on the UI thread.
+			 * @param query the query (may be <code>null</code>)
+			 * @param previous the last query applied (may be <code>null</code>)
+			 */
+			public FilterTask (ItemSearchDialog.Query query, ItemSearchDialog.Query previous)
+			{
+				this.query = query;
+				this.previous = previous;
+				
+				items = new Vector<Item> (allItems);
+				cmp = ItemListAdapter.this.cmp;
+			}
+			
+			@Override
+			protected List<Item> doInBackground (Void... v)
+			{
+				List<Item> ans;
+				
+				ans = query != null ? query.filter (items, index, previous) : items;
+				if (isCancelled ())
+					return null;
+				
+				ItemSorter.sort (ans, cmp);
+				
+				return ans;
+			}
+			
+			@Override
+			protected void onPostExecute (List<Item> ans)
+			{
+				if (task != this || ans == null)
+					return;
+				
+				task = null;
+				if (query != null) {
+					lastQuery = query;
+					query.done ();
+				}
+				
+				update (ans);
+			}
+		}
+
 		/// The full (unfiltered) list of items.
 		List<Item> allItems;
 		
 		/// The current list of items. It is always sorted.
 		List<Item> filteredItems;
+		
+		/// The search index of {@link #allItems}
+		ItemSearchIndex index;
+		
+		/// The pending filter task, or <code>null</code> if the list is up to date
+		FilterTask task;
+		
+		/// The last query applied, or <code>null</code> if its results are stale
+		ItemSearchDialog.Query lastQuery;
 
 		/// The current comparator
 		Comparator<Item> cmp;
@@ -741,6 +815,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 			
 			allItems = new Vector<Item> ();
 			filteredItems = new Vector<Item> ();
+			index = new ItemSearchIndex ();
 		}		
 
 		/**
@@ -787,8 +862,9 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		public void clear ()
 		{
 			allItems.clear ();
-			filteredItems.clear ();
-			notifyDataSetChanged ();
+			index.clear ();
+			lastQuery = null;
+			invalidate ();
 		}
 
 		/**
@@ -798,17 +874,38 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		public void addAll (List<Item> newItems)
 		{
 			allItems.addAll (newItems);
+			index.add (newItems);
 			invalidate ();
 		}
 		
 		/**
-		 * Sorts the collection again, also refreshing the list.
+		 * Filters and sorts the collection again, also refreshing the list
+		 * when done. The job is performed in background: until it completes,
+		 * the old list is shown.
 		 */
 		private void invalidate ()
 		{		
-			filteredItems = isd != null ? isd.filter (allItems) : allItems;  
-			Collections.sort (filteredItems, cmp);
-			notifyDataSetChanged ();
+			if (task != null)
+				task.cancel (false);
+			
+			task = new FilterTask (isd != null ? isd.getQuery () : null, lastQuery);
+			task.execute ();
+		}
+		
+		/**
+		 * Replaces the current list with a new one. Views are refreshed
+		 * only if the list has actually changed, since an unnecessary refresh
+		 * would rebind all the visible rows.
+		 * @param items the new list
+		 */
+		private void update (List<Item> items)
+		{
+			boolean changed;
+			
+			changed = !items.equals (filteredItems);
+			filteredItems = items;
+			if (changed)
+				notifyDataSetChanged ();
 		}
 		
 		@Override
@@ -1696,7 +1793,6 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		if (sfilter != fmap.get (filterType))
 			return;
 		iad.addAll (list);
-		iad.notifyDataSetChanged ();
 	}
 
 	@Override
@@ -1953,6 +2049,31 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		}
 	}
 	
+	/**
+	 * Reloads the filters whose contents come from the items cache.
+	 * The level filter is reloaded only if it is showing one of the
+	 * updated levels. Critical items and recent unlocks do not come from
+	 * the items cache, so they are left alone.
+	 */
+	@Override
+	public void itemsUpdated (Item.Type type, int levels [], boolean fg)
+	{
+		int i;
+		
+		/* Might be called really early! */
+		if (fmap == null)
+			return;
+		
+		flush (FilterType.NONE);
+		flush (FilterType.TOXIC);
+		
+		for (i = 0; i < levels.length; i++)
+			if (levels [i] == currentLevel) {
+				flush (FilterType.LEVEL);
+				break;
+			}
+	}
+	
 	private void flush (FilterType ftype)
 	{
 		Filter f;
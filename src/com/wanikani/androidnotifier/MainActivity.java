@@ -37,10 +37,12 @@ import android.widget.TextView;
 import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.notification.NotificationService;
 import com.wanikani.wklib.AuthenticationException;
+import com.wanikani.wklib.BoundedItemsCache;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.ExtendedLevelProgression;
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.ItemsCacheInterface;
 import com.wanikani.wklib.SRSDistribution;
 import com.wanikani.wklib.SRSLevel;
 import com.wanikani.wklib.StudyQueue;
@@ -181,6 +183,24 @@ public class MainActivity extends FragmentActivity implements Runnable {
 				 tab.flush (rtype, fgtab == tab);			 
 		 }
 		 
+		 /**
+		  * Tells the tabs that some levels of the items cache have been updated, so
+		  * the tabs displaying them should reload them. Unlike
+		  * {@link #flush(Tab.RefreshType, int)}, the connection cache is kept.
+		  * @param type the item type
+		  * @param levels the updated levels
+		  * @param idx the tab currently in foreground
+		  */
+		 public void itemsUpdated (Item.Type type, int levels [], int idx)
+		 {
+			 Tab fgtab;
+			 
+			 fgtab = idx < 0 || idx >= tabs.size () ? null : tabs.get (idx);
+
+			 for (Tab tab : tabs)
+				 tab.itemsUpdated (type, levels, fgtab == tab);			 
+		 }
+		 
 		 /**
 		  * Returns the index of a tab.
 		  * @param c its contents
@@ -422,6 +442,45 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		}
 	}
 	
+	/**
+	 * A task that reloads the level progression, when the items it is built
+	 * from have been refreshed in background. The rest of the optional data
+	 * does not come from the items cache, so it is left as it is.
+	 */
+	private class LevelProgressionTask extends AsyncTask<Connection, Void, ExtendedLevelProgression> {
+		
+		/**
+		 * Reloads the level progression.
+		 * 	@param conn a connection to the WaniKani API site
+		 * 	@return the level progression, or <code>null</code> if it could
+		 *  not be retrieved
+		 */
+		@Override
+		protected ExtendedLevelProgression doInBackground (Connection... conn)
+		{
+			try {
+				return conn [0].getExtendedLevelProgression (MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		
+		/**
+		 * Updates the dashboard data, and tells the tabs.
+		 * 	@param elp the level progression
+		 */
+		@Override
+		protected void onPostExecute (ExtendedLevelProgression elp)
+		{
+			if (dd != null && elp != null) {
+				dd.od.elp = elp;
+				dd.od.lpStatus = DashboardData.OptionalDataStatus.RETRIEVED;
+				
+				pad.refreshComplete (dd);
+			}
+		}
+	}
+	
 	/**
 	 * The listener of menu-related events. We intercept the refresh request
 	 * and deliver the event to the main class
@@ -467,6 +526,49 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		
 	}
 
+	/**
+	 * Listener notified when stale items, that we have already displayed,
+	 * have been refreshed in background. Items are reloaded on the UI thread.
+	 */
+	private class CacheListener implements ItemsCacheInterface.Listener {
+		
+		@Override
+		public void levelsUpdated (Item.Type type, int levels [])
+		{
+			runOnUiThread (new ItemsUpdate (type, levels));
+		}
+	}
+	
+	/**
+	 * The UI thread part of {@link CacheListener}. Tells the tabs which
+	 * levels have been updated.
+	 */
+	private class ItemsUpdate implements Runnable {
+		
+		/// The item type
+		Item.Type type;
+		
+		/// The updated levels
+		int levels [];
+		
+		/**
+		 * Constructor
+		 * @param type the item type
+		 * @param levels the updated levels
+		 */
+		public ItemsUpdate (Item.Type type, int levels [])
+		{
+			this.type = type;
+			this.levels = levels;
+		}
+		
+		@Override
+		public void run ()
+		{
+			pad.itemsUpdated (type, levels, pager.getCurrentItem ());
+		}
+	}
+
 	enum FixupState {
 		
 		NOT_RUNNING,
@@ -518,6 +620,12 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	/** The object that implements the WaniKani API client */
 	private Connection conn;
 	
+	/** The items database backing the connection cache */
+	private ItemsDatabase idb;
+	
+	/** The listener of background cache updates */
+	private CacheListener cacheListener;
+	
 	/** The information displayed on the dashboard. It is built
 	 * from the objects returned by the WaniKani API*/
 	private DashboardData dd;
@@ -604,8 +712,8 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	    dbfixup = FixupState.NOT_RUNNING;
 
 	    /* Must be placed first, because fragments need this early */
-	    conn = SettingsActivity.newConnection (this);
-		conn.cache = new ItemsDatabase (this).getCache ();
+	    cacheListener = new CacheListener ();
+	    setupConnection ();
 
 	    if (dsf == null)
 	    	dsf = new DashboardStatsFragment ();
@@ -768,7 +876,8 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		if (dd != null) {
 			dd.serialize (bundle);
 			bundle.putBoolean (BUNDLE_VALID, true);
-			/* -- Needed only if we decide to provide memory cache too
+			/* -- Not needed: the memory cache is bounded and backed by the database,
+			 *    so it is cheaper to reload evicted levels than to bundle it
 			if (conn != null)
 				bundle.putSerializable (ITEMS_CACHE, conn.cache);
 			*/
@@ -834,6 +943,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		unregisterIntents ();		
 		alarm.stopAlarm ();
 		mh.unregister (this);
+		conn.removeListener (cacheListener);
 	}
 
 	/**
@@ -898,6 +1008,24 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		return mh.onOptionsItemSelected (item) || super.onOptionsItemSelected (item);
 	}
 
+	/**
+	 * Creates a new connection object, backed by the items database.
+	 * Stale items are returned immediately, and refreshed in background.
+	 */
+	private void setupConnection ()
+	{
+		if (conn != null)
+			conn.removeListener (cacheListener);
+		
+		idb = ItemsDatabase.get (this);
+		conn = SettingsActivity.newConnection (this);
+		conn.cache = new BoundedItemsCache (idb.getCache ());
+		conn.staleness = idb.getStalenessModel ();
+		conn.setConcurrent (true);
+		conn.setStaleWhileRevalidate (true);
+		conn.addListener (cacheListener);
+	}
+	
 	/**
 	 * Called to update the credentials. It also triggers a refresh of 
 	 * the GUI.
@@ -905,8 +1033,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	 */
 	private void updateCredentials ()
 	{
-		conn = SettingsActivity.newConnection (this);
-		conn.cache = new ItemsDatabase (this).getCache ();
+		setupConnection ();
 		
 		refresh (Tab.RefreshType.FULL_IMPLICIT);
 	}
@@ -947,6 +1074,15 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	{
 			new RefreshTaskPartII ().execute (conn);			
 	}
+	
+	/**
+	 * Called when the items of the current level have been refreshed in
+	 * background, to update the level progression.
+	 */
+	public void refreshLevelProgression ()
+	{
+		new LevelProgressionTask ().execute (conn);
+	}
 
 	/**
 	 * Stores the avatar locally. Needed to avoid storing it into the
@@ -1305,6 +1441,15 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	{
 		return conn;
 	}
+	
+	/**
+	 * Returns the items database backing the connection cache
+	 * @return the database
+	 */
+	public ItemsDatabase getItemsDatabase ()
+	{
+		return idb;
+	}
 
 	/**
 	 * Tells whether if a given tab is intercepting scroll events
@@ -1,6 +1,10 @@
 package com.wanikani.androidnotifier;
 
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -12,6 +16,7 @@ import android.preference.PreferenceManager;
 
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Connection.Meter;
+import com.wanikani.wklib.Histogram;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -102,7 +107,35 @@ public class MeterSpec implements Connection.Meter {
 		
 		public Counter getCounter (Context ctxt, AmountType at)
 		{
-			return instantiate (ctxt).getCounter (at);
+			return instantiate (ctxt).getCounter (at, false);
+		}
+		
+		/**
+		 * Returns the amount of data that would have been transferred,
+		 * had no compression been used.
+		 * @param ctxt the context
+		 * @param at the amount type
+		 * @return the counter
+		 */
+		public Counter getDecodedCounter (Context ctxt, AmountType at)
+		{
+			return instantiate (ctxt).getCounter (at, true);
+		}
+		
+		public PoolCounter getPoolCounter (Context ctxt)
+		{
+			return instantiate (ctxt).getPoolCounter ();
+		}
+		
+		/**
+		 * Returns the distributions of the request metrics, for each resource.
+		 * @param ctxt the context
+		 * @param metric the metric
+		 * @return a map from resource names to histograms
+		 */
+		public Map<String, Histogram> getHistograms (Context ctxt, Metric metric)
+		{
+			return instantiate (ctxt).getHistograms (metric);
 		}
 		
 		protected MeterSpec instantiate (Context ctxt)
@@ -171,6 +204,49 @@ public class MeterSpec implements Connection.Meter {
 		}
 	}
 		
+	/**
+	 * The request metrics whose distribution is recorded.
+	 */
+	public enum Metric {
+		
+		/// Total request time, in milliseconds
+		LATENCY,
+		
+		/// Time to first byte, in milliseconds
+		TTFB,
+		
+		/// Time spent downloading and parsing the body, in milliseconds
+		PARSE,
+		
+		/// Body size, in bytes
+		SIZE
+		
+	}
+	
+	/**
+	 * Connection pool statistics.
+	 */
+	public static class PoolCounter {
+		
+		/// Number of requests
+		public long requests;
+		
+		/// Number of requests that are estimated to have reused an idle connection
+		public long reused;
+		
+		/// Number of item requests that were not issued, because an identical one was in progress
+		public long coalesced;
+		
+		/**
+		 * Returns the estimated fraction of requests that did not need a new connection.
+		 * @return the ratio, between 0 and 1
+		 */
+		public float getReuseRatio ()
+		{
+			return requests > 0 ? ((float) reused) / requests : 0;
+		}
+	}
+	
 	private static final String PREFIX = MeterSpec.class.toString ();
 	
 	private static final String START_TIME = PREFIX + "START_TIME";
@@ -183,12 +259,33 @@ public class MeterSpec implements Connection.Meter {
 	
 	private int count;
 	
+	private int decoded;
+	
+	private int requests;
+	
+	private int reused;
+	
+	private int coalesced;
+	
+	/// Histograms not synced yet, indexed by resource
+	private Map<String, EnumMap<Metric, Histogram>> histograms;
+	
 	private static final String CTAG_UNKNOWN = "u."; 
 
 	private static final String CTAG_MOBILE = "m.";
 	
 	private static final String CTAG_WIFI = "w.";
 	
+	private static final String DTAG = "d.";
+	
+	private static final String PTAG_REQUESTS = "p.requests";
+	
+	private static final String PTAG_REUSED = "p.reused";
+	
+	private static final String PTAG_COALESCED = "p.coalesced";
+	
+	private static final String HTAG = "h.";
+	
 	private static final String PREFERENCES_FILE = "meters.xml";
 	
 	private static Object mutex = new Object ();
@@ -197,6 +294,7 @@ public class MeterSpec implements Connection.Meter {
 	{
 		this.type = type;
 		
+		histograms = new Hashtable<String, EnumMap<Metric, Histogram>> ();
 		prefs = prefs (ctxt);
 		cmgr = (ConnectivityManager) ctxt.getSystemService (Context.CONNECTIVITY_SERVICE);
 	}
@@ -211,11 +309,45 @@ public class MeterSpec implements Connection.Meter {
 		return ctxt.getSharedPreferences (PREFERENCES_FILE, flags);		
 	}
 	
-	public void count (int bytes)
+	public synchronized void count (int bytes)
 	{
 		count += bytes;
 	}
 	
+	public synchronized void countDecoded (int bytes)
+	{
+		decoded += bytes;
+	}
+	
+	public synchronized void connection (boolean reused)
+	{
+		requests++;
+		if (reused)
+			this.reused++;
+	}
+	
+	public synchronized void coalesced ()
+	{
+		coalesced++;
+	}
+	
+	public synchronized void timing (String resource, long latency, long ttfb, long parse, int size)
+	{
+		EnumMap<Metric, Histogram> hs;
+		
+		hs = histograms.get (resource);
+		if (hs == null) {
+			hs = new EnumMap<Metric, Histogram> (Metric.class);
+			for (Metric m : Metric.values ())
+				hs.put (m, new Histogram ());
+			histograms.put (resource, hs);
+		}
+		hs.get (Metric.LATENCY).record (latency);
+		hs.get (Metric.TTFB).record (ttfb);
+		hs.get (Metric.PARSE).record (parse);
+		hs.get (Metric.SIZE).record (size);
+	}
+	
 	public static Date getLastReset (SharedPreferences prefs)
 	{
 		synchronized (mutex) {
@@ -226,22 +358,50 @@ public class MeterSpec implements Connection.Meter {
 		return new Date (prefs.getLong (START_TIME, System.currentTimeMillis ()));
 	}
 	
-	public void sync ()
+	public synchronized void sync ()
 	{
-		String key;
+		String ctag;
 		Editor e;
 		
-		key = getKey (type, connectivity ());
+		ctag = connectivity ();
 		
 		synchronized (mutex) {
 			e = prefs.edit ();
 			if (!prefs.contains (START_TIME))
 				e.putLong (START_TIME, System.currentTimeMillis ());
 			
-			e.putLong (key, prefs.getLong (key, 0) + count);
+			add (e, getKey (type, ctag), count);
+			add (e, getKey (type, DTAG + ctag), decoded);
+			add (e, getKey (type, PTAG_REQUESTS), requests);
+			add (e, getKey (type, PTAG_REUSED), reused);
+			add (e, getKey (type, PTAG_COALESCED), coalesced);
+			for (Map.Entry<String, EnumMap<Metric, Histogram>> he : histograms.entrySet ())
+				for (Map.Entry<Metric, Histogram> me : he.getValue ().entrySet ())
+					add (e, getHistogramKey (type, he.getKey (), me.getKey ()), me.getValue ());
 			e.commit ();
 		}
-		count = 0;
+		count = decoded = requests = reused = coalesced = 0;
+		histograms.clear ();
+	}
+	
+	private void add (Editor e, String key, Histogram h)
+	{
+		Histogram old;
+		
+		old = Histogram.parse (prefs.getString (key, null));
+		old.add (h);
+		e.putString (key, old.serialize ());
+	}
+	
+	private static String getHistogramKey (T type, String resource, Metric metric)
+	{
+		return getKey (type, HTAG + metric.name () + "." + resource);
+	}
+	
+	private void add (Editor e, String key, int value)
+	{
+		if (value != 0)
+			e.putLong (key, prefs.getLong (key, 0) + value);
 	}
 	
 	private static String getKey (T type, String connectivity)
@@ -265,7 +425,23 @@ public class MeterSpec implements Connection.Meter {
 			return CTAG_WIFI;
 	}
 
-	private static void addValue (SharedPreferences prefs, T t, Counter counter)
+	private static void addValue (SharedPreferences prefs, T t, Counter counter, String dtag)
+	{
+		T components [];
+		int i;
+		
+		components = t.getComponents ();
+		if (components != null) {
+			for (i = 0; i < components.length; i++)
+				addValue (prefs, components [i], counter, dtag);			
+		} else {
+			counter.mobile += prefs.getLong (getKey (t, dtag + CTAG_MOBILE), 0);
+			counter.wifi += prefs.getLong (getKey (t, dtag + CTAG_WIFI), 0);
+			counter.unknown += prefs.getLong (getKey (t, dtag + CTAG_UNKNOWN), 0);
+		}
+	}
+	
+	private static void addValue (SharedPreferences prefs, T t, PoolCounter counter)
 	{
 		T components [];
 		int i;
@@ -275,13 +451,64 @@ public class MeterSpec implements Connection.Meter {
 			for (i = 0; i < components.length; i++)
 				addValue (prefs, components [i], counter);			
 		} else {
-			counter.mobile += prefs.getLong (getKey (t, CTAG_MOBILE), 0);
-			counter.wifi += prefs.getLong (getKey (t, CTAG_WIFI), 0);
-			counter.unknown += prefs.getLong (getKey (t, CTAG_UNKNOWN), 0);
+			counter.requests += prefs.getLong (getKey (t, PTAG_REQUESTS), 0);
+			counter.reused += prefs.getLong (getKey (t, PTAG_REUSED), 0);
+			counter.coalesced += prefs.getLong (getKey (t, PTAG_COALESCED), 0);
 		}
 	}
+	
+	private static void addValue (SharedPreferences prefs, T t, Metric metric, Map<String, Histogram> hs)
+	{
+		T components [];
+		Histogram h;
+		String prefix, resource;
+		int i;
 		
-	private Counter getCounter (AmountType at)
+		components = t.getComponents ();
+		if (components != null) {
+			for (i = 0; i < components.length; i++)
+				addValue (prefs, components [i], metric, hs);
+		} else {
+			prefix = getHistogramKey (t, "", metric);
+			for (Map.Entry<String, ?> e : prefs.getAll ().entrySet ()) {
+				if (!e.getKey ().startsWith (prefix) || !(e.getValue () instanceof String))
+					continue;
+				resource = e.getKey ().substring (prefix.length ());
+				h = hs.get (resource);
+				if (h == null) {
+					h = new Histogram ();
+					hs.put (resource, h);
+				}
+				h.add (Histogram.parse ((String) e.getValue ()));
+			}
+		}
+	}
+	
+	private Map<String, Histogram> getHistograms (Metric metric)
+	{
+		Map<String, Histogram> ans;
+		
+		ans = new TreeMap<String, Histogram> ();
+		synchronized (mutex) {
+			addValue (prefs, type, metric, ans);
+		}
+		
+		return ans;
+	}
+	
+	private PoolCounter getPoolCounter ()
+	{
+		PoolCounter ans;
+		
+		ans = new PoolCounter ();
+		synchronized (mutex) {
+			addValue (prefs, type, ans);
+		}
+		
+		return ans;
+	}
+		
+	private Counter getCounter (AmountType at, boolean decoded)
 	{
 		Counter ans;
 		Date date;
@@ -289,7 +516,7 @@ public class MeterSpec implements Connection.Meter {
 		
 		ans = new Counter (at, 0, 0, 0);
 		synchronized (mutex) {
-			addValue (prefs, type, ans);
+			addValue (prefs, type, ans, decoded ? DTAG : "");
 			date = getLastReset (prefs); 
 		}
 		ratio = at.getRatio (System.currentTimeMillis () - date.getTime ());
@@ -311,7 +538,16 @@ public class MeterSpec implements Connection.Meter {
 				e.putLong (getKey (type, CTAG_MOBILE), 0);
 				e.putLong (getKey (type, CTAG_WIFI), 0);
 				e.putLong (getKey (type, CTAG_UNKNOWN), 0);
+				e.putLong (getKey (type, DTAG + CTAG_MOBILE), 0);
+				e.putLong (getKey (type, DTAG + CTAG_WIFI), 0);
+				e.putLong (getKey (type, DTAG + CTAG_UNKNOWN), 0);
+				e.putLong (getKey (type, PTAG_REQUESTS), 0);
+				e.putLong (getKey (type, PTAG_REUSED), 0);
+				e.putLong (getKey (type, PTAG_COALESCED), 0);
 			}
+			for (String key : prefs (ctxt).getAll ().keySet ())
+				if (key.startsWith (PREFIX) && key.contains ("." + HTAG))
+					e.remove (key);
 			e.commit ();
 		}
 	}	
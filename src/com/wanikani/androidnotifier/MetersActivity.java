@@ -17,6 +17,11 @@ import android.widget.Button;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import com.wanikani.androidnotifier.db.ItemsDatabase;
+import com.wanikani.wklib.BoundedItemsCache;
+import com.wanikani.wklib.Histogram;
+import com.wanikani.wklib.StringPool;
+
 /* 
  *  Copyright (c) 2013 Alberto Cuda
  *
@@ -73,6 +78,8 @@ public class MetersActivity extends Activity {
 	
 	private Map<MeterSpec.T, MeterCountersView> cviews;
 	
+	private TextView latw;
+	
 	public MetersActivity ()
 	{
 		df =  new SimpleDateFormat ("dd MMM yyyy, HH:mm", Locale.US);
@@ -94,6 +101,8 @@ public class MetersActivity extends Activity {
 		resetw = (Button) findViewById (R.id.me_reset);
 		resetw.setOnClickListener (new ResetListener ());
 		
+		latw = (TextView) findViewById (R.id.me_latency);
+		
 		addView (MeterSpec.T.SERVICE, R.id.me_service_total);
 		addView (MeterSpec.T.NOTIFY_TIMEOUT, R.id.me_notify_timeout);
 		addView (MeterSpec.T.NOTIFY_CHANGE_CONNECTIVITY, R.id.me_change_connectivity);
@@ -154,6 +163,137 @@ public class MetersActivity extends Activity {
 		
 		for (Map.Entry<MeterSpec.T, MeterCountersView> e : cviews.entrySet ())
 			e.getValue ().setData (e.getKey ().getCounter (this, at));
+		
+		refreshStats (at);
+	}
+	
+	/**
+	 * Shows the performance statistics, one section after the other.
+	 * @param at the amount type
+	 */
+	protected void refreshStats (MeterSpec.AmountType at)
+	{
+		StringBuffer sb;
+		
+		sb = new StringBuffer ();
+		refreshLatency (sb);
+		refreshCompression (sb, at);
+		refreshConnections (sb);
+		refreshStringPool (sb);
+		refreshSearch (sb);
+		refreshItemsCache (sb);
+		
+		latw.setText (sb.toString ());
+	}
+	
+	/**
+	 * Shows the percentiles of the request metrics, for each API resource.
+	 * @param sb where the section is appended
+	 */
+	protected void refreshLatency (StringBuffer sb)
+	{
+		EnumMap<MeterSpec.Metric, Map<String, Histogram>> hs;
+		int len;
+		Histogram h;
+		
+		hs = new EnumMap<MeterSpec.Metric, Map<String, Histogram>> (MeterSpec.Metric.class);
+		for (MeterSpec.Metric m : MeterSpec.Metric.values ())
+			hs.put (m, MeterSpec.T.OVERALL.getHistograms (this, m));
+		
+		len = sb.length ();
+		for (Map.Entry<String, Histogram> e : hs.get (MeterSpec.Metric.LATENCY).entrySet ()) {
+			h = e.getValue ();
+			if (sb.length () > len)
+				sb.append ("\n\n");
+			sb.append (getString (R.string.fmt_latency, e.getKey (), h.getCount (),
+								  percentiles (h),
+								  percentiles (hs.get (MeterSpec.Metric.TTFB).get (e.getKey ())),
+								  percentiles (hs.get (MeterSpec.Metric.PARSE).get (e.getKey ())),
+								  percentiles (hs.get (MeterSpec.Metric.SIZE).get (e.getKey ()))));
+		}
+		
+		if (sb.length () == len)
+			sb.append (getString (R.string.tag_no_latency));
+	}
+	
+	/**
+	 * Shows how much gzip compression is saving.
+	 * @param sb where the section is appended
+	 * @param at the amount type
+	 */
+	protected void refreshCompression (StringBuffer sb, MeterSpec.AmountType at)
+	{
+		MeterSpec.Counter wire, decoded;
+		
+		wire = MeterSpec.T.OVERALL.getCounter (this, at);
+		decoded = MeterSpec.T.OVERALL.getDecodedCounter (this, at);
+		sb.append ("\n\n").append (getString (R.string.fmt_compression, 
+						wire.total () / 1024, decoded.total () / 1024));
+	}
+	
+	/**
+	 * Shows how many requests reused a connection, or were coalesced
+	 * with an identical one.
+	 * @param sb where the section is appended
+	 */
+	protected void refreshConnections (StringBuffer sb)
+	{
+		MeterSpec.PoolCounter pc;
+		
+		pc = MeterSpec.T.OVERALL.getPoolCounter (this);
+		sb.append ("\n\n").append (getString (R.string.fmt_connection_pool, 
+						pc.requests, pc.reused, (int) (pc.getReuseRatio () * 100)));
+		sb.append ("\n").append (getString (R.string.fmt_coalesced, pc.coalesced));
+	}
+	
+	/**
+	 * Shows how much memory item text deduplication is saving.
+	 * @param sb where the section is appended
+	 */
+	protected void refreshStringPool (StringBuffer sb)
+	{
+		StringPool pool;
+		
+		pool = StringPool.ITEMS;
+		sb.append ("\n\n").append (getString (R.string.fmt_string_pool, pool.size (),
+						pool.getHits (), pool.getSavedBytes () / 1024));
+	}
+	
+	/**
+	 * Shows how long item searches take.
+	 * @param sb where the section is appended
+	 */
+	protected void refreshSearch (StringBuffer sb)
+	{
+		Histogram h;
+		
+		h = ItemSearchDialog.getLatency ();
+		sb.append ("\n\n").append (getString (R.string.fmt_search_latency, h.getCount (),
+						ItemSearchDialog.getRefined (), percentiles (h)));
+	}
+	
+	/**
+	 * Shows how well the memory items cache is doing, and how many
+	 * item rows actually needed writing.
+	 * @param sb where the section is appended
+	 */
+	protected void refreshItemsCache (StringBuffer sb)
+	{
+		sb.append ("\n\n").append (getString (R.string.fmt_items_cache, 
+						BoundedItemsCache.getHits (), BoundedItemsCache.getMisses (),
+						BoundedItemsCache.getEvictions ()));
+		
+		sb.append ("\n").append (getString (R.string.fmt_items_db, 
+						ItemsDatabase.getRowsOffered (), ItemsDatabase.getRowsWritten ()));
+	}
+	
+	private String percentiles (Histogram h)
+	{
+		if (h == null)
+			h = new Histogram ();
+		
+		return getString (R.string.fmt_percentiles, h.getPercentile (50), 
+						  h.getPercentile (95), h.getPercentile (99));
 	}
 
 }
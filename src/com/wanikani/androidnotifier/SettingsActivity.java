@@ -15,6 +15,7 @@ import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.wanikani.wklib.Config;
+import com.wanikani.wklib.HttpTransport;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.UserLogin;
 
@@ -533,11 +534,16 @@ public class SettingsActivity
 	public static Connection newConnection (Context ctxt)
 	{
 		SharedPreferences prefs;
+		Connection ans;
 		
 		prefs = prefs (ctxt);
 		
-		return new Connection (getLogin (prefs), 
-							   getTLS (prefs) ? Config.DEFAULT_TLS : Config.DEFAULT_TCP);
+		ans = new Connection (getLogin (prefs), 
+							  getTLS (prefs) ? Config.DEFAULT_TLS : Config.DEFAULT_TCP);
+		/* Keep connections alive: several requests to the same host are usually issued in a row */
+		ans.setTransport (new HttpTransport (true));
+		
+		return ans;
 	}
 	
 	private static UserLogin getLogin (SharedPreferences prefs)
@@ -833,7 +833,7 @@ public class StatsFragment extends Fragment implements Tab {
 					slevel = -1;
 					cal.setTime (uldate);
 				} else if (i.stats.srs == SRSLevel.APPRENTICE) {
-					cal.setTime (i.stats.availableDate);
+					cal.setTime (i.stats.getAvailableDate ());
 					slevel = Math.min (i.stats.meaning.currentStreak, i.stats.reading.currentStreak); 
 				} else
 					slevel = 3;
@@ -1722,6 +1722,12 @@ public class StatsFragment extends Fragment implements Tab {
 		}
 	}
 	
+	@Override
+	public void itemsUpdated (Item.Type type, int levels [], boolean fg)
+	{
+		netwe.itemsUpdated (type);
+	}
+	
 	/**
 	 * Shows an error message on each pie chart, when something goes wrong.
 	 */
@@ -1,5 +1,7 @@
 package com.wanikani.androidnotifier;
 
+import com.wanikani.wklib.Item;
+
 /* 
  *  Copyright (c) 2013 Alberto Cuda
  *
@@ -82,6 +84,15 @@ public interface Tab {
 	 */
 	public void flush (RefreshType rtype, boolean fg);
 	
+	/**
+	 * Called when stale items have been refreshed in background.
+	 * Only the views displaying those items need to be reloaded.
+	 * 	@param type the item type
+	 *  @param levels the levels that have been updated
+	 *  @param fg if the current tab is in foreground 
+	 */
+	public void itemsUpdated (Item.Type type, int levels [], boolean fg);
+	
 	/**
 	 * Tells whether the tab is interested in scroll events.
 	 * If so, we disable the tab scrolling gesture.
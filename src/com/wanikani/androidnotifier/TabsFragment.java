@@ -6,6 +6,8 @@ import java.util.Vector;
 import android.app.Activity;
 import android.support.v4.app.Fragment;
 
+import com.wanikani.wklib.Item;
+
 /* 
  *  Copyright (c) 2013 Alberto Cuda
  *
@@ -105,6 +107,13 @@ public abstract class TabsFragment extends Fragment implements Tab {
 			t.flush (rtype, fg);		
 	}
 	
+	@Override
+	public void itemsUpdated (Item.Type type, int levels [], boolean fg)
+	{
+		for (Tab t : fragments)
+			t.itemsUpdated (type, levels, fg);
+	}
+	
 	@Override
 	 public boolean scrollLock ()
 	 {
@@ -1,8 +1,6 @@
 package com.wanikani.androidnotifier;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
@@ -10,8 +8,10 @@ import android.os.AsyncTask;
 
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
-import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
+import com.wanikani.wklib.TopItemsSelector;
+import com.wanikani.wklib.Vocabulary;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -40,7 +40,7 @@ public class ToxicFilter implements Filter {
 	/**
 	 * The asynchronous task that performs the real job. 
 	 */
-	private class Task extends AsyncTask<Void, ItemLibrary<Item>, Boolean > {
+	private class Task extends AsyncTask<Void, List<Item>, Boolean > {
 		
 		/// The connection
 		Connection conn;
@@ -48,7 +48,10 @@ public class ToxicFilter implements Filter {
 		/// The meter
 		Connection.Meter meter;
 
-		/// List of all the items collected so far
+		/// The selector that keeps the most toxic items of all types
+		TopItemsSelector sel;
+		
+		/// The most toxic items found so far
 		List<Item> allItems;
 		
 		/**
@@ -60,56 +63,71 @@ public class ToxicFilter implements Filter {
 			this.conn = conn;
 			this.meter = meter;
 			
+			sel = new TopItemsSelector (Item.SortByToxicity.INSTANCE, ITEMS);
 			allItems = new Vector<Item> ();
 		}
 		
 		/**
 		 * The method that performs the actual work. We invoke the WK api,
-		 * and push each item as soon as possible. 
+		 * feeding the selector as items are decoded, and publish the
+		 * current ranking as soon as each item type is complete. 
 		 * @param true if everything goes smoothly
 		 */
 		@Override
 		protected Boolean doInBackground (Void... v)
 		{
-			ItemLibrary<Item> lib;
 			boolean ok;
 			
 			ok = true;
-			lib = new ItemLibrary<Item> ();
 			try {
-				lib.add (conn.getRadicals (meter));
-				Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
-				if (lib.list.size () > ITEMS)
-					lib.list = lib.list.subList (0, ITEMS);
+				conn.getRadicals (meter, sel.<Radical>listener ());
 			} catch (IOException e) {
 				ok = false;
 			}
+			lpublishProgress (sel.getItems ());
 			
-			lib = new ItemLibrary<Item> ();
 			try {
-				lib.add (conn.getKanji (meter));
-				Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
-				if (lib.list.size () > ITEMS)
-					lib.list = lib.list.subList (0, ITEMS);
+				conn.getKanji (meter, sel.<Kanji>listener ());
 			} catch (IOException e) {
 				ok = false;
 			}
+			lpublishProgress (sel.getItems ());
 			
-			lib = new ItemLibrary<Item> ();
 			try {
-				lib.add (conn.getVocabulary (meter));
-				Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
-				if (lib.list.size () > ITEMS)
-					lib.list = lib.list.subList (0, ITEMS);
+				conn.getVocabulary (meter, sel.<Vocabulary>listener ());
 			} catch (IOException e) {
 				ok = false;
 			}
+			lpublishProgress (sel.getItems ());
 			
-			allItems = lib.list;
-
 			return ok;
 		}	
 		
+		/**
+		 * Publishes a new ranking. This method is essentially equivalent
+		 * to {@link AsyncTask#publishProgress} but it masks the variadic/generic 
+		 * clash warning.
+		 * @param items the ranking to publish
+		 */
+		@SuppressWarnings("unchecked")
+		protected void lpublishProgress (List<Item> items)
+		{
+			publishProgress (items);
+		}
+
+		/**
+		 * Called when a new ranking becomes available. We inform the GUI
+		 * and replace @link {@link #allItems}.
+		 * @param items the new ranking
+		 */		
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void onProgressUpdate (List<Item>... items)
+		{
+			allItems = items [0];
+			update (this, allItems);
+		}
+						
 		/**
 		 * Informs the GUI that no more items are expected
 		 * @param ok if everything went smoothly
@@ -129,7 +147,7 @@ public class ToxicFilter implements Filter {
 		 */
 		public void reissue ()
 		{
-			/* No need to do anything, we are not incremental */
+			update (this, allItems);
 		}
 	}
 
@@ -178,6 +196,18 @@ public class ToxicFilter implements Filter {
 		} 
 	}
 	
+	/**
+	 * Called by the task when a new ranking is available.
+	 * It replaces the items published so far.
+	 * @param stask the source task
+	 * @param items the ranking
+	 */
+	private void update (Task stask, List<Item> items)
+	{
+		if (stask == task)
+			itemf.setData (this, items, true);
+	}
+	
 	/**
 	 * Called by the task when no more data is available.
 	 * We store the list of items into the cache and stop the spinner.
@@ -189,7 +219,7 @@ public class ToxicFilter implements Filter {
 	{		
 		if (stask == task) {
 			task = null;
-			itemf.addData (this, allItems);
+			itemf.setData (this, allItems, ok);
 			itemf.noMoreData (this, ok);
 			itemf.selectOtherFilter (this, false);
 		}
@@ -937,7 +937,7 @@ public class HistoryDatabase {
 			if (from == null)
 				return;
 
-			to = radical.stats.burned ? radical.stats.burnedDate : null; 
+			to = radical.stats.burned ? radical.stats.getBurnedDate () : null; 
 			
 			if (to != null) {
 				radicalStmtB1.bindLong (1, ui.getDay (from));
@@ -967,7 +967,7 @@ public class HistoryDatabase {
 			if (from == null)
 				return;
 
-			to = kanji.stats.burned ? kanji.stats.burnedDate : null; 
+			to = kanji.stats.burned ? kanji.stats.getBurnedDate () : null; 
 			
 			if (to != null) {
 				kanjiStmtB1.bindLong (1, ui.getDay (from));
@@ -998,7 +998,7 @@ public class HistoryDatabase {
 			if (from == null)
 				return;
 			
-			to = vocab.stats.burned ? vocab.stats.burnedDate : null; 
+			to = vocab.stats.burned ? vocab.stats.getBurnedDate () : null; 
 			
 			if (to != null) {
 				vocabStmtB1.bindLong (1, ui.getDay (from));
@@ -1,12 +1,17 @@
 package com.wanikani.androidnotifier.db;
 
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -14,6 +19,7 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.Item.Type;
@@ -23,6 +29,8 @@ import com.wanikani.wklib.ItemsCacheInterface.LevelData;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
 import com.wanikani.wklib.SRSLevel;
+import com.wanikani.wklib.StalenessModel;
+import com.wanikani.wklib.StringPool;
 import com.wanikani.wklib.Vocabulary;
 
 /* 
@@ -172,15 +180,32 @@ public class ItemsDatabase {
 		
 		private static final String C_I_ETAG = "etag";
 		
+		/** The levels the etag refers to */
+		private static final String C_I_BATCH = "batch";
+		
 		private static final String SQL_CREATE_INVENTORY =
 					    "CREATE TABLE %s (" +
 					    C_I_LEVEL + " INTEGER PRIMARY KEY NOT NULL, " +
 					    C_I_DATE +  " INTEGER NOT NULL, " +
-					    C_I_ETAG + " TEXT NULL) ";		
+					    C_I_ETAG + " TEXT NULL, " +
+					    C_I_BATCH + " TEXT NULL) ";		
 		
 		private static final String SQL_IDX_1 =
 					 	"CREATE INDEX %1$s_LEVEL ON %1$s (" + C_LEVEL + ")";
 		
+		/** Serves the lookups by review date */
+		private static final String SQL_IDX_2 =
+						"CREATE INDEX IF NOT EXISTS %1$s_AVAILABLE ON %1$s (" + C_AVAILABLE_DATE + ")";
+
+		/** Covers the counts by SRS level and level */
+		private static final String SQL_IDX_3 =
+						"CREATE INDEX IF NOT EXISTS %1$s_SRS ON %1$s (" + C_SRS + ", " + C_LEVEL + ")";
+		
+		/** Covers the counts by unlock date and SRS level */
+		private static final String SQL_IDX_4 =
+						"CREATE INDEX IF NOT EXISTS %1$s_UNLOCKED ON %1$s (" + 
+								C_UNLOCKED_DATE + ", " + C_SRS + ")";
+		
 		private static final String SQL_DROP =
 						"DROP TABLE IF EXISTS %s";
 		
@@ -190,37 +215,101 @@ public class ItemsDatabase {
 		private static final String SQL_DROP_IDX_2 =
 				"DROP INDEX IF EXISTS %s_AVAILABLE";
 		
+		private static final String SQL_DROP_IDX_3 =
+				"DROP INDEX IF EXISTS %s_SRS";
+
+		private static final String SQL_DROP_IDX_4 =
+				"DROP INDEX IF EXISTS %s_UNLOCKED";
+		
+		/** One day, in ms */
+		private static final long ONE_DAY = 24L * 3600 * 1000;
+		
+		/** Selects the items waiting for a review */
+		private static final String WHERE_PENDING =
+				C_AVAILABLE_DATE + " IS NOT NULL AND " + C_SRS + " IS NOT NULL AND " + C_BURNED + " = 0";
+		
+		/** Alias of the bucket column of aggregation queries */
+		private static final String C_BUCKET = "bucket";
+		
+		/** Maximum number of arguments of a single query */
+		private static final int MAX_ARGS = 500;
+		
 		private static final String WHERE_LEVEL_IS =
 					C_LEVEL + " =  ?";
 		
 		private static final String WHERE_LEVEL_IN =
 				C_LEVEL + " IN (%s)";
 
+		private static final String WHERE_LEVEL_IN_PAGE =
+				C_LEVEL + " IN (%s) AND " + C_ID + " > ?";
+		
+		/** Number of rows read at once when loading levels */
+		private static final int PAGE_SIZE = 128;
+
 		private static final String SEPARATOR = "/";
 		
 		private static final String SQL_UPDATE_INVENTORY =
 					"INSERT OR REPLACE INTO %s (" + 
 						C_I_LEVEL + ", " +
 						C_I_DATE + ", " +
-						C_I_ETAG + ") VALUES (?, ?, ?)";
+						C_I_ETAG + ", " +
+						C_I_BATCH + ") VALUES (?, ?, ?, ?)";
+		
+		private static final String SQL_UPDATE_ROW =
+					"UPDATE %s SET %s WHERE " + C_ID + " = ?";
+		
+		private static final String SQL_DELETE_ROW =
+					"DELETE FROM %s WHERE " + C_ID + " = ?";
+		
+		/** Separator of the fields of a row key */
+		private static final String KEY_SEPARATOR = "\t";
+		
+		/** The names of the columns written by {@link #fillRow(List, Item)}, <code>_id</code> first */
+		private transient String columns [];
+		
+		/** The update statement */
+		private transient String updateStatement;
 		
 		public abstract String getTable ();
 		
+		public abstract Item.Type getType ();
+		
 		public abstract String getCreateStatement ();
 		
 		public abstract String getInsertStatement ();
 		
+		/**
+		 * Returns the comma-separated list of the columns written by
+		 * {@link #fillRow(List, Item)}, in the same order.
+		 * @return the columns
+		 */
+		public abstract String getInsertColumns ();
+		
 		public void onCreate (SQLiteDatabase db)
 		{
 			db.execSQL (getCreateStatement ());
 			db.execSQL (String.format (SQL_IDX_1, getTable ()));
+			onCreateIndexes (db);
 			db.execSQL (String.format (SQL_CREATE_INVENTORY, inventory ()));
 		}
+		
+		/**
+		 * Creates the indexes used by the aggregation queries.
+		 * @param db the database
+		 */
+		public void onCreateIndexes (SQLiteDatabase db)
+		{
+			db.execSQL (String.format (SQL_IDX_2, getTable ()));
+			db.execSQL (String.format (SQL_IDX_3, getTable ()));
+			db.execSQL (String.format (SQL_IDX_4, getTable ()));
+		}
 
 		public void onDrop (SQLiteDatabase db)
 		{
 			db.execSQL (String.format (SQL_DROP_IDX_1, getTable ()));
 			db.execSQL (String.format (SQL_DROP_IDX_2, getTable ()));
+			db.execSQL (String.format (SQL_DROP_IDX_3, getTable ()));
+			db.execSQL (String.format (SQL_DROP_IDX_4, getTable ()));
 			db.execSQL (String.format (SQL_DROP, getTable ()));
 			db.execSQL (String.format (SQL_DROP, inventory ()));
 		}
@@ -233,44 +322,12 @@ public class ItemsDatabase {
 		@Override
 		public LevelData<T> get (int level)
 		{	
-			String columns [], args [];			
-			ItemLibrary<T> lib;
-			LevelData<T> ld;
-			Cursor c;
-			T item;
+			Map<Integer, LevelData<T>> data;
 			
-			columns = new String [] { C_I_DATE, C_I_ETAG };
-			args = new String [] { Integer.toString (level) };
-
-			synchronized (MUTEX) {
-				/* Must use openW to allow db upgrade */
-				openW ();
-				c = null;
-				try {
-					c = db.query (inventory (), columns, WHERE_LEVEL_IS, args, null, null, null);
-					if (!c.moveToFirst ())
-						return new LevelData<T> ();
-					lib = new ItemLibrary<T> ();
-					ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), lib);
-					c.close ();
-					
-					c = null;
-					c = db.query (getTable (), null, WHERE_LEVEL_IS, args, null, null, null);
-					while (c.moveToNext ()) {
-						item = buildItem (c);
-						item.fixup ();
-						lib.list.add (item);
-					}
-					
-				} finally {
-					if (c != null)
-						c.close ();
-					close ();
-				}
-				
-			}
+			data = LevelData.createMap (new int [] { level });
+			get (data);
 			
-			return ld;
+			return data.get (level);
 		}
 		
 		private String getLSet (Set<Integer> set)
@@ -287,75 +344,147 @@ public class ItemsDatabase {
 			return lset;
 		}
 		
+		/**
+		 * Looks up a set of levels. The items and the inventory rows are read in
+		 * one transaction, so each library is a snapshot of the level as it was stored 
+		 * at the time of the call, consistent with its inventory row, even if the level is 
+		 * updated later. Rows are fetched in pages of {@link #PAGE_SIZE} items, each 
+		 * through a short-lived cursor, so no cursor is kept open while items are 
+		 * being built.
+		 * @param data the levels. Levels found in the database are replaced
+		 * by the corresponding data
+		 */
 		@Override
 		public void get (Map<Integer, LevelData <T>> data)
 		{	
-			String columns [];			
+			Map<Integer, ItemLibrary<T>> libs;
+			String columns [], args [];
+			String lset, where, limit;
 			ItemLibrary<T> lib;
+			SQLiteDatabase db;
 			LevelData<T> ld;
-			String lset;
+			long last;
 			Cursor c;
 			T item;
+			int n;
 			
 			if (data.isEmpty ())
 				return;
 			
 			lset = getLSet (data.keySet ());
+			where = String.format (WHERE_LEVEL_IN_PAGE, lset);
+			limit = Integer.toString (PAGE_SIZE);
+			libs = new Hashtable<Integer, ItemLibrary<T>> ();
 			
-			columns = new String [] { C_I_DATE, C_I_ETAG, C_I_LEVEL };
-
-			synchronized (MUTEX) {
-				/* Must use openW to allow db upgrade */
-				openW ();
+			db = db ();
+			session.beginRead ();
+			try {
+				last = -1;
+				do {
+					args = new String [] { Long.toString (last) };
+					c = null;
+					n = 0;
+					try {
+						c = db.query (getTable (), null, where, args, null, null, C_ID, limit);
+						while (c.moveToNext ()) {
+							last = c.getLong (c.getColumnIndex (C_ID));
+							item = buildItem (c);
+							item.fixup ();
+							lib = libs.get (item.level);
+							if (lib == null) {
+								lib = new ItemLibrary<T> ();
+								libs.put (item.level, lib);
+							}
+							lib.list.add (item);
+							n++;
+						}
+					} finally {
+						if (c != null)
+							c.close ();
+					}
+				} while (n == PAGE_SIZE);
+				
 				c = null;
 				try {
+					columns = new String [] { C_I_DATE, C_I_ETAG, C_I_LEVEL, C_I_BATCH };
 					c = db.query (inventory (), columns, String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
 					while (c.moveToNext ()) {
-						lib = new ItemLibrary<T> ();
-						ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), lib);
+						lib = libs.get (c.getInt (2));
+						ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), c.getString (3), 
+											   lib != null ? lib : new ItemLibrary<T> ());
 						data.put (c.getInt (2), ld);
 					}
-					c.close ();
-					
-					c = null;
-					c = db.query (getTable (), null, String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
-					while (c.moveToNext ()) {
-						item = buildItem (c);
-						item.fixup ();
-						ld = data.get (item.level);
-						if (ld.lib != null)	/* May happen if inventory is not synch'd */
-							ld.lib.add (item);
-					}
 				} finally {
 					if (c != null)
 						c.close ();
-					close ();
-				}				
+				}
+				db.setTransactionSuccessful ();
+			} finally {
+				db.endTransaction ();
 			}
 		}
 		
 		@Override
 		public void put (LevelData <T> data)
 		{
+			update (data);
+		}
+		
+		/**
+		 * Stores the items of one or more levels, writing only the rows that
+		 * actually changed. Stored rows are matched to the new items by level and
+		 * character (or meaning, for image radicals): a matching row is updated
+		 * only if some of its columns differ, items with no matching row are
+		 * inserted, and rows with no matching item are deleted.
+		 * @param data the items
+		 * @return the number of rows that have been inserted, updated or deleted
+		 */
+		public int update (LevelData <T> data)
+		{
+			Map<String, Integer> keys;
+			List<Object []> rows;
+			List<Object> row;
+			List<Long> updated, deleted;
+			List<Integer> updatedRows;
+			boolean matched [];
 			SQLiteStatement stmt;
 			Set<Integer> levels;
+			SQLiteDatabase db;
+			Integer i;
 			String lset;
+			Cursor c;
+			int j, ans;
 		
 			levels = new HashSet<Integer> ();
-			for (T item : data.lib.list)
+			rows = new Vector<Object []> (data.lib.list.size ());
+			keys = new Hashtable<String, Integer> ();
+			row = new Vector<Object> ();
+			for (T item : data.lib.list) {
 				levels.add (item.level);
+				row.clear ();
+				fillRow (row, item);
+				if (!keys.containsKey (getKey (row.get (0), row.get (1), row.get (2))))
+					keys.put (getKey (row.get (0), row.get (1), row.get (2)), rows.size ());
+				rows.add (row.toArray ());
+			}
 
 			if (levels.isEmpty ())
-				return;
+				return 0;
 			
 			lset = getLSet (levels);
+			matched = new boolean [rows.size ()];
+			updated = new Vector<Long> ();
+			updatedRows = new Vector<Integer> ();
+			deleted = new Vector<Long> ();
+			ans = 0;
 			
-			synchronized (MUTEX) {
-				stmt = null;
-				openW ();
+			db = db ();
+			session.lockWrite ();
+			try {
 				db.beginTransaction ();
+				c = null;
 				try {
-					stmt = db.compileStatement (String.format (SQL_UPDATE_INVENTORY, inventory ()));
+					stmt = session.getStatement (String.format (SQL_UPDATE_INVENTORY, inventory ()));
 					for (Integer level : levels) {
 						stmt.bindLong (1, level);
 						stmt.bindLong (2, data.date.getTime ());
@@ -363,28 +492,312 @@ public class ItemsDatabase {
 							stmt.bindString (3, data.etag);
 						else
 							stmt.bindNull (3);
+						if (data.batch != null)
+							stmt.bindString (4, data.batch);
+						else
+							stmt.bindNull (4);
 						stmt.execute ();
 					}
-					stmt.close ();
-					stmt = null;
-										
-					db.delete (getTable (), String.format (WHERE_LEVEL_IN, lset), null);
-					stmt = db.compileStatement (getInsertStatement ());
-					for (T item : data.lib.list) {
-						fillStatement (stmt, item);
-						stmt.executeInsert ();
+					
+					if (stalenessTable != null)
+						stalenessTable.flush ();
+					
+					/* Changes are applied after the scan, to avoid moving the rows under the cursor */
+					c = db.query (getTable (), getColumnNames (), 
+								  String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
+					while (c.moveToNext ()) {
+						i = keys.get (getKey (c.isNull (1) ? null : c.getString (1), 
+											  c.getString (2), c.getLong (3)));
+						if (i == null || matched [i])
+							deleted.add (c.getLong (0));
+						else {
+							matched [i] = true;
+							if (!sameRow (c, rows.get (i))) {
+								updated.add (c.getLong (0));
+								updatedRows.add (i);
+							}
+						}
+					}
+					c.close ();
+					c = null;
+					
+					if (!deleted.isEmpty ()) {
+						stmt = session.getStatement (String.format (SQL_DELETE_ROW, getTable ()));
+						for (Long id : deleted) {
+							stmt.bindLong (1, id);
+							stmt.execute ();
+						}
+					}
+
+					if (!updated.isEmpty ()) {
+						stmt = session.getStatement (getUpdateStatement ());
+						for (j = 0; j < updated.size (); j++) {
+							bindRow (stmt, rows.get (updatedRows.get (j)));
+							stmt.bindLong (getColumnNames ().length, updated.get (j));
+							stmt.execute ();
+						}
+					}
+					
+					stmt = session.getStatement (getInsertStatement ());
+					for (j = 0; j < matched.length; j++) {
+						if (!matched [j]) {
+							bindRow (stmt, rows.get (j));
+							stmt.executeInsert ();
+							ans++;
+						}
 					}
-						
 					
 					db.setTransactionSuccessful ();
 				} finally {
-					if (stmt != null)
-						stmt.close ();
+					if (c != null)
+						c.close ();
 					db.endTransaction ();
-					close ();
 				}				
+			} finally {
+				session.unlockWrite ();
+			}
+			
+			ans += updated.size () + deleted.size ();
+			account (rows.size (), ans);
+			
+			return ans;
+		}
+		
+		/**
+		 * Builds the key used to match stored rows with new items.
+		 * @param character the character (may be <code>null</code>)
+		 * @param meaning the meaning
+		 * @param level the level
+		 * @return the key
+		 */
+		private String getKey (Object character, Object meaning, Object level)
+		{
+			return level + KEY_SEPARATOR + 
+					(character != null ? character : KEY_SEPARATOR + meaning);
+		}
+		
+		/**
+		 * Returns the columns written by {@link #fillRow(List, Item)}, preceded
+		 * by the primary key.
+		 * @return the column names
+		 */
+		private String [] getColumnNames ()
+		{
+			StringTokenizer st;
+			String ans [];
+			int i;
+			
+			if (columns == null) {
+				st = new StringTokenizer (getInsertColumns (), ",");
+				ans = new String [st.countTokens () + 1];
+				ans [0] = C_ID;
+				for (i = 1; i < ans.length; i++)
+					ans [i] = st.nextToken ().trim ();
+				columns = ans;
+			}
+			
+			return columns;
+		}
+		
+		/**
+		 * Returns the statement that updates all the columns of a row. 
+		 * The arguments are the values written by {@link #fillRow(List, Item)}, 
+		 * followed by the primary key.
+		 * @return the SQL text
+		 */
+		private String getUpdateStatement ()
+		{
+			StringBuffer sb;
+			String cols [];
+			int i;
+			
+			if (updateStatement == null) {
+				cols = getColumnNames ();
+				sb = new StringBuffer ();
+				for (i = 1; i < cols.length; i++) {
+					if (i > 1)
+						sb.append (", ");
+					sb.append (cols [i]).append (" = ?");
+				}
+				updateStatement = String.format (SQL_UPDATE_ROW, getTable (), sb.toString ());
+			}
+			
+			return updateStatement;
+		}
+		
+		/**
+		 * Tells if a stored row holds exactly the values of a new one.
+		 * @param c a cursor on the columns returned by {@link #getColumnNames()}
+		 * @param row the values
+		 * @return <code>true</code> if no column differs
+		 */
+		private boolean sameRow (Cursor c, Object row [])
+		{
+			int i;
+			
+			for (i = 0; i < row.length; i++) {
+				if (row [i] == null) {
+					if (!c.isNull (i + 1))
+						return false;
+				} else if (c.isNull (i + 1))
+					return false;
+				else if (row [i] instanceof Long) {
+					if (c.getLong (i + 1) != (Long) row [i])
+						return false;
+				} else if (!row [i].equals (c.getString (i + 1)))
+					return false;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Binds the values of a row to the first arguments of a statement.
+		 * @param stmt the statement
+		 * @param row the values
+		 */
+		private void bindRow (SQLiteStatement stmt, Object row [])
+		{
+			int i;
+			
+			for (i = 0; i < row.length; i++) {
+				if (row [i] == null)
+					stmt.bindNull (i + 1);
+				else if (row [i] instanceof Long)
+					stmt.bindLong (i + 1, (Long) row [i]);
+				else
+					stmt.bindString (i + 1, (String) row [i]);
+			}
+		}
+		
+		/**
+		 * Counts the items of this table that have an SRS level, grouped by
+		 * bucket and SRS level. The grouping is done by SQLite, so no row
+		 * is returned to the caller.
+		 * @param bucket an SQL expression yielding the bucket of each row
+		 * @param where an additional condition (may be <code>null</code>)
+		 * @param args the arguments of the condition (may be <code>null</code>)
+		 * @param counts the object the counts are added to
+		 */
+		public void count (String bucket, String where, String args [], SRSCounts counts)
+		{
+			String columns [], selection;
+			Cursor c;
+			
+			columns = new String [] { bucket + " AS " + C_BUCKET, C_SRS, "COUNT(*)" };
+			selection = C_SRS + " IS NOT NULL";
+			if (where != null)
+				selection += " AND " + where;
+			
+			c = null;
+			try {
+				c = db ().query (getTable (), columns, selection, args, 
+								 C_BUCKET + ", " + C_SRS, null, null);
+				while (c.moveToNext ())
+					counts.add (c.getInt (0), c.getInt (1), c.getInt (2));
+			} finally {
+				if (c != null)
+					c.close ();
+			}
+		}
+		
+		/**
+		 * Counts the items of this table by level and SRS level.
+		 * @param counts the object the counts are added to. Buckets are levels
+		 */
+		public void countByLevel (SRSCounts counts)
+		{
+			count (C_LEVEL, null, null, counts);
+		}
+		
+		/**
+		 * Counts the items of this table by age and SRS level. The age is
+		 * the number of days since the item was unlocked, computed 
+		 * according to the current time zone.
+		 * @param days the width of each bucket, in days
+		 * @param counts the object the counts are added to
+		 */
+		public void countByAge (int days, SRSCounts counts)
+		{
+			String bucket;
+			long now, offset;
+			
+			now = System.currentTimeMillis ();
+			offset = TimeZone.getDefault ().getOffset (now);
+			bucket = String.format (Locale.US, "(%d - (%s + %d) / %d) / %d",
+									(now + offset) / ONE_DAY, C_UNLOCKED_DATE, offset, ONE_DAY, days);
+			count (bucket, C_UNLOCKED_DATE + " IS NOT NULL", null, counts);
+		}
+		
+		/**
+		 * Counts some items of this table by SRS level. All the counts
+		 * end up in bucket 0.
+		 * @param characters the characters of the items to count 
+		 * @param counts the object the counts are added to
+		 */
+		public void countByCharacter (String characters, SRSCounts counts)
+		{
+			List<String> args;
+			StringBuffer sb;
+			int i, cp;
+			
+			args = new Vector<String> ();
+			i = 0;
+			while (i < characters.length ()) {
+				cp = characters.codePointAt (i);
+				args.add (new String (Character.toChars (cp)));
+				i += Character.charCount (cp);
+				if (args.size () == MAX_ARGS || i == characters.length ()) {
+					sb = new StringBuffer ();
+					sb.append (C_CHARACTER).append (" IN (?");
+					for (cp = 1; cp < args.size (); cp++)
+						sb.append (", ?");
+					sb.append (")");
+					count ("0", sb.toString (), args.toArray (new String [args.size ()]), counts);
+					args.clear ();
+				}
 			}
+		}
+		
+		/**
+		 * Counts the upcoming reviews of this table, by time slot, level and
+		 * SRS level. Only the rows available before the end of the forecast
+		 * are read, through the index on the available date.
+		 * @param f the forecast the counts are added to
+		 */
+		public void forecast (Forecast f)
+		{
+			String columns [], selection;
+			Cursor c;
+			
+			columns = new String [] { 
+				String.format (Locale.US, "MAX (0, (%s - %d) / %d) AS %s", 
+							   C_AVAILABLE_DATE, f.start, f.slot, C_BUCKET),
+				C_LEVEL, C_SRS, "COUNT(*)" };
+			selection = WHERE_PENDING + " AND " + C_AVAILABLE_DATE + " < " + f.getEnd ();
 			
+			c = null;
+			try {
+				c = db ().query (getTable (), columns, selection, null, 
+								 C_BUCKET + ", " + C_LEVEL + ", " + C_SRS, null, null);
+				while (c.moveToNext ())
+					f.add (c.getInt (0), getType (), c.getInt (1), c.getInt (2), c.getInt (3));
+			} finally {
+				if (c != null)
+					c.close ();
+			}
+		}
+		
+		/**
+		 * Returns a query that selects the available dates of the items
+		 * of this table that will be reviewed after a given time.
+		 * @param after the time
+		 * @return the SQL text
+		 */
+		public String getPendingQuery (long after)
+		{
+			return "SELECT " + C_AVAILABLE_DATE + " FROM " + getTable () + 
+					" WHERE " + WHERE_PENDING + " AND " + C_AVAILABLE_DATE + " > " + after;
 		}
 		
 		protected abstract T buildItem (Cursor c);
@@ -397,6 +810,18 @@ public class ItemsDatabase {
 			return !c.isNull (idx) ? new Date (c.getLong (idx)) : null;
 		}
 		
+		/**
+		 * Reads a text column, returning the canonical instance of the string,
+		 * so that items loaded many times share their text fields.
+		 * @param c the cursor
+		 * @param col the column name
+		 * @return the string
+		 */
+		protected String getString (Cursor c, String col)
+		{
+			return StringPool.ITEMS.intern (c.getString (c.getColumnIndex (col)));
+		}
+		
 		protected String [] parseStringArray (String s)
 		{
 			StringTokenizer st;
@@ -451,36 +876,34 @@ public class ItemsDatabase {
 			return ans;
 		}
 		
-		private int fillPerformance (SQLiteStatement stmt, Item.Performance perf, int idx)
+		private void fillPerformance (List<Object> row, Item.Performance perf)
 		{
 			if (perf != null) {
-				stmt.bindLong (idx++, perf.correct);
-				stmt.bindLong (idx++, perf.incorrect);
-				stmt.bindLong (idx++, perf.maxStreak);
-				stmt.bindLong (idx++, perf.currentStreak);
+				row.add ((long) perf.correct);
+				row.add ((long) perf.incorrect);
+				row.add ((long) perf.maxStreak);
+				row.add ((long) perf.currentStreak);
 			} else {
-				stmt.bindNull (idx++);
-				stmt.bindNull (idx++);
-				stmt.bindNull (idx++);
-				stmt.bindNull (idx++);
+				row.add (null);
+				row.add (null);
+				row.add (null);
+				row.add (null);
 			}
-			
-			return idx;
 		}
 
 		protected void setFields (Cursor c, T i)
 		{
 			Item.Stats stats;
 			
-			i.character = c.getString (c.getColumnIndex (C_CHARACTER));
-			i.meaning = c.getString (c.getColumnIndex (C_MEANING));
+			i.character = getString (c, C_CHARACTER);
+			i.meaning = getString (c, C_MEANING);
 			i.level = c.getInt (c.getColumnIndex (C_LEVEL));
 			
 			if (!c.isNull (c.getColumnIndex (C_SRS))) {
 				stats = new Item.Stats ();
 				stats.srs = SRSLevel.fromOrdinal (c.getInt (c.getColumnIndex (C_SRS)));
-				stats.availableDate = getDate (c, C_AVAILABLE_DATE);
-				stats.burnedDate = getDate (c, C_BURNED_DATE);
+				stats.setAvailableDate (getDate (c, C_AVAILABLE_DATE));
+				stats.setBurnedDate (getDate (c, C_BURNED_DATE));
 				stats.burned = c.getInt (c.getColumnIndex (C_BURNED)) != 0;
 
 				stats.reading = loadPerformance (c, C_READING_CORRECT, C_READING_INCORRECT,
@@ -488,9 +911,10 @@ public class ItemsDatabase {
 				stats.meaning = loadPerformance (c, C_MEANING_CORRECT, C_MEANING_INCORRECT,
 						 		 			     C_MEANING_MAX_STREAK, C_READING_CURRENT_STREAK);
 				
-				stats.readingNote = c.getString (c.getColumnIndex (C_READING_NOTE));
-				stats.meaningNote = c.getString (c.getColumnIndex (C_MEANING_NOTE));
-				stats.userSynonyms = parseStringArray (c.getString (c.getColumnIndex (C_USER_SYNONYMS)));
+				stats.readingNote = getString (c, C_READING_NOTE);
+				stats.meaningNote = getString (c, C_MEANING_NOTE);
+				stats.userSynonyms = StringPool.ITEMS.intern
+						(parseStringArray (c.getString (c.getColumnIndex (C_USER_SYNONYMS))));
 				
 				i.setStats (stats);
 			}
@@ -498,63 +922,34 @@ public class ItemsDatabase {
 			i.setUnlockedDate (getDate (c, C_UNLOCKED_DATE));
 		}
 		
-		protected int fillStatement (SQLiteStatement stmt, T item)
+		/**
+		 * Appends the column values of an item to a row, in the order of
+		 * {@link #getInsertColumns()}. Integers are stored as <code>Long</code>s,
+		 * text as <code>String</code>s, and SQL nulls as <code>null</code>.
+		 * @param row the row
+		 * @param item the item
+		 */
+		protected void fillRow (List<Object> row, T item)
 		{
-			String s;
-			int idx;
-			
-			idx = 1;
-			if (item.character != null)
-				stmt.bindString (idx++, item.character);
-			else
-				stmt.bindNull (idx++);
-			stmt.bindString (idx++, item.meaning);
-			stmt.bindLong (idx++, item.level);
-			if (item.stats != null && item.stats.srs != null)
-				stmt.bindLong (idx++, item.stats.srs.ordinal ());
-			else
-				stmt.bindNull (idx++);
-
-			if (item.getUnlockedDate () != null)
-				stmt.bindLong (idx++, item.getUnlockedDate ().getTime ());
-			else
-				stmt.bindNull (idx++);
-			
-			if (item.stats != null && item.stats.availableDate != null)
-				stmt.bindLong (idx++, item.stats.availableDate.getTime ());
-			else
-				stmt.bindNull (idx++);
-			
-			if (item.stats != null && item.stats.burnedDate != null)
-				stmt.bindLong (idx++, item.stats.burnedDate.getTime ());
-			else
-				stmt.bindNull (idx++);
+			Item.Stats stats;
 			
-			stmt.bindLong (idx++, item.stats != null && item.stats.burned ? 1 : 0);
+			stats = item.stats;
+			row.add (item.character);
+			row.add (item.meaning);
+			row.add ((long) item.level);
+			row.add (stats != null && stats.srs != null ? (Long) (long) stats.srs.ordinal () : null);
+			row.add (item.getUnlockedDate () != null ? (Long) item.getUnlockedDate ().getTime () : null);
+			row.add (stats != null && stats.getAvailableTime () != 0 ? (Long) stats.getAvailableTime () : null);
+			row.add (stats != null && stats.getBurnedDate () != null ? (Long) stats.getBurnedDate ().getTime () : null);
+			row.add (stats != null && stats.burned ? 1L : 0L);
 
-			idx = fillPerformance (stmt, item.stats != null ? item.stats.reading : null, idx);
-			idx = fillPerformance (stmt, item.stats != null ? item.stats.meaning : null, idx);
-			
-			if (item.stats != null && item.stats.readingNote != null)
-				stmt.bindString (idx++, item.stats.readingNote);
-			else
-				stmt.bindNull (idx++);
+			fillPerformance (row, stats != null ? stats.reading : null);
+			fillPerformance (row, stats != null ? stats.meaning : null);
 			
-			if (item.stats != null && item.stats.meaningNote != null)
-				stmt.bindString (idx++, item.stats.meaningNote);
-			else
-				stmt.bindNull (idx++);
-			
-			if (item.stats != null && item.stats.userSynonyms != null)
-				s = encodeStringArray (item.stats.userSynonyms);
-			else
-				s = null;
-			if (s != null)
-				stmt.bindString (idx++, s);
-			else
-				stmt.bindNull (idx++);
-
-			return idx;
+			row.add (stats != null ? stats.readingNote : null);
+			row.add (stats != null ? stats.meaningNote : null);
+			row.add (stats != null && stats.userSynonyms != null ? 
+						encodeStringArray (stats.userSynonyms) : null);
 		}		
 	};
 	
@@ -574,10 +969,13 @@ public class ItemsDatabase {
 						SQL_CREATE_COLUMNS + ", " +
 						C_IMAGE + " TEXT NULL) ";
 		
+		private static final String SQL_COLUMNS =
+				SQL_INSERT_COLUMNS + ", " +
+						C_IMAGE;
+		
 		private static final String SQL_INSERT =
 				"INSERT INTO " + TABLE + "(" + 
-						SQL_INSERT_COLUMNS + ", " +
-						C_IMAGE + ") VALUES (" +
+						SQL_COLUMNS + ") VALUES (" +
 						SQL_INSERT_ARGS + ", ?)";
 										
 		@Override
@@ -586,6 +984,12 @@ public class ItemsDatabase {
 			return TABLE;
 		}
 		
+		@Override
+		public Item.Type getType ()
+		{
+			return Item.Type.RADICAL;
+		}
+		
 		@Override
 		public String getCreateStatement ()
 		{
@@ -597,6 +1001,12 @@ public class ItemsDatabase {
 		{
 			return SQL_INSERT;
 		}
+		
+		@Override
+		public String getInsertColumns ()
+		{
+			return SQL_COLUMNS;
+		}
 
 		@Override
 		protected Radical buildItem (Cursor c)
@@ -606,23 +1016,16 @@ public class ItemsDatabase {
 			ans = new Radical ();
 			
 			super.setFields (c, ans);			
-			ans.image = c.getString (c.getColumnIndex (C_IMAGE));
+			ans.image = getString (c, C_IMAGE);
 			
 			return ans;
 		}
 
 		@Override
-		protected int fillStatement (SQLiteStatement stmt, Radical item)
+		protected void fillRow (List<Object> row, Radical item)
 		{
-			int idx;
-			
-			idx = super.fillStatement (stmt, item);
-			if (item.image != null)
-				stmt.bindString (idx++, item.image);
-			else
-				stmt.bindNull (idx++);
-			
-			return idx;
+			super.fillRow (row, item);
+			row.add (item.image);
 		}		
 	}
 		
@@ -658,14 +1061,17 @@ public class ItemsDatabase {
 						C_IMPORTANT_IS_ON + " INTEGER NOT NULL," +
 						C_IMPORTANT_IS_KUN + " INTEGER NOT NULL)";
 		
-		private static final String SQL_INSERT =
-				"INSERT INTO " + TABLE + "(" + 
-						SQL_INSERT_COLUMNS + ", " +
+		private static final String SQL_COLUMNS =
+				SQL_INSERT_COLUMNS + ", " +
 						C_ONYOMI + ", " + 
 						C_KUNYOMI + ", " +
 						C_NANORI + ", " +
 						C_IMPORTANT_IS_ON + ", " +
-						C_IMPORTANT_IS_KUN + ") VALUES (" +
+						C_IMPORTANT_IS_KUN;
+		
+		private static final String SQL_INSERT =
+				"INSERT INTO " + TABLE + "(" + 
+						SQL_COLUMNS + ") VALUES (" +
 						SQL_INSERT_ARGS + ", ?, ?, ?, ?, ?)";		
 
 		public String getTable ()
@@ -673,6 +1079,12 @@ public class ItemsDatabase {
 			return TABLE;
 		}
 		
+		@Override
+		public Item.Type getType ()
+		{
+			return Item.Type.KANJI;
+		}
+		
 		@Override
 		public String getCreateStatement ()
 		{
@@ -684,6 +1096,12 @@ public class ItemsDatabase {
 		{
 			return SQL_INSERT;
 		}
+		
+		@Override
+		public String getInsertColumns ()
+		{
+			return SQL_COLUMNS;
+		}
 
 		@Override
 		protected Kanji buildItem (Cursor c)
@@ -693,9 +1111,9 @@ public class ItemsDatabase {
 			ans = new Kanji ();
 			
 			super.setFields (c, ans);			
-			ans.onyomi = c.getString (c.getColumnIndex (C_ONYOMI));
-			ans.kunyomi = c.getString (c.getColumnIndex (C_KUNYOMI));
-			ans.nanori = c.getString (c.getColumnIndex (C_NANORI));
+			ans.onyomi = getString (c, C_ONYOMI);
+			ans.kunyomi = getString (c, C_KUNYOMI);
+			ans.nanori = getString (c, C_NANORI);
 			ans.importantReading = 
 				c.getInt (c.getColumnIndex (C_IMPORTANT_IS_ON)) == 1 ?
 							Kanji.Reading.ONYOMI : 
@@ -706,30 +1124,14 @@ public class ItemsDatabase {
 		}
 
 		@Override
-		protected int fillStatement (SQLiteStatement stmt, Kanji item)
+		protected void fillRow (List<Object> row, Kanji item)
 		{
-			int idx;
-			
-			idx = super.fillStatement (stmt, item);
-			if (item.onyomi != null)
-				stmt.bindString (idx++, item.onyomi);
-			else
-				stmt.bindNull (idx++);
-			
-			if (item.kunyomi != null)
-				stmt.bindString (idx++, item.kunyomi);
-			else
-				stmt.bindNull (idx++);
-			
-			if (item.nanori != null)
-				stmt.bindString (idx++, item.nanori);
-			else
-				stmt.bindNull (idx++);
-
-			stmt.bindLong (idx++, item.importantReading == Kanji.Reading.ONYOMI ? 1 : 0);
-			stmt.bindLong (idx++, item.importantReading == Kanji.Reading.KUNYOMI ? 1 : 0);
-			
-			return idx;
+			super.fillRow (row, item);
+			row.add (item.onyomi);
+			row.add (item.kunyomi);
+			row.add (item.nanori);
+			row.add (item.importantReading == Kanji.Reading.ONYOMI ? 1L : 0L);
+			row.add (item.importantReading == Kanji.Reading.KUNYOMI ? 1L : 0L);
 		}		
 	};
 		
@@ -749,10 +1151,13 @@ public class ItemsDatabase {
 						SQL_CREATE_COLUMNS + ", " +
 						C_KANA + " TEXT NOT NULL)"; 
 
+		private static final String SQL_COLUMNS =
+				SQL_INSERT_COLUMNS + ", " +
+						C_KANA;
+
 		private static final String SQL_INSERT =
 				"INSERT INTO " + TABLE + "(" + 
-						SQL_INSERT_COLUMNS + ", " +
-						C_KANA + ") VALUES (" +
+						SQL_COLUMNS + ") VALUES (" +
 						SQL_INSERT_ARGS + ", ?)";		
 
 		public String getTable ()
@@ -760,6 +1165,12 @@ public class ItemsDatabase {
 			return TABLE;
 		}
 		
+		@Override
+		public Item.Type getType ()
+		{
+			return Item.Type.VOCABULARY;
+		}
+		
 		@Override
 		public String getCreateStatement ()
 		{
@@ -771,6 +1182,12 @@ public class ItemsDatabase {
 		{
 			return SQL_INSERT;
 		}
+		
+		@Override
+		public String getInsertColumns ()
+		{
+			return SQL_COLUMNS;
+		}
 
 		@Override
 		protected Vocabulary buildItem (Cursor c)
@@ -780,36 +1197,160 @@ public class ItemsDatabase {
 			ans = new Vocabulary ();
 			
 			super.setFields (c, ans);			
-			ans.kana = c.getString (c.getColumnIndex (C_KANA));
+			ans.kana = getString (c, C_KANA);
 			
 			return ans;
 		}
 
 		@Override
-		protected int fillStatement (SQLiteStatement stmt, Vocabulary item)
+		protected void fillRow (List<Object> row, Vocabulary item)
 		{
-			int idx;
-			
-			idx = super.fillStatement (stmt, item);
-			
-			stmt.bindString (idx++, item.kana);
-			
-			return idx;
+			super.fillRow (row, item);
+			row.add (item.kana);
 		}				
 	};
 	
 	/**
-	 * The DB open helper.  
+	 * The table holding the staleness model, i.e. the lifetime and the
+	 * fingerprint of each cached level, so that what has been learnt about
+	 * how often levels change is not lost when the process goes away.
+	 * Changes are not written as they happen: they are queued, and written 
+	 * by the next level update, in the same transaction.
 	 */
-	class OpenHelper extends SQLiteOpenHelper {
+	class StalenessTable implements StalenessModel.Storage {
 		
-		/** DB Version */
-		private static final int VERSION = 5;
+		/** Table name */
+		private static final String TABLE = "staleness";
 		
-		/** The db file */
-		private static final String NAME = "items.db";
+		/** Item type ordinal */
+		private static final String C_TYPE = "type";
 		
-		/**
+		/** Level */
+		private static final String C_LEVEL = "level";
+		
+		/** Lifetime */
+		private static final String C_LIFETIME = "lifetime";
+		
+		/** Fingerprint of the contents */
+		private static final String C_FINGERPRINT = "fingerprint";
+		
+		private static final String SQL_CREATE =
+				"CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+					C_TYPE + " INTEGER NOT NULL, " +
+					C_LEVEL + " INTEGER NOT NULL, " +
+					C_LIFETIME + " INTEGER NOT NULL, " +
+					C_FINGERPRINT + " INTEGER NOT NULL, " +
+					"PRIMARY KEY (" + C_TYPE + ", " + C_LEVEL + "))";
+		
+		private static final String SQL_DROP =
+				"DROP TABLE IF EXISTS " + TABLE;
+		
+		private static final String SQL_PUT =
+				"INSERT OR REPLACE INTO " + TABLE + " (" +
+					C_TYPE + ", " + C_LEVEL + ", " + C_LIFETIME + ", " + 
+					C_FINGERPRINT + ") VALUES (?, ?, ?, ?)";
+		
+		/** Rows waiting to be written, by type and level. Each row holds the values of {@link #SQL_PUT} */
+		private Map<String, long []> pending;
+		
+		/**
+		 * Constructor
+		 */
+		public StalenessTable ()
+		{
+			pending = new Hashtable<String, long []> ();
+		}
+		
+		public void onCreate (SQLiteDatabase db)
+		{
+			db.execSQL (SQL_CREATE);
+		}
+		
+		public void onDrop (SQLiteDatabase db)
+		{
+			db.execSQL (SQL_DROP);
+		}
+		
+		/**
+		 * Restores a model. If the table can't be read, the model
+		 * starts from scratch.
+		 * @param model the model
+		 */
+		@Override
+		public void load (StalenessModel model)
+		{
+			Item.Type types [];
+			String columns [];
+			Cursor c;
+			int type;
+			
+			types = Item.Type.values ();
+			columns = new String [] { C_TYPE, C_LEVEL, C_LIFETIME, C_FINGERPRINT };
+			c = null;
+			try {
+				c = db ().query (TABLE, columns, null, null, null, null, null);
+				while (c.moveToNext ()) {
+					type = c.getInt (0);
+					if (type >= 0 && type < types.length)
+						model.put (types [type], c.getInt (1), c.getLong (2), c.getLong (3));
+				}
+			} catch (SQLException e) {
+				/* Start from scratch */
+			} finally {
+				if (c != null)
+					c.close ();
+			}
+		}
+		
+		@Override
+		public synchronized void save (Item.Type type, int level, StalenessModel.LevelStats ls)
+		{
+			pending.put (type.ordinal () + "/" + level, 
+						 new long [] { type.ordinal (), level, ls.lifetime, ls.fingerprint });
+		}
+		
+		/**
+		 * Writes the queued changes. Called by {@link ItemsTable#update(LevelData)}
+		 * inside its transaction, with the writers lock held.
+		 */
+		public void flush ()
+		{
+			List<long []> rows;
+			SQLiteStatement stmt;
+			int i;
+			
+			synchronized (this) {
+				if (pending.isEmpty ())
+					return;
+				rows = new Vector<long []> (pending.values ());
+				pending.clear ();
+			}
+			
+			try {
+				stmt = session.getStatement (SQL_PUT);
+				for (long row [] : rows) {
+					for (i = 0; i < row.length; i++)
+						stmt.bindLong (i + 1, row [i]);
+					stmt.execute ();
+				}
+			} catch (SQLException e) {
+				/* Not a big deal: the model will just need to learn again */
+			}
+		}
+	}
+	
+	/**
+	 * The DB open helper.  
+	 */
+	class OpenHelper extends SQLiteOpenHelper {
+		
+		/** DB Version */
+		private static final int VERSION = 8;
+		
+		/** The db file */
+		private static final String NAME = "items.db";
+		
+		/**
 		 * Constructor
 		 * @param ctxt the context
 		 */
@@ -824,6 +1365,7 @@ public class ItemsDatabase {
 			new RadicalsTable ().onCreate (db);
 			new KanjiTable ().onCreate (db);
 			new VocabTable ().onCreate (db);
+			new StalenessTable ().onCreate (db);
 		}
 		
 		public void onDrop (SQLiteDatabase db)
@@ -831,15 +1373,354 @@ public class ItemsDatabase {
 			new RadicalsTable ().onDrop (db);
 			new KanjiTable ().onDrop (db);
 			new VocabTable ().onDrop (db);
+			new StalenessTable ().onDrop (db);
 		}
 
 		@Override
 		public void onUpgrade (SQLiteDatabase db, int oldv, int newv)
 		{
-			onDrop (db);
-			onCreate (db);
+			/* Versions 7 and 8 just add indexes and the staleness table, 
+			 * so there is no need to drop the cache */
+			if (oldv == 6 || oldv == 7) {
+				if (oldv == 6) {
+					new RadicalsTable ().onCreateIndexes (db);
+					new KanjiTable ().onCreateIndexes (db);
+					new VocabTable ().onCreateIndexes (db);
+				}
+				new StalenessTable ().onCreate (db);
+			} else {
+				onDrop (db);
+				onCreate (db);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Item counts, by bucket and SRS level, as returned by the aggregation
+	 * queries. Buckets are small non-negative numbers, such as levels
+	 * or age intervals. 
+	 */
+	public static class SRSCounts {
+		
+		/** SRS levels, by ordinal */
+		private static final SRSLevel SRS_LEVELS [] = SRSLevel.values ();
+		
+		/** Counts, indexed by bucket and SRS level ordinal */
+		private List<int []> counts;
+		
+		/** Total count */
+		private int total;
+		
+		/**
+		 * Constructor. Builds an empty object.
+		 */
+		public SRSCounts ()
+		{
+			counts = new Vector<int []> ();
+		}
+		
+		/**
+		 * Adds a count. Out of range buckets and SRS levels are ignored.
+		 * @param bucket the bucket
+		 * @param srs the SRS level ordinal
+		 * @param n the count
+		 */
+		void add (int bucket, int srs, int n)
+		{
+			if (bucket < 0 || srs < 0 || srs >= SRS_LEVELS.length)
+				return;
+			
+			while (counts.size () <= bucket)
+				counts.add (new int [SRS_LEVELS.length]);
+			counts.get (bucket) [srs] += n;
+			total += n;
+		}
+		
+		/**
+		 * Returns the number of buckets, i.e. the last nonempty bucket plus one.
+		 * @return the number of buckets
+		 */
+		public int getBuckets ()
+		{
+			return counts.size ();
+		}
+		
+		/**
+		 * Returns the count of a bucket and SRS level.
+		 * @param bucket the bucket
+		 * @param srs the SRS level
+		 * @return the count
+		 */
+		public int get (int bucket, SRSLevel srs)
+		{
+			return bucket >= 0 && bucket < counts.size () ? 
+					counts.get (bucket) [srs.ordinal ()] : 0;
+		}
+		
+		/**
+		 * Returns the count of an SRS level, across all the buckets.
+		 * @param srs the SRS level
+		 * @return the count
+		 */
+		public int get (SRSLevel srs)
+		{
+			int ans;
+			
+			ans = 0;
+			for (int [] bucket : counts)
+				ans += bucket [srs.ordinal ()];
+			
+			return ans;
+		}
+		
+		/**
+		 * Returns the total count.
+		 * @return the count
+		 */
+		public int getTotal ()
+		{
+			return total;
+		}
+	}
+	
+	/**
+	 * Upcoming reviews, counted by time slot. Slot <i>i</i> holds the items
+	 * that become available between <code>start + i * slot</code> and
+	 * <code>start + (i + 1) * slot</code>. Items that are already 
+	 * available are counted in slot 0.
+	 */
+	public static class Forecast {
+		
+		/**
+		 * The reviews of a slot that share item type, level and SRS level.
+		 */
+		public static class Entry {
+			
+			/** The slot */
+			public int slot;
+			
+			/** The item type */
+			public Item.Type type;
+			
+			/** The level */
+			public int level;
+			
+			/** The SRS level */
+			public SRSLevel srs;
+			
+			/** Number of reviews */
+			public int count;
+		}
+		
+		/** SRS levels, by ordinal */
+		private static final SRSLevel SRS_LEVELS [] = SRSLevel.values ();
+		
+		/** Start time of the first slot, in ms */
+		public long start;
+		
+		/** Slot width, in ms */
+		public long slot;
+		
+		/** Number of slots */
+		public int slots;
+		
+		/** The counts */
+		public List<Entry> entries;
+		
+		/**
+		 * Constructor. Builds an empty forecast.
+		 * @param start start time of the first slot, in ms
+		 * @param slot slot width, in ms
+		 * @param slots number of slots
+		 */
+		public Forecast (long start, long slot, int slots)
+		{
+			this.start = start;
+			this.slot = slot;
+			this.slots = slots;
+			
+			entries = new Vector<Entry> ();
+		}
+		
+		/**
+		 * Adds a count. Out of range slots and SRS levels are ignored.
+		 * @param slot the slot
+		 * @param type the item type
+		 * @param level the level
+		 * @param srs the SRS level ordinal
+		 * @param count the count
+		 */
+		void add (int slot, Item.Type type, int level, int srs, int count)
+		{
+			Entry e;
+			
+			if (slot < 0 || slot >= slots || srs < 0 || srs >= SRS_LEVELS.length)
+				return;
+			
+			e = new Entry ();
+			e.slot = slot;
+			e.type = type;
+			e.level = level;
+			e.srs = SRS_LEVELS [srs];
+			e.count = count;
+			entries.add (e);
+		}
+		
+		/**
+		 * Returns the end of the last slot.
+		 * @return the time, in ms
+		 */
+		public long getEnd ()
+		{
+			return start + slot * slots;
+		}
+		
+		/**
+		 * Returns the number of reviews of a slot.
+		 * @param slot the slot
+		 * @return the number of reviews
+		 */
+		public int getCount (int slot)
+		{
+			int ans;
+			
+			ans = 0;
+			for (Entry e : entries)
+				if (e.slot == slot)
+					ans += e.count;
+			
+			return ans;
+		}
+	}
+	
+	/**
+	 * A process-wide handle on the database. The database is opened the
+	 * first time it is needed, and stays open for the life of the process,
+	 * so lookups do not pay for opening the file, checking the schema
+	 * and compiling statements each time.
+	 * <p>
+	 * On devices supporting it, the database is switched to write-ahead
+	 * logging, so readers can proceed while a writer is updating a level.
+	 * Readers do not take the writers lock: a level lookup runs all its
+	 * queries in one read transaction, which gives it a consistent snapshot.
+	 * Writers are serialized by a lock that also protects the statement cache.
+	 */
+	private static class Session {
+		
+		/** The instance */
+		private static Session instance;
+		
+		/** The DB helper */
+		private OpenHelper helper;
+		
+		/** The database, or <code>null</code> if closed */
+		private SQLiteDatabase db;
+		
+		/** Compiled statements, by SQL text. Guarded by {@link #writer} */
+		private Map<String, SQLiteStatement> statements;
+		
+		/** The writers lock */
+		private ReentrantLock writer;
+		
+		/**
+		 * Constructor
+		 * @param helper the DB helper
+		 */
+		private Session (OpenHelper helper)
+		{
+			this.helper = helper;
+			
+			statements = new Hashtable<String, SQLiteStatement> ();
+			writer = new ReentrantLock ();
+		}
+		
+		/**
+		 * Returns the session, creating it if needed.
+		 * @param idb the database instance that is requesting the session
+		 * @param ctxt the context
+		 * @return the session
+		 */
+		public static synchronized Session get (ItemsDatabase idb, Context ctxt)
+		{
+			if (instance == null)
+				instance = new Session (idb.new OpenHelper (ctxt.getApplicationContext ()));
+			
+			return instance;
+		}
+		
+		/**
+		 * Returns the database, opening it if needed. The database is never 
+		 * closed, so that background tasks still running when an activity 
+		 * goes away can complete their queries. It is released together
+		 * with the process.
+		 * @return the database
+		 */
+		public synchronized SQLiteDatabase open ()
+			throws SQLException
+		{
+			if (db == null) {
+				/* Must open r/w to allow db upgrade */
+				db = helper.getWritableDatabase ();
+				if (Build.VERSION.SDK_INT >= 11)
+					db.enableWriteAheadLogging ();
+			}
+			
+			return db;
 		}
 		
+		/**
+		 * Returns a compiled statement. Statements are compiled once,
+		 * and kept for the life of the process. Bindings are cleared
+		 * on each call. Since statements can't be shared, the caller must
+		 * hold the writers lock.
+		 * @param sql the SQL text
+		 * @return the statement
+		 */
+		public SQLiteStatement getStatement (String sql)
+			throws SQLException
+		{
+			SQLiteStatement ans;
+			
+			ans = statements.get (sql);
+			if (ans == null) {
+				ans = db.compileStatement (sql);
+				statements.put (sql, ans);
+			} else
+				ans.clearBindings ();
+			
+			return ans;
+		}
+		
+		/**
+		 * Starts a transaction for a set of queries that must see the same data.
+		 * With write-ahead logging the transaction does not lock out readers,
+		 * and it does not need the writers lock. Must be ended with
+		 * {@link SQLiteDatabase#endTransaction()}.
+		 */
+		public void beginRead ()
+		{
+			if (Build.VERSION.SDK_INT >= 11)
+				db.beginTransactionNonExclusive ();
+			else
+				db.beginTransaction ();
+		}
+		
+		/**
+		 * Acquires the writers lock.
+		 */
+		public void lockWrite ()
+		{
+			writer.lock ();
+		}
+		
+		/**
+		 * Releases the writers lock.
+		 */
+		public void unlockWrite ()
+		{
+			writer.unlock ();
+		}
 	}
 	
 	private class ItemsCacheImpl implements ItemsCacheInterface {
@@ -882,60 +1763,92 @@ public class ItemsDatabase {
 		}
 	}
 
-	/** The DB helper */
-	private OpenHelper helper;
+	/** The instance */
+	private static ItemsDatabase instance;
 	
-	/** The database */
-	SQLiteDatabase db;
+	/** The shared database session */
+	private Session session;
 	
 	/** The cache */
 	ItemsCacheImpl cache;
 	
-	/** Synchronization */
-	public static final Object MUTEX = new Object ();
+	/** The staleness model, or <code>null</code> if not created yet */
+	private StalenessModel staleness;
+	
+	/** The table the staleness model is saved into, or <code>null</code> if not created yet */
+	private StalenessTable stalenessTable;
+	
+	/** Number of item rows passed to {@link ItemsTable#update(LevelData)} */
+	private static long rowsOffered;
+	
+	/** Number of item rows actually inserted, updated or deleted */
+	private static long rowsWritten;
 		
 	/**
 	 * Cosntructor
 	 * @param ctxt the context
 	 */
-	public ItemsDatabase (Context ctxt)
+	private ItemsDatabase (Context ctxt)
 	{		
-		helper = new OpenHelper (ctxt);
+		session = Session.get (this, ctxt);
 		cache = new ItemsCacheImpl ();
 	}	
 	
 	/**
-	 * Opens the database in r/w mode. This method may be called multiple times
-	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
-	 */	
-	public synchronized void openW ()
-		throws SQLException
+	 * Returns the items database. There is only one instance for the
+	 * whole process, and it is never closed.
+	 * @param ctxt the context
+	 * @return the database
+	 */
+	public static synchronized ItemsDatabase get (Context ctxt)
 	{
-		if (db == null)
-			db = helper.getWritableDatabase ();	
+		if (instance == null)
+			instance = new ItemsDatabase (ctxt);
+		
+		return instance;
 	}
 	
 	/**
-	 * Opens the database in r/o mode. This method may be called multiple times
-	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
-	 */	
-	public synchronized void openR ()
-		throws SQLException
+	 * Accounts for an update of the items tables.
+	 * @param offered the number of rows that have been passed
+	 * @param written the number of rows that have been written
+	 */
+	static synchronized void account (int offered, int written)
 	{
-		if (db == null)
-			db = helper.getReadableDatabase ();	
+		rowsOffered += offered;
+		rowsWritten += written;
 	}
 	
 	/**
-	 * Closes the DB.
+	 * Returns the number of item rows that have been passed to the
+	 * items tables since the process started.
+	 * @return the number of rows
 	 */
-	public void close ()
+	public static synchronized long getRowsOffered ()
+	{
+		return rowsOffered;
+	}
+	
+	/**
+	 * Returns the number of item rows that have been inserted, updated
+	 * or deleted since the process started. The difference with
+	 * {@link #getRowsOffered()} is the number of rows that were left
+	 * untouched because they had not changed.
+	 * @return the number of rows
+	 */
+	public static synchronized long getRowsWritten ()
+	{
+		return rowsWritten;
+	}
+	
+	/**
+	 * Returns the database, opening it if needed.
+	 * @return the database
+	 */
+	SQLiteDatabase db ()
 		throws SQLException
 	{
-		helper.close ();		
-		db = null;
+		return session.open ();
 	}
 	
 	public ItemsCacheInterface getCache ()
@@ -943,4 +1856,142 @@ public class ItemsDatabase {
 		return cache;
 	}
 	
+	/**
+	 * Returns the staleness model. The database is not accessed here: the model
+	 * is restored the first time it is used, i.e. by the first item fetch, 
+	 * which runs in background. Changes to the model are saved together with
+	 * the next level update.
+	 * @return the model
+	 */
+	public synchronized StalenessModel getStalenessModel ()
+	{
+		if (staleness == null) {
+			stalenessTable = new StalenessTable ();
+			staleness = new StalenessModel ();
+			staleness.setStorage (stalenessTable);
+		}
+		
+		return staleness;
+	}
+	
+	/**
+	 * Returns the table of an item type.
+	 * @param type the type
+	 * @return the table
+	 */
+	private ItemsTable<?> getTable (Item.Type type)
+	{
+		switch (type) {
+		case RADICAL:
+			return cache.radicals;
+			
+		case KANJI:
+			return cache.kanji;
+			
+		case VOCABULARY:
+			return cache.vocab;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Counts the cached items of some types by level and SRS level.
+	 * @param types the item types
+	 * @return the counts. Buckets are levels
+	 */
+	public SRSCounts countByLevel (EnumSet<Item.Type> types)
+	{
+		SRSCounts ans;
+		
+		ans = new SRSCounts ();
+		for (Item.Type type : types)
+			getTable (type).countByLevel (ans);
+		
+		return ans;
+	}
+	
+	/**
+	 * Counts the cached items of some types by age and SRS level.
+	 * Bucket <i>i</i> holds the items unlocked between <i>i</i> and 
+	 * <i>i+1</i> times <code>days</code> days ago.
+	 * @param days the width of each bucket, in days
+	 * @param types the item types
+	 * @return the counts
+	 */
+	public SRSCounts countByAge (int days, EnumSet<Item.Type> types)
+	{
+		SRSCounts ans;
+		
+		ans = new SRSCounts ();
+		for (Item.Type type : types)
+			getTable (type).countByAge (days, ans);
+		
+		return ans;
+	}
+
+	/**
+	 * Counts the upcoming reviews of the cached items, by time slot, item type,
+	 * level and SRS level. This is a range query on the available date, so it
+	 * is cheap even if the forecast is short.
+	 * @param start start time of the first slot, in ms
+	 * @param slot slot width, in ms
+	 * @param slots number of slots
+	 * @return the forecast
+	 */
+	public Forecast getForecast (long start, long slot, int slots)
+	{
+		Forecast ans;
+		
+		ans = new Forecast (start, slot, slots);
+		cache.radicals.forecast (ans);
+		cache.kanji.forecast (ans);
+		cache.vocab.forecast (ans);
+		
+		return ans;
+	}
+	
+	/**
+	 * Returns the time when a given number of cached items will have become 
+	 * available for review, counting from a given time.
+	 * @param after the time
+	 * @param n the number of items
+	 * @return the time, or <code>null</code> if fewer items are due 
+	 */
+	public Date getAvailableDate (long after, int n)
+	{
+		String sql;
+		Cursor c;
+		
+		sql = "SELECT * FROM (" + 
+				cache.radicals.getPendingQuery (after) + " UNION ALL " +
+				cache.kanji.getPendingQuery (after) + " UNION ALL " + 
+				cache.vocab.getPendingQuery (after) + ") ORDER BY 1 LIMIT 1 OFFSET " + (n - 1);
+		c = null;
+		try {
+			c = db ().rawQuery (sql, null);
+			return c.moveToFirst () ? new Date (c.getLong (0)) : null;
+		} finally {
+			if (c != null)
+				c.close ();
+		}
+	}
+	
+	/**
+	 * Counts the cached items of a given type, whose character belongs to a 
+	 * set, by SRS level.
+	 * @param type the item type
+	 * @param characters the characters
+	 * @return the counts, all in bucket 0
+	 */
+	public SRSCounts countByCharacter (Item.Type type, String characters)
+	{
+		SRSCounts ans;
+		
+		ans = new SRSCounts ();
+		getTable (type).countByCharacter (characters, ans);
+		
+		return ans;
+	}
+	
 }
@@ -23,6 +23,7 @@ import com.wanikani.androidnotifier.MeterSpec;
 import com.wanikani.androidnotifier.SettingsActivity;
 import com.wanikani.androidnotifier.WebReviewActivity;
 import com.wanikani.androidnotifier.db.HistoryDatabase;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.notification.NotificationInterface.ChangeType;
 import com.wanikani.androidnotifier.notification.NotifierStateMachine.Event;
 import com.wanikani.wklib.Connection;
@@ -81,6 +82,9 @@ public class NotificationService
 		
 		public ExtendedLevelProgression elp;
 		
+		/// When the review threshold should be reached, according to the items cache. May be <code>null</code>
+		public Date thresholdDate;
+		
 		private static final String PREF_REVIEWS = PREFIX + "sd.reviews";
 		
 		private static final String PREF_LESSONS = PREFIX + "sd.lessons";
@@ -584,6 +588,7 @@ public class NotificationService
 			sd.dd = new DashboardData (intent.getBundleExtra (KEY_DD));
 			if (sd.dd.od.elp != null && sd.dd.od.lpStatus == OptionalDataStatus.RETRIEVED)
 				sd.setExtendedLevelProgression (sd.dd.od.elp);
+			sd.thresholdDate = getThresholdDate (SettingsActivity.getReviewThreshold (this) - sd.dd.reviewsAvailable);
 			nifc.update (sd, ChangeType.DATA);
 			fsm.next (NotifierStateMachine.Event.E_UNSOLICITED, 
 					  SettingsActivity.getReviewThreshold (this), 
@@ -654,15 +659,35 @@ public class NotificationService
 			sd.dd.serialize (this, DashboardData.Source.NOTIFICATION_SERVICE);
 			
 			dd = sd.dd;
+			sd.thresholdDate = getThresholdDate (SettingsActivity.getReviewThreshold (this) - dd.reviewsAvailable);
 		} catch (IOException e) {
 			if (event == Event.E_UNSOLICITED)
 				return;
 			
 			dd = new DashboardData (e);
+			sd.thresholdDate = null;
 		}
 		
 		fsm.next (event, SettingsActivity.getReviewThreshold (this), dd, sd);
 	}	
+	
+	/**
+	 * Looks up the items cache to find out when a given number of new 
+	 * reviews will become available.
+	 * @param n the number of reviews
+	 * @return the date, or <code>null</code> if it can't be told
+	 */
+	private Date getThresholdDate (int n)
+	{
+		if (n <= 0)
+			return null;
+		
+		try {
+			return ItemsDatabase.get (this).getAvailableDate (System.currentTimeMillis (), n);
+		} catch (SQLException e) {
+			return null;
+		}
+	}
 		
 	/**
 	 * Shows the notification icon.
@@ -8,6 +8,7 @@ import android.os.Bundle;
 import com.wanikani.androidnotifier.DashboardData;
 import com.wanikani.androidnotifier.MeterSpec;
 import com.wanikani.wklib.AuthenticationException;
+import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.ExtendedLevelProgression;
 
 /* 
@@ -50,7 +51,9 @@ import com.wanikani.wklib.ExtendedLevelProgression;
  *		as soon as we detect some activity (i.e. the number
  *		of pending reviews diminishes)
  *   	<li>Error: again, we apply an exponential backoff algorithm
- *		and start polling the site. Since timeouts grow
+ *		and start polling the site. If the connection circuit breaker
+ *		is open (i.e. the server is known to be down), we wait 
+ *		until it allows requests again. Since timeouts grow
  *		quickly large, feeding the state machine with connectivity 
  *		changes might prove useful. This applies particularly 
  *		to boot time because the application may be started
@@ -186,7 +189,11 @@ public class NotifierStateMachine {
 							   NotificationService.StateData sd) 
 				{
 					fsm.ifc.hideNotification ();
-					if (prev != this)
+					/* The items cache may be stale, so don't trust it beyond the usual cap */
+					if (sd.thresholdDate != null)
+						fsm.schedule (sd.thresholdDate, 10000, 
+									  NotifierStateMachine.T_CAP_WAITING_FOR_REVIEWS);
+					else if (prev != this)
 						fsm.schedule (NotifierStateMachine.T_INT_WAITING_FOR_REVIEWS);
 					else
 						fsm.schedule (NotifierStateMachine.T_INT_WAITING_FOR_REVIEWS,
@@ -227,8 +234,14 @@ public class NotifierStateMachine {
 							   State prev, DashboardData ldd, DashboardData cdd, 
 							   NotificationService.StateData sd) 
 				{
+					Date retry;
+					
+					retry = Connection.getCircuitBreaker ().getRetryDate ();
 					if (cdd.e instanceof AuthenticationException)
 						fsm.schedule (NotifierStateMachine.T_CAP_ERROR);
+					else if (retry != null)
+						/* The server is known to be down: no point in polling before it can be reached */
+						fsm.schedule (retry, T_INT_ERROR * 60 * 1000, T_CAP_ERROR);
 					else if (prev != this || 
 							 ldd != null && ldd.e != null &&  
 							 ldd.e.getClass () != cdd.e.getClass ())  
@@ -412,6 +425,28 @@ public class NotifierStateMachine {
 		ifc.schedule (this, new Date (now + ldelta * 60 * 1000));
 	}
 
+	/**
+	 * Schedule a timeout at a given point in time, unless it is too far away.
+	 * The exponential backoff algorithm continues from the actual delay, so
+	 * if the date was not enough, the next timeout will be longer.
+	 *	@param date when to trigger it
+	 *	@param tolerance an extra delay (in milliseconds)
+	 *	@param cap the max delay in minutes
+	 */
+	void schedule (Date date, long tolerance, int cap)
+	{
+		long now;
+		
+		now = System.currentTimeMillis ();
+		ldelta = (int) ((date.getTime () + tolerance - now) / (60 * 1000));
+		if (ldelta < 1)
+			ldelta = 1;
+		else if (ldelta > cap)
+			ldelta = cap;
+		
+		ifc.schedule (this, new Date (now + ldelta * 60 * 1000));
+	}
+
 	/**
 	 * Schedule a timeout at a given point in time.
 	 *	@param date when to trigger it
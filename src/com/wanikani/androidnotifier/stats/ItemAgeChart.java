@@ -1,6 +1,5 @@
 package com.wanikani.androidnotifier.stats;
 
-import java.util.Date;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.List;
@@ -12,12 +11,14 @@ import android.view.View;
 import com.wanikani.androidnotifier.MainActivity;
 import com.wanikani.androidnotifier.MeterSpec;
 import com.wanikani.androidnotifier.R;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.graph.HistogramChart;
 import com.wanikani.androidnotifier.graph.HistogramPlot;
 import com.wanikani.androidnotifier.graph.IconizableChart;
 import com.wanikani.androidnotifier.graph.HistogramPlot.Sample;
 import com.wanikani.wklib.Connection.Meter;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemColumns;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
@@ -42,7 +43,7 @@ import com.wanikani.wklib.Vocabulary;
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-public class ItemAgeChart implements NetworkEngine.Chart {
+public class ItemAgeChart implements NetworkEngine.LocalChart {
 	
 	private class ResourceData {
 		
@@ -185,13 +186,7 @@ public class ItemAgeChart implements NetworkEngine.Chart {
 		
 			if (ok) {				
 				availableTypes.addAll (collectedTypes);
-				sbars = scale (bars);
-				origin = 0;
-				for (HistogramPlot.Samples bar : bars) {
-					if (bar.getTotal () != 0)
-						break;
-					origin++;
-				}				
+				finish ();
 				for (Item.Type t : types)
 					if (!availableTypes.contains (t))
 						return;
@@ -200,6 +195,20 @@ public class ItemAgeChart implements NetworkEngine.Chart {
 			updatePlot (this);
 		}	
 		
+		/**
+		 * Computes the scaled bars and the origin.
+		 */
+		private void finish ()
+		{
+			sbars = scale (bars);
+			origin = 0;
+			for (HistogramPlot.Samples bar : bars) {
+				if (bar.getTotal () != 0)
+					break;
+				origin++;
+			}				
+		}
+		
 		private List<HistogramPlot.Samples> scale (List<HistogramPlot.Samples> bars)
 		{
 			List<HistogramPlot.Samples> ans;
@@ -242,44 +251,51 @@ public class ItemAgeChart implements NetworkEngine.Chart {
 		
 		public void newRadical (ItemLibrary<Radical> radicals)
 		{
-			if (availableTypes.contains (Item.Type.RADICAL) || !types.contains (Item.Type.RADICAL))
-				return;
-			
-			for (Item i : radicals.list)
-				put (i);
+			/* Handled by newItems */
 		}
 		
 		public void newKanji (ItemLibrary<Kanji> kanji)
 		{
-			if (availableTypes.contains (Item.Type.KANJI) || !types.contains (Item.Type.KANJI))
-				return;
-
-			for (Item i : kanji.list)
-				put (i);
+			/* Handled by newItems */
 		}
 
 		public void newVocab (ItemLibrary<Vocabulary> vocabs)
 		{
-			if (availableTypes.contains (Item.Type.VOCABULARY) || !types.contains (Item.Type.VOCABULARY))
-				return;
-
-			for (Item i : vocabs.list)
-				put (i);			
+			/* Handled by newItems */
 		}
-
-		private void put (Item i)
+		
+		public void newItems (Item.Type type, ItemColumns cols)
 		{
-			Date udate;
-			int idx;
+			int i, idx, today;
 			
-			udate = i.getUnlockedDate ();
-			if (udate == null || ui == null)
+			if (availableTypes.contains (type) || !types.contains (type) || ui == null)
 				return;
 			
-			idx = (ui.getDay () - ui.getDay (udate)) / SCALE;
+			today = ui.getDay ();
+			for (i = 0; i < cols.size; i++) {
+				/* No SRS for locked items. Should not happen, however... */
+				if (cols.unlocked [i] == ItemColumns.NO_DATE || cols.srs [i] == ItemColumns.NO_SRS)
+					continue;
+				
+				idx = (today - ui.getDay (cols.unlocked [i])) / SCALE;
+				getBar (idx).samples.get (imap.get (cols.getSRS (i))).value++;
+			}
+		}
+		
+		/**
+		 * Adds the counts computed by the items database, and computes
+		 * the scaled bars.
+		 * @param counts the counts, by age, in units of {@link #SCALE} days 
+		 */
+		public void newCounts (ItemsDatabase.SRSCounts counts)
+		{
+			int i;
+			
+			for (i = 0; i < counts.getBuckets (); i++)
+				for (SRSLevel srs : imap.keySet ())
+					getBar (i).samples.get (imap.get (srs)).value += counts.get (i, srs);
 			
-			if (i.stats != null)	// stats is null for locked items. Should not be, however...
-				getBar (idx).samples.get (imap.get (i.stats.srs)).value++;
+			finish ();
 		}
 	}
 	
@@ -367,6 +383,42 @@ public class ItemAgeChart implements NetworkEngine.Chart {
 			chart.setError ("Not enough data to build this plot yet");
 	}
 
+	@Override
+	public Runnable preview (ItemsDatabase idb)
+	{
+		ItemsDatabase.SRSCounts counts;
+		final State pstate;
+		
+		if (state != null)
+			return null;
+		
+		counts = idb.countByAge (State.SCALE, types);
+		pstate = new State (null);
+		pstate.newCounts (counts);
+		if (pstate.sbars.isEmpty ())
+			return null;
+		
+		return new Runnable () {
+			public void run ()
+			{
+				showPreview (pstate);
+			}
+		};
+	}
+	
+	/**
+	 * Plots a preview, unless the actual data is already available.
+	 * @param pstate the preview state
+	 */
+	private void showPreview (State pstate)
+	{
+		if (state != null || chart == null || rd == null)
+			return;
+		
+		pstate.loadResources (rd);
+		chart.setData (pstate.series, pstate.sbars, -1, pstate.origin);
+	}
+
 	public boolean scrolling (boolean strict)
 	{
 		return chart != null && chart.scrolling (strict);
@@ -378,6 +430,18 @@ public class ItemAgeChart implements NetworkEngine.Chart {
 		state = null;
 	}
 	
+	@Override
+	public void itemsUpdated (Item.Type type)
+	{
+		if (!types.contains (type))
+			return;
+		
+		if (chart != null)
+			chart.flush ();
+		else
+			flush ();
+	}
+	
 	@Override
 	public void loadData ()
 	{
@@ -11,11 +11,13 @@ import android.view.View;
 import com.wanikani.androidnotifier.MainActivity;
 import com.wanikani.androidnotifier.MeterSpec;
 import com.wanikani.androidnotifier.R;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.graph.HistogramChart;
 import com.wanikani.androidnotifier.graph.HistogramPlot;
 import com.wanikani.androidnotifier.graph.IconizableChart;
 import com.wanikani.wklib.Connection.Meter;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemColumns;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
@@ -40,7 +42,7 @@ import com.wanikani.wklib.Vocabulary;
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-public class ItemDistributionChart implements NetworkEngine.Chart {
+public class ItemDistributionChart implements NetworkEngine.LocalChart {
 	
 	private class ResourceData {
 		
@@ -178,35 +180,42 @@ public class ItemDistributionChart implements NetworkEngine.Chart {
 		
 		public void newRadical (ItemLibrary<Radical> radicals)
 		{
-			if (availableTypes.contains (Item.Type.RADICAL) || !types.contains (Item.Type.RADICAL))
-				return;
-			
-			for (Item i : radicals.list)
-				put (i);
+			/* Handled by newItems */
 		}
 		
 		public void newKanji (ItemLibrary<Kanji> kanji)
 		{
-			if (availableTypes.contains (Item.Type.KANJI) || !types.contains (Item.Type.KANJI))
-				return;
-
-			for (Item i : kanji.list)
-				put (i);
+			/* Handled by newItems */
 		}
 
 		public void newVocab (ItemLibrary<Vocabulary> vocabs)
 		{
-			if (availableTypes.contains (Item.Type.VOCABULARY) || !types.contains (Item.Type.VOCABULARY))
+			/* Handled by newItems */
+		}
+		
+		public void newItems (Item.Type type, ItemColumns cols)
+		{
+			int i;
+			
+			if (availableTypes.contains (type) || !types.contains (type))
 				return;
-
-			for (Item i : vocabs.list)
-				put (i);			
+			
+			for (i = 0; i < cols.size; i++)
+				if (cols.srs [i] != ItemColumns.NO_SRS)	// no SRS for locked items
+					bars.get (cols.level [i] - 1).samples.get (imap.get (cols.getSRS (i))).value++;
 		}
-
-		private void put (Item i)
+		
+		/**
+		 * Adds the counts computed by the items database.
+		 * @param counts the counts, by level
+		 */
+		public void newCounts (ItemsDatabase.SRSCounts counts)
 		{
-			if (i.stats != null)	// stats is null for locked items
-				bars.get (i.level - 1).samples.get (imap.get (i.stats.srs)).value++;
+			int i;
+			
+			for (i = 1; i <= levels && i < counts.getBuckets (); i++)
+				for (SRSLevel srs : imap.keySet ())
+					bars.get (i - 1).samples.get (imap.get (srs)).value += counts.get (i, srs);
 		}
 	}
 	
@@ -290,6 +299,43 @@ public class ItemDistributionChart implements NetworkEngine.Chart {
 			chart.setData (state.series, state.bars, -1);
 	}
 
+	@Override
+	public Runnable preview (ItemsDatabase idb)
+	{
+		ItemsDatabase.SRSCounts counts;
+		final State pstate;
+		
+		if (state != null)
+			return null;
+		
+		counts = idb.countByLevel (types);
+		if (counts.getTotal () == 0)
+			return null;
+		
+		pstate = new State (counts.getBuckets () - 1);
+		pstate.newCounts (counts);
+		
+		return new Runnable () {
+			public void run ()
+			{
+				showPreview (pstate);
+			}
+		};
+	}
+	
+	/**
+	 * Plots a preview, unless the actual data is already available.
+	 * @param pstate the preview state
+	 */
+	private void showPreview (State pstate)
+	{
+		if (state != null || chart == null || rd == null)
+			return;
+		
+		pstate.loadResources (rd);
+		chart.setData (pstate.series, pstate.bars, -1);
+	}
+
 	public boolean scrolling (boolean strict)
 	{
 		return chart != null && chart.scrolling (strict);
@@ -301,6 +347,18 @@ public class ItemDistributionChart implements NetworkEngine.Chart {
 		state = null;
 	}
 	
+	@Override
+	public void itemsUpdated (Item.Type type)
+	{
+		if (!types.contains (type))
+			return;
+		
+		if (chart != null)
+			chart.flush ();
+		else
+			flush ();
+	}
+	
 	@Override
 	public void loadData ()
 	{
@@ -10,10 +10,12 @@ import android.view.View;
 import com.wanikani.androidnotifier.MainActivity;
 import com.wanikani.androidnotifier.MeterSpec;
 import com.wanikani.androidnotifier.R;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.graph.ProgressChart;
 import com.wanikani.androidnotifier.graph.ProgressPlot;
 import com.wanikani.wklib.Connection.Meter;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemColumns;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
@@ -38,7 +40,7 @@ import com.wanikani.wklib.Vocabulary;
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-public class KanjiProgressChart implements NetworkEngine.Chart {
+public class KanjiProgressChart implements NetworkEngine.LocalChart {
 	
 	private class ResourceData {
 		
@@ -117,11 +119,37 @@ public class KanjiProgressChart implements NetworkEngine.Chart {
 		{
 			error = !ok;
 			
-			dses = new Vector<ProgressPlot.DataSet> (slds.values ());
-			dses.add (rds);
+			finish ();
 
 			updatePlot (this);
 		}
+		
+		/**
+		 * Builds the data sets.
+		 */
+		private void finish ()
+		{
+			dses = new Vector<ProgressPlot.DataSet> (slds.values ());
+			dses.add (rds);
+		}
+		
+		/**
+		 * Adds the counts computed by the items database, and builds
+		 * the data sets.
+		 * @param counts the counts
+		 */
+		public void newCounts (ItemsDatabase.SRSCounts counts)
+		{
+			int n;
+			
+			for (SRSLevel srs : slds.keySet ()) {
+				n = counts.get (srs);
+				slds.get (srs).value += n;
+				rds.value -= n;
+			}
+			
+			finish ();
+		}
 
 		public void newRadical (ItemLibrary<Radical> radicals)
 		{
@@ -142,6 +170,11 @@ public class KanjiProgressChart implements NetworkEngine.Chart {
 		{
 			/* empty */
 		}		
+		
+		public void newItems (Item.Type type, ItemColumns cols)
+		{
+			/* empty: we need kanji characters, so we use newKanji */
+		}
 			
 	}
 	
@@ -208,6 +241,43 @@ public class KanjiProgressChart implements NetworkEngine.Chart {
 		return false;
 	}
 	
+	@Override
+	public Runnable preview (ItemsDatabase idb)
+	{
+		ItemsDatabase.SRSCounts counts;
+		final State pstate;
+		
+		if (state != null)
+			return null;
+		
+		counts = idb.countByCharacter (Item.Type.KANJI, library);
+		if (counts.getTotal () == 0)
+			return null;
+		
+		pstate = new State ();
+		pstate.newCounts (counts);
+		
+		return new Runnable () {
+			public void run ()
+			{
+				showPreview (pstate);
+			}
+		};
+	}
+	
+	/**
+	 * Plots a preview, unless the actual data is already available.
+	 * @param pstate the preview state
+	 */
+	private void showPreview (State pstate)
+	{
+		if (state != null || plot == null || rd == null)
+			return;
+		
+		pstate.loadResources (rd);
+		plot.setData (pstate.dses);				
+	}
+	
 	private void updatePlot (State state)
 	{
 		this.state = state;
@@ -231,6 +301,18 @@ public class KanjiProgressChart implements NetworkEngine.Chart {
 		state = null;
 	}
 	
+	@Override
+	public void itemsUpdated (Item.Type type)
+	{
+		if (!types.contains (type))
+			return;
+		
+		if (chart != null)
+			chart.flush ();
+		else
+			flush ();
+	}
+	
 	@Override
 	public void loadData ()
 	{
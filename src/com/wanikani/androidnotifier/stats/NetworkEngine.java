@@ -6,12 +6,16 @@ import java.util.List;
 import java.util.Vector;
 
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.view.View;
 
 import com.wanikani.androidnotifier.MainActivity;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.graph.IconizableChart;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemColumns;
+import com.wanikani.wklib.ItemDecoder;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
@@ -45,6 +49,15 @@ public class NetworkEngine {
 
 		public void newVocab (ItemLibrary<Vocabulary> vocabs);
 		
+		/**
+		 * Called with the columnar view of each batch of items, right
+		 * after the type-specific method. Charts that only need levels,
+		 * SRS levels and dates should use this one.
+		 * @param type the item type
+		 * @param cols the items 
+		 */
+		public void newItems (Item.Type type, ItemColumns cols);
+		
 		public void done (boolean ok);
 	}
 	
@@ -57,8 +70,104 @@ public class NetworkEngine {
 		public void unbind ();
 		
 		public boolean scrolling (boolean strict);
+		
+		/**
+		 * Called when some items have been refreshed in background.
+		 * If the chart is built from items of that type, it should drop
+		 * its data, and reload it if it is being displayed.
+		 * @param type the item type
+		 */
+		public void itemsUpdated (Item.Type type);
+	}
+	
+	/**
+	 * Implemented by charts that can be previewed from the counts computed
+	 * by the local items database, while the items are being fetched.
+	 */
+	public static interface LocalChart extends Chart {
+		
+		/**
+		 * Queries the database. Called on the background thread, before
+		 * any item is fetched. 
+		 * @param idb the items database
+		 * @return a task that shows the preview, to be run on the UI thread, 
+		 * or <code>null</code> if there is nothing to show
+		 */
+		public Runnable preview (ItemsDatabase idb);
+	}
+	
+	/**
+	 * Forwards radicals to the chart states, as soon as they are decoded.
+	 */
+	private static class RadicalFeeder implements ItemDecoder.Listener<Radical> {
+		
+		List<State> states;
+		
+		public RadicalFeeder (List<State> states)
+		{
+			this.states = states;
+		}
+		
+		public void newItems (ItemLibrary<Radical> lib)
+		{
+			ItemColumns cols;
+			
+			cols = new ItemColumns (lib);
+			for (State s : states) {
+				s.newRadical (lib);
+				s.newItems (Item.Type.RADICAL, cols);
+			}
+		}
 	}
 	
+	/**
+	 * Forwards kanji to the chart states, as soon as they are decoded.
+	 */
+	private static class KanjiFeeder implements ItemDecoder.Listener<Kanji> {
+		
+		List<State> states;
+		
+		public KanjiFeeder (List<State> states)
+		{
+			this.states = states;
+		}
+		
+		public void newItems (ItemLibrary<Kanji> lib)
+		{
+			ItemColumns cols;
+			
+			cols = new ItemColumns (lib);
+			for (State s : states) {
+				s.newKanji (lib);
+				s.newItems (Item.Type.KANJI, cols);
+			}
+		}
+	}
+
+	/**
+	 * Forwards vocab to the chart states, as soon as they are decoded.
+	 */
+	private static class VocabFeeder implements ItemDecoder.Listener<Vocabulary> {
+		
+		List<State> states;
+		
+		public VocabFeeder (List<State> states)
+		{
+			this.states = states;
+		}
+		
+		public void newItems (ItemLibrary<Vocabulary> lib)
+		{
+			ItemColumns cols;
+			
+			cols = new ItemColumns (lib);
+			for (State s : states) {
+				s.newVocab (lib);
+				s.newItems (Item.Type.VOCABULARY, cols);
+			}
+		}
+	}
+
 	/**
 	 * The asynch task that loads all the info from WK, feeds the database and
 	 * publishes the progress.
@@ -93,9 +202,7 @@ public class NetworkEngine {
 		@Override
 		protected Boolean doInBackground (Void... v)
 		{
-			ItemLibrary<Radical> rlib;
-			ItemLibrary<Kanji> klib;
-			ItemLibrary<Vocabulary> vlib;
+			VocabFeeder vfeeder;
 			UserInformation ui;
 			int i, j, bunch [];
 			State state;
@@ -103,6 +210,9 @@ public class NetworkEngine {
 			if (task.types.isEmpty ())
 				return true;
 			
+			if (idb != null)
+				preview (idb);
+			
 			try {
 				ui = conn.getUserInformation (task.meter);
 			} catch (IOException e) {
@@ -121,21 +231,15 @@ public class NetworkEngine {
 			publishProgress ((100 * 1) / (ui.level + 2));
 
 			try {
-				if (task.types.contains (Item.Type.RADICAL)) {
-					rlib = conn.getRadicals (task.meter);
-					for (State s : states)
-						s.newRadical (rlib);
-				}
+				if (task.types.contains (Item.Type.RADICAL))
+					conn.getRadicals (task.meter, new RadicalFeeder (states));
 			} catch (IOException e) {
 				return false;
 			} 
 
 			try {
-				if (task.types.contains (Item.Type.KANJI)) {
-					klib = conn.getKanji (task.meter);
-					for (State s : states)
-						s.newKanji (klib);
-				}
+				if (task.types.contains (Item.Type.KANJI))
+					conn.getKanji (task.meter, new KanjiFeeder (states));
 			} catch (IOException e) {
 				return false;
 			} 
@@ -144,14 +248,13 @@ public class NetworkEngine {
 			
 			try {
 				if (task.types.contains (Item.Type.VOCABULARY)) {
+					vfeeder = new VocabFeeder (states);
 					i = 1;
 					while (i <= ui.level) {
 						bunch = new int [Math.min (BUNCH_SIZE, ui.level - i + 1)];
 						for (j = 0; j < BUNCH_SIZE && i <= ui.level; j++)
 							bunch [j] = i++;
-						vlib = conn.getVocabulary (task.meter, bunch);
-						for (State s : states)
-							s.newVocab (vlib);
+						conn.getVocabulary (task.meter, bunch, vfeeder);
 						publishProgress ((100 * (i - 1)) / (ui.level + 2));
 					}
 				}
@@ -162,6 +265,23 @@ public class NetworkEngine {
 			return true;
 		}	
 				
+		/**
+		 * Shows the previews of the charts that support them.
+		 * @param idb the items database
+		 */
+		private void preview (ItemsDatabase idb)
+		{
+			Runnable r;
+			
+			for (Chart c : charts) {
+				if (c instanceof LocalChart) {
+					r = ((LocalChart) c).preview (idb);
+					if (r != null)
+						handler.post (r);
+				}
+			}
+		}
+		
 		@Override
 		protected void onProgressUpdate (Integer... i)
 		{
@@ -208,6 +328,12 @@ public class NetworkEngine {
 	
 	private Connection conn;
 	
+	/// The items database, used to preview charts. May be <code>null</code>
+	private ItemsDatabase idb;
+	
+	/// The UI thread handler
+	private Handler handler;
+	
 	private List<Chart> charts;
 	
 	private EnumSet<Item.Type> availableTypes; 
@@ -215,6 +341,7 @@ public class NetworkEngine {
 	public NetworkEngine ()
 	{
 		charts = new Vector<Chart> ();
+		handler = new Handler ();
 		
 		availableTypes = EnumSet.noneOf (Item.Type.class);
 		tasks = new Vector<PendingTask> ();
@@ -262,6 +389,7 @@ public class NetworkEngine {
 	public void bind (MainActivity main, View view)
 	{
 		conn = main.getConnection ();
+		idb = main.getItemsDatabase ();
 		
 		for (Chart chart : charts)
 			chart.bind (main, view);
@@ -286,4 +414,18 @@ public class NetworkEngine {
 	{
 		availableTypes = EnumSet.noneOf (Item.Type.class);
 	}
+	
+	/**
+	 * Called when some items have been refreshed in background. 
+	 * Only the charts built from items of that type are reloaded. Since a 
+	 * chart collects all its types in one pass, no type is considered available
+	 * any more, but charts that do not depend on this type keep their data.
+	 * @param type the item type
+	 */
+	public void itemsUpdated (Item.Type type)
+	{
+		availableTypes = EnumSet.noneOf (Item.Type.class);
+		for (Chart chart : charts)
+			chart.itemsUpdated (type);
+	}
 }
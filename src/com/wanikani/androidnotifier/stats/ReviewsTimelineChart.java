@@ -3,7 +3,6 @@ package com.wanikani.androidnotifier.stats;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -23,6 +22,7 @@ import com.wanikani.androidnotifier.DashboardData;
 import com.wanikani.androidnotifier.MainActivity;
 import com.wanikani.androidnotifier.MeterSpec;
 import com.wanikani.androidnotifier.R;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.androidnotifier.graph.HistogramChart;
 import com.wanikani.androidnotifier.graph.HistogramPlot;
 import com.wanikani.androidnotifier.graph.HistogramPlot.Samples;
@@ -30,6 +30,7 @@ import com.wanikani.androidnotifier.graph.IconizableChart;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Connection.Meter;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemColumns;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
@@ -54,7 +55,7 @@ import com.wanikani.wklib.Vocabulary;
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-public class ReviewsTimelineChart implements NetworkEngine.Chart {
+public class ReviewsTimelineChart implements NetworkEngine.LocalChart {
 	
 	private class ResourceData {
 		
@@ -120,11 +121,22 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 				itemd.put (it, 0);
 		}
 		
-		public void put (Item i)
+		public void put (ItemColumns cols, int i)
 		{
-			if (i.stats != null && i.stats.srs != null)
-				srsd.put (i.stats.srs, srsd.get (i.stats.srs) + 1);
-			itemd.put (i.type, itemd.get (i.type) + 1);			
+			SRSLevel srs;
+			Item.Type type;
+			
+			srs = cols.getSRS (i);
+			if (srs != null)
+				srsd.put (srs, srsd.get (srs) + 1);
+			type = cols.getType (i);
+			itemd.put (type, itemd.get (type) + 1);			
+		}
+		
+		public void put (Item.Type type, SRSLevel srs, int n)
+		{
+			srsd.put (srs, srsd.get (srs) + n);
+			itemd.put (type, itemd.get (type) + n);			
 		}
 		
 		public int size ()
@@ -155,17 +167,30 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 			levels = new Hashtable<Integer, LevelData> ();
 		}
 		
-		public void put (Item i)
+		public void put (ItemColumns cols, int i)
 		{
 			LevelData ld;
 			
-			ld = (LevelData) levels.get (i.level);
+			ld = (LevelData) levels.get (cols.level [i]);
 			if (ld == null) {
 				ld = new LevelData ();
-				levels.put (i.level, ld);
+				levels.put (cols.level [i], ld);
 			}
 			
-			ld.put (i);
+			ld.put (cols, i);
+		}		
+		
+		public void put (ItemsDatabase.Forecast.Entry e)
+		{
+			LevelData ld;
+			
+			ld = (LevelData) levels.get (e.level);
+			if (ld == null) {
+				ld = new LevelData ();
+				levels.put (e.level, ld);
+			}
+			
+			ld.put (e.type, e.srs, e.count);
 		}		
 		
 		public void purge (int laa [])
@@ -249,55 +274,82 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 		
 		public void newRadical (ItemLibrary<Radical> radicals)
 		{
-			if (availableTypes.contains (Item.Type.RADICAL))
-				return;
-			
-			for (Item i : radicals.list)
-				put (i);
+			/* Handled by newItems */
 		}
 		
 		public void newKanji (ItemLibrary<Kanji> kanji)
 		{
-			if (availableTypes.contains (Item.Type.KANJI))
-				return;
-
-			for (Item i : kanji.list)
-				put (i);
+			/* Handled by newItems */
 		}
 
 		public void newVocab (ItemLibrary<Vocabulary> vocabs)
 		{
-			if (availableTypes.contains (Item.Type.VOCABULARY))
+			/* Handled by newItems */
+		}
+		
+		public void newItems (Item.Type type, ItemColumns cols)
+		{
+			if (availableTypes.contains (type))
 				return;
 
-			for (Item i : vocabs.list)
-				put (i);			
+			put (cols);
 		}
 		
-		private void put (Item i)
+		private void put (ItemColumns cols)
 		{
 			TimelineData data;
-			Date time;
+			int i;
 			
-			time = i.getAvailableDate ();
-			if (time == null || i.stats == null || i.stats.burned)
-				return;
+			for (i = 0; i < cols.size; i++) {
+				if (cols.available [i] == ItemColumns.NO_DATE ||
+					cols.srs [i] == ItemColumns.NO_SRS || cols.burned [i])
+					continue;
+			
+				data = timeToData (cols.available [i]);
+				if (data != null)
+					data.put (cols, i);
+			}
+		}
+		
+		/**
+		 * Fills the timeline from the review forecast of the items database, 
+		 * instead of scanning the items.
+		 * @param idb the items database
+		 */
+		public void load (ItemsDatabase idb)
+		{
+			ItemsDatabase.Forecast f;
 			
-			data = dateToData (time);
-			if (data == null)
+			if (data.isEmpty ())
 				return;
 			
-			data.put (i);
+			f = idb.getForecast (data.get (0).time, 15 * 60 * 1000, data.size ());
+			for (ItemsDatabase.Forecast.Entry e : f.entries)
+				data.get (e.slot).put (e);
+			availableTypes.addAll (EnumSet.allOf (Item.Type.class));
+		}
+		
+		/**
+		 * Tells if the timeline is empty.
+		 * @return <code>true</code> if there are no reviews
+		 */
+		public boolean isEmpty ()
+		{
+			for (TimelineData td : data)
+				if (!td.levels.isEmpty ())
+					return false;
+			
+			return true;
 		}
 		
-		private TimelineData dateToData (Date date)
+		private TimelineData timeToData (long time)
 		{
 			long i;
 			
 			if (data.isEmpty ())
 				return null;
 			
-			i = (date.getTime () - data.get (0).time) / (15 * 60 * 1000);
+			i = (time - data.get (0).time) / (15 * 60 * 1000);
 			if (i < 0)
 				i = 0;
 			
@@ -327,7 +379,7 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 				   (dd.reviewsAvailableNextHour + dd.reviewsAvailable) == nextHour;
 		}
 		
-		public void relocate (int laa [], ItemLibrary<Item> lib, int idx)
+		public void relocate (int laa [], ItemColumns cols, int idx)
 		{
 			while (idx-- > 0 && data.size () > 0)
 				data.remove (0);
@@ -335,8 +387,7 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 			for (TimelineData td : data)
 				td.purge (laa);
 			
-			for (Item i : lib.list)
-				put (i);
+			put (cols);
 		}
 		
 	}
@@ -368,6 +419,12 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 			chart = null;
 		}
 		
+		public void flush ()
+		{
+			if (chart != null)
+				chart.flush ();
+		}
+		
 		public void updatePlot (State state)
 		{
 			/* Not bound */
@@ -587,7 +644,7 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 		}		
 	}
 	
-	private class RelocateTask extends AsyncTask<Void, Void, ItemLibrary<Item>> {
+	private class RelocateTask extends AsyncTask<Void, Void, ItemColumns> {
 
 		/// The connection
 		private Connection conn;
@@ -607,22 +664,45 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 		/// The relocated levels
 		int laa [];
 		
-		public RelocateTask (Connection conn, int level, Meter meter, State state)
+		/// The items database. May be <code>null</code>
+		ItemsDatabase idb;
+		
+		/// The dashboard data the timeline must agree with
+		DashboardData dd;
+		
+		/// A new state, built from the local review forecast. Set only if it agrees with the dashboard data
+		State lstate;
+		
+		public RelocateTask (Connection conn, DashboardData dd, Meter meter, State state, ItemsDatabase idb)
 		{
 			this.conn = conn;
-			this.level = level;
+			this.dd = dd;
 			this.meter = meter;
-			this.state = state;					
+			this.state = state;
+			this.idb = idb;
+			
+			level = dd.level;
 		}
 				
 		@Override
-		protected ItemLibrary<Item> doInBackground (Void... v)
+		protected ItemColumns doInBackground (Void... v)
 		{
 			Set<Integer> levels;
 			ItemLibrary <Item> lib;
 			Iterator<Integer> i;
+			State fstate;
 			int j;
 			
+			/* If the local forecast already agrees with the dashboard, there is no need to fetch anything */ 
+			if (idb != null) {
+				fstate = new State ();
+				fstate.load (idb);
+				if (fstate.compatible (dd)) {
+					lstate = fstate;
+					return null;
+				}
+			}
+			
 			levels = new HashSet<Integer> (); 
 			levels.add (level);	/* In case some new items appeared after a lessons session */
 			for (TimelineData d : state.data) {
@@ -656,14 +736,19 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 				return null;
 			}
 			
-			return lib;
+			return new ItemColumns (lib);
 		}
 		
 		@Override
-		protected void onPostExecute (ItemLibrary<Item> lib)
+		protected void onPostExecute (ItemColumns cols)
 		{
-			if (lib != null && rt == this && this.state == ReviewsTimelineChart.this.state) {
-				state.relocate (laa, lib, idx);
+			if (rt != this || this.state != ReviewsTimelineChart.this.state)
+				return;
+			
+			if (lstate != null)
+				updatePlots (lstate);
+			else if (cols != null) {
+				state.relocate (laa, cols, idx);
 				updatePlots (state);
 			}
 		}		
@@ -692,6 +777,9 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 	/// Current relocate task
 	volatile RelocateTask rt;
 	
+	/// The items database, holding the review forecast. May be <code>null</code>
+	ItemsDatabase idb;
+	
 	/// Number of bars. One hour is four bars */
 	public static int INTERVALS = 4 * 48;
 	
@@ -710,6 +798,8 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 	@Override
 	public void bind (MainActivity main, View view)
 	{
+		idb = main.getItemsDatabase ();
+		
 		if (rd == null) {
 			rd = new ResourceData (main);
 			typeh.loadResources (rd);
@@ -755,6 +845,40 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 		typeh.updatePlot (state);
 	}
 
+	@Override
+	public Runnable preview (ItemsDatabase idb)
+	{
+		final State pstate;
+		
+		if (state != null)
+			return null;
+		
+		pstate = new State ();
+		pstate.load (idb);
+		if (pstate.isEmpty ())
+			return null;
+		
+		return new Runnable () {
+			public void run ()
+			{
+				showPreview (pstate);
+			}
+		};
+	}
+	
+	/**
+	 * Plots a preview, unless the actual data is already available.
+	 * @param pstate the preview state
+	 */
+	private void showPreview (State pstate)
+	{
+		if (state != null)
+			return;
+		
+		srsh.updatePlot (pstate);
+		typeh.updatePlot (pstate);
+	}
+	
 	public boolean scrolling (boolean strict)
 	{
 		return srsh.scrolling (strict) || typeh.scrolling (strict);
@@ -766,6 +890,15 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 		state = null;
 	}
 	
+	@Override
+	public void itemsUpdated (Item.Type type)
+	{
+		/* Shows all the types */
+		flush ();
+		srsh.flush ();
+		typeh.flush ();
+	}
+	
 	@Override
 	public void loadData ()
 	{
@@ -775,7 +908,7 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 			netwe.request (rd.meter, EnumSet.allOf (Item.Type.class));
 	}
 	
-	private void relocate (Connection conn, int level)
+	private void relocate (Connection conn, DashboardData dd)
 	{
 		long avail;
 		
@@ -788,7 +921,7 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 			state = null;
 			netwe.flush ();
 		} else if (rd != null)
-			(rt = new RelocateTask (conn, level, rd.meter, state)).execute ();
+			(rt = new RelocateTask (conn, dd, rd.meter, state, idb)).execute ();
 	}
 	
 	public void refresh (Connection conn, DashboardData dd)
@@ -798,7 +931,7 @@ public class ReviewsTimelineChart implements NetworkEngine.Chart {
 				srsh.updatePlot (state);
 				typeh.updatePlot (state);
 			} else
-				relocate (conn, dd.level);
+				relocate (conn, dd);
 		}
 	}
 }
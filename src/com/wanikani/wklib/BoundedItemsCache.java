@@ -0,0 +1,345 @@
+package com.wanikani.wklib;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.wanikani.wklib.ItemsCacheInterface.LevelData;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An in-memory items cache with a memory budget. Levels of all the item
+ * types share the same budget, and the least recently used ones are
+ * evicted when it is exceeded. The size of a level is estimated through
+ * {@link Item#estimateSize()}.
+ * <p>
+ * The cache may sit in front of a slower (e.g. persistent) cache:
+ * writes go to both, and misses are resolved by the backing cache, so
+ * evicted levels are simply read again from there.
+ */
+public class BoundedItemsCache implements ItemsCacheInterface {
+
+	static final long serialVersionUID = 1L;
+
+	/// Default memory budget
+	public static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+	/**
+	 * A cached level.
+	 */
+	private static class Entry {
+
+		/// The data
+		LevelData<?> ld;
+
+		/// Its estimated size
+		long size;
+
+		public Entry (LevelData<?> ld, long size)
+		{
+			this.ld = ld;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The cache of one item type.
+	 */
+	private class LevelCache<T extends Item> implements ItemsCacheInterface.Cache<T> {
+
+		static final long serialVersionUID = 1L;
+
+		/// The item type
+		Item.Type type;
+
+		/// The backing cache. May be <code>null</code>
+		Cache<T> backing;
+
+		public LevelCache (Item.Type type, Cache<T> backing)
+		{
+			this.type = type;
+			this.backing = backing;
+		}
+
+		public LevelData<T> get (int level)
+		{
+			LevelData<T> ans;
+
+			ans = lookup (type, level);
+			if (ans != null)
+				return ans;
+
+			if (backing == null)
+				return new LevelData<T> ();
+
+			ans = backing.get (level);
+			if (ans.quality == Quality.GOOD)
+				admit (type, level, ans);
+
+			return ans;
+		}
+
+		public void get (Map<Integer, LevelData <T>> data)
+		{
+			Map<Integer, LevelData <T>> missing;
+			LevelData<T> ld;
+
+			missing = new Hashtable<Integer, LevelData <T>> ();
+			for (Map.Entry<Integer, LevelData <T>> e : data.entrySet ()) {
+				ld = lookup (type, e.getKey ());
+				if (ld != null)
+					e.setValue (ld);
+				else
+					missing.put (e.getKey (), e.getValue ());
+			}
+
+			if (missing.isEmpty () || backing == null)
+				return;
+
+			backing.get (missing);
+			for (Map.Entry<Integer, LevelData <T>> e : missing.entrySet ()) {
+				data.put (e.getKey (), e.getValue ());
+				if (e.getValue ().quality == Quality.GOOD)
+					admit (type, e.getKey (), e.getValue ());
+			}
+		}
+
+		public void put (LevelData <T> data)
+		{
+			if (backing != null)
+				backing.put (data);
+
+			for (LevelData<T> part : ItemsCache.partition (data))
+				admit (type, part.lib.list.get (0).level, part);
+		}
+	}
+
+	/// The cached levels, in access order. Keys are built by {@link #key(Item.Type, int)}
+	private LinkedHashMap<Integer, Entry> lru;
+
+	/// The backing cache. May be <code>null</code>
+	private ItemsCacheInterface backing;
+
+	/// The memory budget
+	private long budget;
+
+	/// Estimated size of the cached levels
+	private long size;
+
+	/// Number of levels found in memory, over all the caches
+	private static int hits;
+
+	/// Number of levels not found in memory, over all the caches
+	private static int misses;
+
+	/// Number of levels evicted, over all the caches
+	private static int evictions;
+
+	LevelCache<Radical> radicals;
+
+	LevelCache<Kanji> kanji;
+
+	LevelCache<Vocabulary> vocab;
+
+	/**
+	 * Constructor.
+	 * @param backing the backing cache (may be <code>null</code>, in which
+	 * case evicted levels are lost)
+	 * @param budget the memory budget, in bytes
+	 */
+	public BoundedItemsCache (ItemsCacheInterface backing, long budget)
+	{
+		this.backing = backing;
+		this.budget = budget;
+
+		lru = new LinkedHashMap<Integer, Entry> (64, 0.75F, true);
+
+		radicals = new LevelCache<Radical> (Item.Type.RADICAL,
+				backing != null ? backing.<Radical>get (Item.Type.RADICAL) : null);
+		kanji = new LevelCache<Kanji> (Item.Type.KANJI,
+				backing != null ? backing.<Kanji>get (Item.Type.KANJI) : null);
+		vocab = new LevelCache<Vocabulary> (Item.Type.VOCABULARY,
+				backing != null ? backing.<Vocabulary>get (Item.Type.VOCABULARY) : null);
+	}
+
+	/**
+	 * Constructor. Uses the default budget, unless the heap is too small for it.
+	 * @param backing the backing cache (may be <code>null</code>)
+	 */
+	public BoundedItemsCache (ItemsCacheInterface backing)
+	{
+		this (backing, Math.min (DEFAULT_BUDGET, Runtime.getRuntime ().maxMemory () / 8));
+	}
+
+	@Override
+	@SuppressWarnings ("unchecked")
+	public <T extends Item> Cache<T> get (Item.Type type)
+	{
+		switch (type) {
+		case RADICAL:
+			return (Cache<T>) radicals;
+
+		case KANJI:
+			return (Cache <T>) kanji;
+
+		case VOCABULARY:
+			return (Cache <T>) vocab;
+		}
+
+		return null;
+	}
+
+	public void flush ()
+	{
+		synchronized (this) {
+			lru.clear ();
+			size = 0;
+		}
+
+		if (backing != null)
+			backing.flush ();
+	}
+
+	private static Integer key (Item.Type type, int level)
+	{
+		return (type.ordinal () << 16) | level;
+	}
+
+	/**
+	 * Looks for a level in memory.
+	 * @param type the item type
+	 * @param level the level
+	 * @return the data, or <code>null</code> if it is not cached
+	 */
+	@SuppressWarnings ("unchecked")
+	private synchronized <T extends Item> LevelData<T> lookup (Item.Type type, int level)
+	{
+		Entry e;
+
+		e = lru.get (key (type, level));
+		if (e == null) {
+			account (0, 1, 0);
+			return null;
+		}
+		account (1, 0, 0);
+
+		return (LevelData<T>) e.ld;
+	}
+
+	/**
+	 * Stores a level in memory, evicting the least recently used ones
+	 * if needed. Levels larger than the whole budget are not cached.
+	 * @param type the item type
+	 * @param level the level
+	 * @param ld the data
+	 */
+	private <T extends Item> void admit (Item.Type type, int level, LevelData<T> ld)
+	{
+		Iterator<Entry> i;
+		long lsize;
+		Entry old;
+		int n;
+
+		lsize = ld.lib.estimateSize ();
+
+		synchronized (this) {
+			old = lru.remove (key (type, level));
+			if (old != null)
+				size -= old.size;
+			if (lsize > budget)
+				return;
+
+			i = lru.values ().iterator ();
+			n = 0;
+			while (size + lsize > budget && i.hasNext ()) {
+				size -= i.next ().size;
+				i.remove ();
+				n++;
+			}
+
+			lru.put (key (type, level), new Entry (ld, lsize));
+			size += lsize;
+		}
+		
+		if (n > 0)
+			account (0, 0, n);
+	}
+	
+	/**
+	 * Accounts for lookups and evictions.
+	 * @param hits the number of hits
+	 * @param misses the number of misses
+	 * @param evictions the number of evictions
+	 */
+	private static synchronized void account (int hits, int misses, int evictions)
+	{
+		BoundedItemsCache.hits += hits;
+		BoundedItemsCache.misses += misses;
+		BoundedItemsCache.evictions += evictions;
+	}
+
+	/**
+	 * Returns the memory budget.
+	 * @return the budget, in bytes
+	 */
+	public long getBudget ()
+	{
+		return budget;
+	}
+
+	/**
+	 * Returns the estimated size of the levels held in memory.
+	 * @return the size, in bytes
+	 */
+	public synchronized long getSize ()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the number of level lookups satisfied from memory, by all
+	 * the caches created since the process started.
+	 * @return the number of hits
+	 */
+	public static synchronized int getHits ()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of level lookups that had to go to the backing cache,
+	 * by all the caches created since the process started.
+	 * @return the number of misses
+	 */
+	public static synchronized int getMisses ()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of levels evicted to stay within the budget, 
+	 * by all the caches created since the process started.
+	 * @return the number of evictions
+	 */
+	public static synchronized int getEvictions ()
+	{
+		return evictions;
+	}
+}
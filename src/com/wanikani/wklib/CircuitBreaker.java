@@ -0,0 +1,220 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Keeps track of the health of the API server. After a number of consecutive
+ * failures the circuit "opens", and requests fail immediately with an
+ * {@link OpenException}, without touching the network. When the open period
+ * expires, a single trial request is let through: if it succeeds the
+ * circuit is closed again, otherwise it is reopened for a longer period.
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The circuit state.
+	 */
+	public enum State {
+
+		/// Requests go through
+		CLOSED,
+
+		/// Requests fail immediately
+		OPEN,
+
+		/// A trial request is in progress
+		HALF_OPEN
+
+	}
+
+	/**
+	 * Thrown when a request is refused because the circuit is open.
+	 */
+	public static class OpenException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		/// When requests will be allowed again
+		public Date retryDate;
+
+		public OpenException (Date retryDate)
+		{
+			super ("Server unavailable");
+
+			this.retryDate = retryDate;
+		}
+	}
+
+	/// Number of consecutive failures that open the circuit
+	public static final int DEFAULT_THRESHOLD = 5;
+
+	/// Duration of the first open period, in milliseconds
+	public static final long DEFAULT_OPEN_TIME = 60 * 1000;
+
+	/// Max duration of an open period, in milliseconds
+	public static final long DEFAULT_MAX_OPEN_TIME = 60 * 60 * 1000;
+
+	/// Number of consecutive failures that open the circuit
+	private int threshold;
+
+	/// Duration of the first open period
+	private long openTime;
+
+	/// Max duration of an open period
+	private long maxOpenTime;
+
+	/// Current state
+	private State state;
+
+	/// Number of consecutive failures
+	private int failures;
+
+	/// Number of times the circuit has been opened, since the last success
+	private int trips;
+
+	/// When the current open period expires
+	private long retryTime;
+
+	/// Random generator for the jitter
+	private Random rand;
+
+	/**
+	 * Constructor. Builds a breaker with default parameters.
+	 */
+	public CircuitBreaker ()
+	{
+		this (DEFAULT_THRESHOLD, DEFAULT_OPEN_TIME, DEFAULT_MAX_OPEN_TIME);
+	}
+
+	/**
+	 * Constructor.
+	 * @param threshold number of consecutive failures that open the circuit
+	 * @param openTime duration of the first open period, in milliseconds
+	 * @param maxOpenTime max duration of an open period, in milliseconds
+	 */
+	public CircuitBreaker (int threshold, long openTime, long maxOpenTime)
+	{
+		this.threshold = threshold;
+		this.openTime = openTime;
+		this.maxOpenTime = maxOpenTime;
+
+		state = State.CLOSED;
+		rand = new Random ();
+	}
+
+	/**
+	 * Called before issuing a request.
+	 * @throws OpenException if the request must not be issued
+	 */
+	public synchronized void allow ()
+		throws OpenException
+	{
+		switch (state) {
+		case CLOSED:
+			return;
+
+		case OPEN:
+			if (System.currentTimeMillis () >= retryTime) {
+				state = State.HALF_OPEN;
+				return;
+			}
+			break;
+
+		case HALF_OPEN:
+			/* Someone else is already trying */
+			break;
+		}
+
+		throw new OpenException (new Date (retryTime));
+	}
+
+	/**
+	 * Called when a request succeeds.
+	 */
+	public synchronized void success ()
+	{
+		state = State.CLOSED;
+		failures = 0;
+		trips = 0;
+	}
+
+	/**
+	 * Called when a request fails because of a transient error.
+	 */
+	public synchronized void failure ()
+	{
+		long delay;
+
+		failures++;
+		if (state == State.HALF_OPEN || failures >= threshold) {
+			delay = Math.min (maxOpenTime, openTime << Math.min (trips, 20));
+			/* Between 3/4 and 5/4 of the nominal value */
+			delay += (long) ((rand.nextDouble () - 0.5) * delay / 2);
+			retryTime = System.currentTimeMillis () + delay;
+			state = State.OPEN;
+			trips++;
+		}
+	}
+
+	/**
+	 * Called when a request was aborted, so nothing can be said about the
+	 * server. If it was the trial request, another one will be let through.
+	 */
+	public synchronized void cancel ()
+	{
+		if (state == State.HALF_OPEN) {
+			state = State.OPEN;
+			retryTime = System.currentTimeMillis ();
+		}
+	}
+
+	/**
+	 * Returns the current state. An open circuit whose period has
+	 * expired is reported as half open.
+	 * @return the state
+	 */
+	public synchronized State getState ()
+	{
+		if (state == State.OPEN && System.currentTimeMillis () >= retryTime)
+			return State.HALF_OPEN;
+
+		return state;
+	}
+
+	/**
+	 * Returns when requests will be allowed again.
+	 * @return the date, or <code>null</code> if the circuit is not open
+	 */
+	public synchronized Date getRetryDate ()
+	{
+		return state == State.OPEN ? new Date (retryTime) : null;
+	}
+
+	/**
+	 * Returns the number of consecutive failures.
+	 * @return the number of failures
+	 */
+	public synchronized int getFailures ()
+	{
+		return failures;
+	}
+}
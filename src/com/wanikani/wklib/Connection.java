@@ -1,25 +1,37 @@
 package com.wanikani.wklib;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -42,12 +54,109 @@ public class Connection {
 	
 	public interface Meter {
 		
+		/**
+		 * Accounts bytes transferred on the wire.
+		 * @param data the number of bytes
+		 */
 		public void count (int data);
 		
+		/**
+		 * Accounts bytes after decompression. If the reply is not compressed, 
+		 * this is called with the same amounts passed to {@link #count(int)}.
+		 * @param data the number of bytes
+		 */
+		public void countDecoded (int data);
+		
+		/**
+		 * Called each time a request is issued.
+		 * @param reused set if an idle connection was likely reused, so no handshake was needed.
+		 * This is an estimate, see {@link Transport.Response#isReused()}
+		 */
+		public void connection (boolean reused);
+		
+		/**
+		 * Called each time an item request is not issued, because an identical
+		 * one is already in progress.
+		 */
+		public void coalesced ();
+		
+		/**
+		 * Called when an API request completes. Since documents are parsed while
+		 * they are downloaded, parse time includes the transfer of the body.
+		 * @param resource the resource (e.g. <code>study-queue</code>)
+		 * @param latency total time, in milliseconds 
+		 * @param ttfb time before the status line was received, in milliseconds
+		 * @param parse time spent reading and parsing the body, in milliseconds
+		 * @param size size of the body, as transferred on the wire
+		 */
+		public void timing (String resource, long latency, long ttfb, long parse, int size);
+		
 		public void sync ();
 		
 	}
 	
+	/**
+	 * An input stream that feeds a meter with the number of bytes read.
+	 */
+	static class MeteredInputStream extends FilterInputStream {
+		
+		/// The meter
+		Meter meter;
+		
+		/// Set if bytes should be accounted as wire bytes
+		boolean wire;
+		
+		/// Set if bytes should be accounted as decoded bytes
+		boolean decoded;
+		
+		/// Number of bytes read so far
+		int total;
+		
+		public MeteredInputStream (InputStream is, Meter meter, boolean wire, boolean decoded)
+		{
+			super (is);
+			
+			this.meter = meter;
+			this.wire = wire;
+			this.decoded = decoded;
+		}
+		
+		@Override
+		public int read ()
+			throws IOException
+		{
+			int ans;
+			
+			ans = super.read ();
+			if (ans >= 0)
+				count (1);
+			
+			return ans;
+		}
+		
+		@Override
+		public int read (byte buf [], int ofs, int len)
+			throws IOException
+		{
+			int ans;
+			
+			ans = super.read (buf, ofs, len);
+			if (ans > 0)
+				count (ans);
+			
+			return ans;
+		}
+		
+		private void count (int n)
+		{
+			total += n;
+			if (wire)
+				meter.count (n);
+			if (decoded)
+				meter.countDecoded (n);
+		}
+	}
+	
 	class Response {
 		
 		UserInformation ui;
@@ -56,20 +165,46 @@ public class Connection {
 
 		JSONArray infoAsArray;
 
-		public Response (JSONObject obj, boolean isArray)
+		/**
+		 * Builds a response by reading the document from a stream. If a decoder
+		 * is provided, requested information is decoded through it, one item at a time,
+		 * instead of being stored into {@link #infoAsArray}.
+		 * @param rd the reader
+		 * @param isArray set if requested information is an array
+		 * @param decoder the decoder (may be <code>null</code>)
+		 */
+		public Response (JSONStreamReader rd, boolean isArray, ItemDecoder<?> decoder)
 			throws JSONException, IOException
 		{
-			if (!obj.isNull("user_information")) {
-				ui = new UserInformation (obj.getJSONObject ("user_information"));
-				if (!obj.isNull ("requested_information")) {
-					if (isArray)
-						infoAsArray = obj.getJSONArray ("requested_information");
+			JSONObject obj;
+			String name;
+			
+			obj = new JSONObject ();
+			rd.beginObject ();
+			while (rd.hasNext ()) {
+				name = rd.nextName ();
+				if (rd.peek () == JSONStreamReader.Token.VALUE)
+					/* Most likely null */
+					rd.skipValue ();
+				else if (name.equals ("user_information"))
+					ui = new UserInformation (new JSONObject (rd.nextValue ()));
+				else if (name.equals ("requested_information")) {
+					if (isArray && decoder != null)
+						decoder.decode (rd);
+					else if (isArray)
+						infoAsArray = new JSONArray (rd.nextValue ());
 					else
-						infoAsObj = obj.getJSONObject ("requested_information");
-				}
-			} else {
-				throw ApplicationException.buildFromJSON (obj);
+						infoAsObj = new JSONObject (rd.nextValue ());
+				} else if (name.equals ("error"))
+					obj.put (name, new JSONObject (rd.nextValue ()));
+				else
+					rd.skipValue ();
 			}
+			rd.endObject ();
+			rd.close ();
+			
+			if (ui == null)
+				throw ApplicationException.buildFromJSON (obj);
 		}
 	}
 	
@@ -107,15 +242,104 @@ public class Connection {
 		}
 	}
 	
+	/**
+	 * The threads of the executor pool. We need to recognize them, because
+	 * nested requests issued from a worker must be run serially to avoid 
+	 * exhausting the pool. 
+	 */
+	static class Worker extends Thread {
+		
+		public Worker (Runnable r)
+		{
+			super (r, "wklib-worker");
+			
+			setDaemon (true);
+		}
+	}
+	
+	static class WorkerFactory implements ThreadFactory {
+		
+		public Thread newThread (Runnable r)
+		{
+			return new Worker (r);
+		}
+	}
+	
+	/**
+	 * A set of levels revalidated by a single request. The set of
+	 * levels actually requested may be larger than the one needed by the caller,
+	 * to make sure the validators still apply.
+	 */
+	static class Batch {
+		
+		/// The levels to request
+		List<Integer> levels;
+		
+		/// The levels the caller is interested in
+		Set<Integer> wanted;
+		
+		/// The validators
+		CacheInfo cinfo;
+		
+		public Batch (List<Integer> levels, CacheInfo cinfo)
+		{
+			this.levels = levels;
+			this.cinfo = cinfo;
+			
+			wanted = new HashSet<Integer> ();
+		}
+		
+		/**
+		 * Removes the items the caller did not ask for.
+		 * @param lib a library
+		 * @return a library containing only the wanted levels
+		 */
+		public <T extends Item> ItemLibrary<T> filter (ItemLibrary<T> lib)
+		{
+			ItemLibrary<T> ans;
+			
+			if (wanted.size () == levels.size ())
+				return lib;
+			
+			ans = new ItemLibrary<T> ();
+			for (T item : lib.list)
+				if (wanted.contains (item.level))
+					ans.add (item);
+			
+			return ans;
+		}
+		
+		/**
+		 * Wraps a listener, so that it is not fed with the items the caller did not ask for.
+		 * @param listener the listener (may be <code>null</code>)
+		 * @return the filtered listener (may be <code>null</code>)
+		 */
+		public <T extends Item> ItemDecoder.Listener<T> filter (final ItemDecoder.Listener<T> listener)
+		{
+			if (listener == null || wanted.size () == levels.size ())
+				return listener;
+			
+			return new ItemDecoder.Listener<T> () {
+				public void newItems (ItemLibrary<T> lib)
+				{
+					ItemDecoder.publish (listener, filter (lib));
+				}
+			};
+		}
+	}
+	
 	public static final int CONNECT_TIMEOUT = 20000;
 	
 	public static final int READ_TIMEOUT = 60000;
 	
-	private static final int CACHE_DISPERSION_GROUPS = 7;
+	/// Max number of requests that may be in flight at the same time, in concurrent mode
+	public static final int MAX_CONCURRENT_CALLS = 3;
 	
-	private static final long CACHE_STALE_DISPERSION = 12 * 3600 * 1000;
+	/// How long an idle worker thread is kept alive
+	private static final long WORKER_KEEPALIVE = 30000;
 	
-	private static final long CACHE_STALE_TIME = 7 * 24 * 3600 * 1000;
+	/// Minimum time between two background refreshes of the same data
+	private static final long REVALIDATION_INTERVAL = 5 * 60 * 1000;
 	
 	UserLogin login;
 	
@@ -127,11 +351,49 @@ public class Connection {
 	
 	public ItemsCacheInterface cache;
 	
+	/// Decides when cached levels need to be refetched
+	public StalenessModel staleness;
+	
+	/// The executor used to issue independent requests in parallel. If null, requests are serial
+	ExecutorService executor;
+	
+	/// The network layer
+	Transport transport;
+	
+	/// Set if compressed replies should be requested
+	boolean compress;
+	
+	/// Decides whether failed requests should be retried
+	RetryPolicy retry;
+	
+	/// Health of the API server, shared by all the connections
+	private static CircuitBreaker breaker = new CircuitBreaker ();
+	
+	/// Item requests in progress
+	SingleFlight flights;
+	
+	
+	/// Set if stale cached data should be returned immediately, while refreshing it in background
+	boolean staleWhileRevalidate;
+	
+	/// Listeners notified when a background refresh completes
+	List<ItemsCacheInterface.Listener> listeners;
+	
+	/// Last time each background refresh was started, indexed by request key
+	Map<String, Long> revalidations;
+	
 	public Connection (UserLogin login, Config config)
 	{
 		this.login = login;
 		this.config = config;
 		cache = new ItemsCache ();
+		transport = new HttpTransport ();
+		compress = true;
+		retry = new RetryPolicy ();
+		flights = new SingleFlight ();
+		staleness = new StalenessModel ();
+		listeners = new Vector<ItemsCacheInterface.Listener> ();
+		revalidations = new Hashtable<String, Long> ();
 	}
 	
 	public void flush ()
@@ -139,6 +401,219 @@ public class Connection {
 		cache.flush ();
 	}
 	
+	/**
+	 * Replaces the network layer. Mainly useful to run against a 
+	 * {@link ReplayTransport}, for offline benchmarks.
+	 * @param transport the new transport
+	 */
+	public void setTransport (Transport transport)
+	{
+		this.transport = transport;
+	}
+	
+	public Transport getTransport ()
+	{
+		return transport;
+	}
+	
+	/**
+	 * Sets the retry policy of API requests.
+	 * @param retry the new policy (use {@link RetryPolicy#NONE} to disable retries)
+	 */
+	public void setRetryPolicy (RetryPolicy retry)
+	{
+		this.retry = retry;
+	}
+	
+	/**
+	 * Returns the circuit breaker that guards API requests. Its state
+	 * tells whether the server is believed to be down, and when it is
+	 * worth trying again.
+	 * @return the circuit breaker
+	 */
+	public static CircuitBreaker getCircuitBreaker ()
+	{
+		return breaker;
+	}
+	
+	/**
+	 * Enables or disables gzip compression of API replies. It is enabled by default.
+	 * @param enable <code>true</code> if replies should be compressed 
+	 */
+	public void setCompress (boolean enable)
+	{
+		compress = enable;
+	}
+	
+	/**
+	 * Enables or disables concurrent mode. When enabled, requests that do not
+	 * depend on each other (e.g. radicals, kanji and vocab of the same level, or
+	 * the stale and missing batches of a multi-level request) are issued in parallel
+	 * on a bounded thread pool. Meters passed to this connection must therefore be
+	 * thread-safe.
+	 * @param enable <code>true</code> if requests should be issued in parallel
+	 */
+	public synchronized void setConcurrent (boolean enable)
+	{
+		ThreadPoolExecutor tpe;
+		
+		if (enable && executor == null) {
+			tpe = new ThreadPoolExecutor (MAX_CONCURRENT_CALLS, MAX_CONCURRENT_CALLS, 
+										  WORKER_KEEPALIVE, TimeUnit.MILLISECONDS, 
+										  new LinkedBlockingQueue<Runnable> (), new WorkerFactory ());
+			/* So idle connections do not hold threads. Needs Gingerbread */
+			if (Build.VERSION.SDK_INT >= 9)
+				tpe.allowCoreThreadTimeOut (true);
+			executor = tpe;
+		} else if (!enable && executor != null) {
+			executor.shutdown ();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Enables or disables the stale-while-revalidate policy. When enabled,
+	 * stale cached levels are returned immediately and refreshed in background.
+	 * Registered {@link ItemsCacheInterface.Listener}s are told when fresh
+	 * data is available. Background refreshes need concurrent mode: if it is
+	 * not enabled, stale data is refreshed synchronously, as usual.
+	 * @param enable <code>true</code> if stale data should be returned
+	 * @see #setConcurrent(boolean)
+	 */
+	public void setStaleWhileRevalidate (boolean enable)
+	{
+		staleWhileRevalidate = enable;
+	}
+	
+	public void addListener (ItemsCacheInterface.Listener listener)
+	{
+		listeners.add (listener);
+	}
+
+	public void removeListener (ItemsCacheInterface.Listener listener)
+	{
+		listeners.remove (listener);
+	}
+	
+	/**
+	 * Tells whether stale data should be refreshed in background. 
+	 * @return <code>true</code> if stale data can be returned as is
+	 */
+	private synchronized boolean revalidateInBackground ()
+	{
+		return staleWhileRevalidate && executor != null;
+	}
+	
+	/**
+	 * Refreshes a set of stale levels in background. Nothing happens if the same 
+	 * levels have been refreshed recently.
+	 * @param meter the meter
+	 * @param resource the resource
+	 * @param type the item type
+	 * @param levels the levels to refresh
+	 * @param old the cached data
+	 * @param cinfo cache validators
+	 * @param ic the cache
+	 * @param factory the item factory
+	 */
+	protected<T extends Item> void revalidate (final Meter meter, final String resource, final Item.Type type,
+											   final List<Integer> levels, 
+											   final Map<Integer, ItemsCacheInterface.LevelData<T>> old,
+											   final CacheInfo cinfo, final ItemsCacheInterface.Cache<T> ic, 
+											   final Item.Factory<T> factory)
+	{
+		ExecutorService executor;
+		final String key;
+		Long last;
+		long now;
+		
+		key = resource + "/" + levelList (levels);
+		now = System.currentTimeMillis ();
+		synchronized (this) {
+			executor = this.executor;
+			last = revalidations.get (key);
+			if (executor == null || (last != null && now - last < REVALIDATION_INTERVAL))
+				return;
+			revalidations.put (key, now);
+		}
+		
+		executor.submit (new Callable<Void> () {
+			public Void call ()
+			{
+				int i, ls [];
+				
+				try {
+					fetchItems (meter, resource, type, levels, old, cinfo, ic, factory, null);
+				} catch (IOException e) {
+					/* Includes 304. We'll retry next time */
+					return null;
+				}
+				
+				ls = new int [levels.size ()];
+				for (i = 0; i < ls.length; i++)
+					ls [i] = levels.get (i);
+				for (ItemsCacheInterface.Listener l : 
+						new Vector<ItemsCacheInterface.Listener> (listeners))
+					l.levelsUpdated (type, ls);
+				
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Runs a set of independent requests. If concurrent mode is enabled, they are 
+	 * submitted to the executor and this method waits for all of them to complete.
+	 * Otherwise (or if we are already running on a worker thread) they are run 
+	 * one after another on the calling thread.
+	 * @param calls the requests
+	 * @return the results, in the same order as the requests
+	 * @throws IOException if any of the requests fails
+	 */
+	protected<T> List<T> invokeAll (List<Callable<T>> calls)
+		throws IOException
+	{
+		List<Future<T>> futures;
+		ExecutorService executor;
+		Throwable t;
+		List<T> ans;
+		
+		synchronized (this) {
+			executor = this.executor;
+		}
+		
+		ans = new Vector<T> (calls.size ());
+		try {
+			if (executor == null || calls.size () < 2 || 
+				Thread.currentThread () instanceof Worker) {
+				for (Callable<T> call : calls)
+					ans.add (call.call ());
+			} else {
+				futures = executor.invokeAll (calls);
+				for (Future<T> f : futures)
+					ans.add (f.get ());
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException ();
+		} catch (ExecutionException e) {
+			t = e.getCause ();
+			if (t instanceof IOException)
+				throw (IOException) t;
+			else if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			else
+				throw new IOException (t.getMessage ());
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException (e.getMessage ());
+		}
+		
+		return ans;
+	}
+	
 	public UserInformation getUserInformation (Meter meter)
 		throws IOException
 	{
@@ -236,29 +711,6 @@ public class Connection {
 		return sb.toString ();
 	}
 	
-	private static<T extends Item> boolean isDataStale (ItemsCacheInterface.LevelData<T> ld, int level)
-	{		
-		Date now;
-		long age;
-		
-		now = new Date ();
-		age = now.getTime () - ld.date.getTime ();
-		if (age > CACHE_STALE_TIME + CACHE_STALE_DISPERSION * (level % CACHE_DISPERSION_GROUPS))
-			return true;
-		
-		for (T item : ld.lib.list) {
-			/* May become available any time */
-			if (item.getAvailableDate () == null)
-				return true;
-			if (item.stats != null && item.stats.burned)
-				continue;
-			if (item.getAvailableDate ().before (now))
-				return true;
-		}
-		
-		return false;
-	}
-	
 	public ItemLibrary<Radical> getRadicals (Meter meter, int level)
 			throws IOException
 	{
@@ -274,7 +726,19 @@ public class Connection {
 	public ItemLibrary<Radical> getRadicals (Meter meter, int levels [])
 			throws IOException
 	{
-		return getItems (meter, levels, "radicals", Item.Type.RADICAL, Radical.FACTORY);
+		return getRadicals (meter, levels, null);
+	}
+
+	public ItemLibrary<Radical> getRadicals (Meter meter, ItemDecoder.Listener<Radical> listener)
+			throws IOException
+	{		
+		return getRadicals (meter, getAllLevels (meter), listener);
+	}
+
+	public ItemLibrary<Radical> getRadicals (Meter meter, int levels [], ItemDecoder.Listener<Radical> listener)
+			throws IOException
+	{
+		return getItems (meter, levels, "radicals", Item.Type.RADICAL, Radical.FACTORY, listener);
 	}
 
 	public ItemLibrary<Kanji> getKanji (Meter meter, int level)
@@ -292,7 +756,19 @@ public class Connection {
 	public ItemLibrary<Kanji> getKanji (Meter meter, int levels [])
 			throws IOException
 	{
-		return getItems (meter, levels, "kanji", Item.Type.KANJI, Kanji.FACTORY);
+		return getKanji (meter, levels, null);
+	}
+
+	public ItemLibrary<Kanji> getKanji (Meter meter, ItemDecoder.Listener<Kanji> listener)
+			throws IOException
+	{		
+		return getKanji (meter, getAllLevels (meter), listener);
+	}
+
+	public ItemLibrary<Kanji> getKanji (Meter meter, int levels [], ItemDecoder.Listener<Kanji> listener)
+			throws IOException
+	{
+		return getItems (meter, levels, "kanji", Item.Type.KANJI, Kanji.FACTORY, listener);
 	}
 	
 	public ItemLibrary<Vocabulary> getVocabulary (Meter meter, int level)
@@ -310,27 +786,50 @@ public class Connection {
 	public ItemLibrary<Vocabulary> getVocabulary (Meter meter, int levels [])
 			throws IOException
 	{
-		return getItems (meter, levels, "vocabulary", Item.Type.VOCABULARY, Vocabulary.FACTORY);
+		return getVocabulary (meter, levels, null);
+	}
+
+	public ItemLibrary<Vocabulary> getVocabulary (Meter meter, ItemDecoder.Listener<Vocabulary> listener)
+			throws IOException
+	{		
+		return getVocabulary (meter, getAllLevels (meter), listener);
+	}
+
+	public ItemLibrary<Vocabulary> getVocabulary (Meter meter, int levels [], ItemDecoder.Listener<Vocabulary> listener)
+			throws IOException
+	{
+		return getItems (meter, levels, "vocabulary", Item.Type.VOCABULARY, Vocabulary.FACTORY, listener);
 	}
 	
 	protected<T extends Item> ItemLibrary<T> getItems (Meter meter, int level, String resource, 
 													   Item.Type type, Item.Factory<T> factory)
 			throws IOException
 	{
+		Map<Integer, ItemsCacheInterface.LevelData<T>> old;
 		ItemsCacheInterface.LevelData<T> data;
 		ItemsCacheInterface.Cache<T> ic;
-		ItemLibrary<T> lib;
+		List<Integer> levels;
 		CacheInfo cinfo;
-		Response res;
 			
 		ic = cache.get (type);
 		data = ic.get (level);			
+		levels = Collections.singletonList (level);
+		old = new Hashtable<Integer, ItemsCacheInterface.LevelData<T>> ();
+		old.put (level, data);
 
 		switch (data.quality) {
 		case GOOD:
-			if (!isDataStale (data, level))
+			if (!staleness.isStale (type, level, data))
 				return data.lib;
-			cinfo = new CacheInfo (data.etag, data.date);
+			/* The etag is useless if it was returned by a batched request */
+			if (data.batch == null || data.batch.equals (Integer.toString (level)))
+				cinfo = new CacheInfo (data.etag, data.date);
+			else
+				cinfo = new CacheInfo (null, data.date);
+			if (revalidateInBackground ()) {
+				revalidate (meter, resource, type, levels, old, cinfo, ic, factory);
+				return data.lib;
+			}
 			break;
 			
 		case MISSING:
@@ -339,41 +838,28 @@ public class Connection {
 		}
 		
 		try {
-			res = call (meter, resource, true, Integer.toString (level), cinfo);
-
-			lib = new ItemLibrary<T> (factory, res.infoAsArray);
-			
-			data = new ItemsCacheInterface.LevelData<T> (cinfo.modified, cinfo.etag, lib);
-			ic.put (data);
-			
-			return lib;
-			
+			return fetchItems (meter, resource, type, levels, old, cinfo, ic, factory, null);
 		} catch (NotModifiedException e) {	
 			return data.lib;
-		} catch (JSONException e) {
-			throw new ParseException ();
 		}
 	}
 
-	protected<T extends Item> ItemLibrary<T> getItems (Meter meter, int levels [], String resource, 
-			  										   Item.Type type, Item.Factory<T> factory)
+	protected<T extends Item> ItemLibrary<T> getItems (final Meter meter, int levels [], final String resource, 
+			  										   final Item.Type type, final Item.Factory<T> factory,
+			  										   final ItemDecoder.Listener<T> listener)
 			throws IOException
 	{
-		Map<Integer, ItemsCacheInterface.LevelData<T>> map;
+		final Map<Integer, ItemsCacheInterface.LevelData<T>> map;
+		final ItemsCacheInterface.Cache<T> ic;
+		final List<Integer> badl, missingl;
+		List<Callable<ItemLibrary<T>>> calls;
 		ItemsCacheInterface.LevelData <T> ld;
-		ItemsCacheInterface.Cache<T> ic;
-		List<Integer> badl, missingl;
-		ItemLibrary<T> ans, lib;
-		CacheInfo cinfo;
-		Response res;
+		ItemLibrary<T> ans;
 
 		ic = cache.get (type);
 		map = ItemsCacheInterface.LevelData.createMap (levels);
 		ic.get (map);
 
-		cinfo = new CacheInfo ();
-		
-		cinfo.modified = new Date ();
 		ans = new ItemLibrary<T> ();
 		badl = new Vector<Integer> ();
 		missingl = new Vector<Integer> ();
@@ -381,12 +867,12 @@ public class Connection {
 			ld = e.getValue ();
 			switch (ld.quality) {
 			case GOOD:
-				if (isDataStale (ld, e.getKey ())) {
-					if (ld.date.before (cinfo.modified))
-						cinfo.modified = ld.date;
+				if (staleness.isStale (type, e.getKey (), ld))
 					badl.add (e.getKey ());					
-				} else				
+				else {				
 					ans.add (ld.lib);
+					ItemDecoder.publish (listener, ld.lib);
+				}
 				break;
 				
 			case MISSING:
@@ -394,102 +880,390 @@ public class Connection {
 			}
 		}
 
-		try {
-			if (!badl.isEmpty ()) {
-				res = call (meter, resource, true, levelList (badl), cinfo);
-				lib = new ItemLibrary<T> (factory, res.infoAsArray);
-				ic.put (new ItemsCacheInterface.LevelData<T> (cinfo.modified, null, lib));
-				ans.add (lib);
-			} 
-		} catch (NotModifiedException e) {
-			for (Integer i : badl)
-				ans.add (map.get (i).lib);
-		} catch (JSONException e) {
-			throw new ParseException ();
+		calls = new Vector<Callable<ItemLibrary<T>>> ();
+		
+		if (!badl.isEmpty () && revalidateInBackground ()) {
+			for (Integer i : badl) {
+				ld = map.get (i);
+				ans.add (ld.lib);
+				ItemDecoder.publish (listener, ld.lib);
+			}
+			for (Batch b : planBatches (map, badl))
+				revalidate (meter, resource, type, b.levels, map, b.cinfo, ic, factory);
+		} else {
+			for (final Batch b : planBatches (map, badl))
+				calls.add (new Callable<ItemLibrary<T>> () {
+					public ItemLibrary<T> call ()
+						throws IOException
+					{
+						ItemLibrary<T> ans;
+						
+						try {
+							ans = fetchItems (meter, resource, type, b.levels, map, b.cinfo,
+											  ic, factory, b.filter (listener));
+							return b.filter (ans);
+						} catch (NotModifiedException e) {
+							ans = new ItemLibrary<T> ();
+							for (Integer i : b.wanted)
+								ans.add (map.get (i).lib);
+							ItemDecoder.publish (listener, ans);
+							return ans;
+						}
+					}
+				});
 		}
 		
-		cinfo = new CacheInfo ();
-		try {
-			if (!missingl.isEmpty ()) {
-				res = call (meter, resource, true, levelList (missingl), cinfo);
-				lib = new ItemLibrary<T> (factory, res.infoAsArray);
-				ic.put (new ItemsCacheInterface.LevelData<T> (cinfo.modified, null, lib));
-				ans.add (lib);
-			} 
-		} catch (JSONException e) {
-			throw new ParseException ();
+		if (!missingl.isEmpty ())
+			calls.add (new Callable<ItemLibrary<T>> () {
+				public ItemLibrary<T> call ()
+					throws IOException
+				{
+					return fetchItems (meter, resource, type, missingl, null, new CacheInfo (),
+									   ic, factory, listener);
+				}
+			});
+		
+		for (ItemLibrary<T> lib : invokeAll (calls))
+			ans.add (lib);
+		
+		return ans;
+	}
+	
+	/**
+	 * Retrieves a set of items and stores them into the cache, along with the
+	 * validators that apply to the whole set. If an identical
+	 * request is already in progress, this method waits for it to complete and
+	 * returns the same items, instead of issuing another request.
+	 * The outcome is fed to the {@link #staleness} model, before the items
+	 * are stored, and if the server replies that the cached data is still
+	 * valid, the cached levels are stored again, so their age starts from now.
+	 * @param meter the meter
+	 * @param resource the resource
+	 * @param type the item type
+	 * @param levels the levels
+	 * @param old the cached data, if any (may be <code>null</code>)
+	 * @param cinfo cache validators
+	 * @param ic the cache
+	 * @param factory the item factory
+	 * @param listener an optional listener
+	 * @return a new library, containing the items
+	 * @throws NotModifiedException if the cached data is still valid
+	 * @throws IOException if something goes wrong
+	 */
+	protected<T extends Item> ItemLibrary<T> fetchItems (final Meter meter, final String resource, 
+														 final Item.Type type, final List<Integer> levels,
+														 final Map<Integer, ItemsCacheInterface.LevelData<T>> old,
+														 final CacheInfo cinfo, final ItemsCacheInterface.Cache<T> ic, 
+														 final Item.Factory<T> factory, 
+														 final ItemDecoder.Listener<T> listener)
+		throws IOException
+	{
+		final Set<Integer> expired;
+		final boolean leader [];
+		final String arg, oetag;
+		ItemLibrary<T> lib;
+		String key;
+		
+		arg = levelList (levels);
+		oetag = cinfo.etag;
+		expired = getExpired (type, levels, old);
+		/* Conditional requests may return 304, so they can't be shared with unconditional ones */
+		key = resource + "/" + arg + (cinfo.hasData () ? "?c" : "");
+		leader = new boolean [1];
+		lib = flights.run (key, new Callable<ItemLibrary<T>> () {
+			public ItemLibrary<T> call ()
+				throws IOException
+			{
+				ItemDecoder<T> decoder;
+				
+				leader [0] = true;
+				decoder = new ItemDecoder<T> (factory, listener);
+				try {
+					Connection.this.call (meter, resource, true, arg, cinfo, decoder);
+				} catch (NotModifiedException e) {
+					for (Integer level : expired)
+						staleness.observe (type, level, false);
+					restamp (levels, old, cinfo.modified, oetag, arg, ic);
+					throw e;
+				}
+				
+				if (oetag != null && oetag.equals (cinfo.etag)) {
+					for (Integer level : expired)
+						staleness.observe (type, level, false);
+				} else
+					observe (type, levels, old, decoder.lib, expired);
+
+				ic.put (new ItemsCacheInterface.LevelData<T> (cinfo.modified, cinfo.etag, 
+															  arg, decoder.lib));
+				
+				return decoder.lib;
+			}
+		});
+		
+		/* Each caller gets its own list, since some of them sort it in place */
+		lib = new ItemLibrary<T> (lib);
+		if (!leader [0]) {
+			meter.coalesced ();
+			meter.sync ();
+			ItemDecoder.publish (listener, lib);
+		}
+		
+		return lib;
+	}
+
+	/**
+	 * Groups stale levels into batches that can be revalidated by a single
+	 * conditional request. Levels whose ETag was returned by the same request
+	 * are grouped together, and the original level list is requested again, 
+	 * so the ETag still applies and the server can reply with 304.
+	 * Levels with no ETag are grouped into a single batch, validated 
+	 * through the oldest modification date.
+	 * @param map the cached data
+	 * @param stale the levels to revalidate
+	 * @return the batches
+	 */
+	protected<T extends Item> List<Batch> planBatches (Map<Integer, ItemsCacheInterface.LevelData<T>> map,
+													   List<Integer> stale)
+	{
+		ItemsCacheInterface.LevelData<T> ld;
+		Map<String, Batch> batches;
+		List<Batch> ans;
+		Batch b, nob;
+		String key, levels;
+		
+		batches = new Hashtable<String, Batch> ();
+		ans = new Vector<Batch> ();
+		nob = null;
+		for (Integer level : stale) {
+			ld = map.get (level);
+			if (ld.etag != null) {
+				levels = ld.batch != null ? ld.batch : Integer.toString (level);
+				key = ld.etag + "@" + levels;
+				b = batches.get (key);
+				if (b == null) {
+					b = new Batch (parseLevels (levels), new CacheInfo (ld.etag, ld.date));
+					batches.put (key, b);
+					ans.add (b);
+				}
+				b.wanted.add (level);
+			} else {
+				if (nob == null) {
+					nob = new Batch (new Vector<Integer> (), new CacheInfo (null, ld.date));
+					ans.add (nob);
+				}
+				nob.levels.add (level);
+				nob.wanted.add (level);
+				if (ld.date.before (nob.cinfo.modified))
+					nob.cinfo.modified = ld.date;
+			}
 		}
 		
 		return ans;
 	}
 	
+	private static List<Integer> parseLevels (String s)
+	{
+		StringTokenizer st;
+		List<Integer> ans;
+		
+		ans = new Vector<Integer> ();
+		st = new StringTokenizer (s, ",");
+		while (st.hasMoreTokens ())
+			ans.add (Integer.parseInt (st.nextToken ().trim ()));
+		
+		return ans;
+	}
+	
+	/**
+	 * Returns the levels whose cached data has outlived its lifetime.
+	 * Other cached levels are being refetched because some review
+	 * became available, so their outcome must not be learnt.
+	 * @param type the item type
+	 * @param levels the levels
+	 * @param old the cached data (may be <code>null</code>)
+	 * @return the expired levels
+	 */
+	private<T extends Item> Set<Integer> getExpired (Item.Type type, List<Integer> levels,
+													 Map<Integer, ItemsCacheInterface.LevelData<T>> old)
+	{
+		ItemsCacheInterface.LevelData<T> ld;
+		Set<Integer> ans;
+		
+		ans = new HashSet<Integer> ();
+		if (old == null)
+			return ans;
+		
+		for (Integer level : levels) {
+			ld = old.get (level);
+			if (ld != null && ld.quality == ItemsCacheInterface.Quality.GOOD &&
+				staleness.isExpired (type, level, ld))
+				ans.add (level);
+		}
+		
+		return ans;
+	}
+	
+	/**
+	 * Stores again the cached data of a set of levels, with a new date, 
+	 * after the server told us it is still valid.
+	 * @param levels the levels
+	 * @param old the cached data (may be <code>null</code>)
+	 * @param date the new date
+	 * @param etag the ETag
+	 * @param batch the levels the ETag refers to
+	 * @param ic the cache
+	 */
+	private<T extends Item> void restamp (List<Integer> levels, 
+										  Map<Integer, ItemsCacheInterface.LevelData<T>> old,
+										  Date date, String etag, String batch,
+										  ItemsCacheInterface.Cache<T> ic)
+	{
+		ItemsCacheInterface.LevelData<T> ld;
+		ItemLibrary<T> lib;
+		
+		if (old == null)
+			return;
+		
+		lib = new ItemLibrary<T> ();
+		for (Integer level : levels) {
+			ld = old.get (level);
+			if (ld != null && ld.quality == ItemsCacheInterface.Quality.GOOD)
+				lib.add (ld.lib);
+		}
+		
+		if (!lib.list.isEmpty ())
+			ic.put (new ItemsCacheInterface.LevelData<T> (date, etag, batch, lib));
+	}
+	
+	/**
+	 * Feeds the staleness model with the contents of a set of levels, 
+	 * so it can tell which of them have changed.
+	 * @param type the item type
+	 * @param levels the levels
+	 * @param old the cached data (may be <code>null</code>)
+	 * @param lib the fresh data
+	 * @param expired the levels whose cached data had expired
+	 */
+	private<T extends Item> void observe (Item.Type type, List<Integer> levels,
+										  Map<Integer, ItemsCacheInterface.LevelData<T>> old, 
+										  ItemLibrary<T> lib, Set<Integer> expired)
+	{
+		Map<Integer, ItemLibrary<T>> parts;
+		ItemsCacheInterface.LevelData<T> ld;
+		ItemLibrary<T> part;
+		
+		parts = new Hashtable<Integer, ItemLibrary<T>> ();
+		for (Integer level : levels)
+			parts.put (level, new ItemLibrary<T> ());
+		for (T item : lib.list) {
+			part = parts.get (item.level);
+			if (part != null)
+				part.add (item);
+		}
+		
+		for (Integer level : levels) {
+			ld = old != null ? old.get (level) : null;
+			staleness.observe (type, level, ld != null ? ld.lib : null, parts.get (level),
+							   expired.contains (level));
+		}
+	}
+	
+	
 	public ItemLibrary<Item> getRecentUnlocks (Meter meter, int count)
 		throws IOException
 	{
-		Response res;
+		ItemDecoder<Item> decoder;
 		
-		try {
-			res = call (meter, "recent-unlocks", true, Integer.toString (count));
+		decoder = new ItemDecoder<Item> (Item.FACTORY, null);
+		call (meter, "recent-unlocks", true, Integer.toString (count), null, decoder);
 
-			return new ItemLibrary<Item> (Item.FACTORY, res.infoAsArray);
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}		
+		return decoder.lib;
 	}
 
 	public ItemLibrary<Item> getCriticalItems (Meter meter)
 			throws IOException
 	{
-		Response res;
+		ItemDecoder<Item> decoder;
 			
-		try {
-			res = call (meter, "critical-items", true);
-				return new ItemLibrary<Item> (Item.FACTORY, res.infoAsArray);
+		decoder = new ItemDecoder<Item> (Item.FACTORY, null);
+		call (meter, "critical-items", true, null, null, decoder);
 			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}		
+		return decoder.lib;
 	}
 
-	public ItemLibrary<Item> getItems (Meter meter, int level)
+	public ItemLibrary<Item> getItems (final Meter meter, final int level)
 			throws IOException
 	{
-		ItemLibrary<Radical> radicals;
-		ItemLibrary<Kanji> kanji; 
-		ItemLibrary<Vocabulary> vocab;
+		List<Callable<ItemLibrary<? extends Item>>> calls;
 		
-		radicals = getRadicals (meter, level);
-		kanji = getKanji (meter, level);
-		vocab = getVocabulary (meter, level);
+		calls = new Vector<Callable<ItemLibrary<? extends Item>>> ();
+		calls.add (new Callable<ItemLibrary<? extends Item>> () {
+			public ItemLibrary<? extends Item> call ()
+				throws IOException
+			{
+				return getRadicals (meter, level);
+			}
+		});
+		calls.add (new Callable<ItemLibrary<? extends Item>> () {
+			public ItemLibrary<? extends Item> call ()
+				throws IOException
+			{
+				return getKanji (meter, level);
+			}
+		});
+		calls.add (new Callable<ItemLibrary<? extends Item>> () {
+			public ItemLibrary<? extends Item> call ()
+				throws IOException
+			{
+				return getVocabulary (meter, level);
+			}
+		});
 		
-		return new ItemLibrary<Item> ().
-					add (radicals).add (kanji).add(vocab);
+		return merge (invokeAll (calls));
 	}		
 
-	private static String readStream (Meter meter, InputStream is)
-		throws IOException
+	public ItemLibrary<Item> getItems (final Meter meter, final int levels [])
+			throws IOException
 	{
-		InputStreamReader ir;
-		StringBuffer sb;
-		char buf [];
-		int rd;
+		List<Callable<ItemLibrary<? extends Item>>> calls;
 		
-		buf = new char [1024];
-		sb = new StringBuffer ();
-		ir = new InputStreamReader (is, "UTF-8");
-		while (true) {
-			rd = ir.read (buf, 0, buf.length);
-			if (rd < 0)
-				break;
-			meter.count (rd);
-			sb.append (buf, 0, rd);
-		}
+		calls = new Vector<Callable<ItemLibrary<? extends Item>>> ();
+		calls.add (new Callable<ItemLibrary<? extends Item>> () {
+			public ItemLibrary<? extends Item> call ()
+				throws IOException
+			{
+				return getRadicals (meter, levels);
+			}
+		});
+		calls.add (new Callable<ItemLibrary<? extends Item>> () {
+			public ItemLibrary<? extends Item> call ()
+				throws IOException
+			{
+				return getKanji (meter, levels);
+			}
+		});
+		calls.add (new Callable<ItemLibrary<? extends Item>> () {
+			public ItemLibrary<? extends Item> call ()
+				throws IOException
+			{
+				return getVocabulary (meter, levels);
+			}
+		});
 		
-		meter.sync ();
-		return sb.toString ();
-	}
+		return merge (invokeAll (calls));
+	}		
 	
+	private static ItemLibrary<Item> merge (List<ItemLibrary<? extends Item>> libs)
+	{
+		ItemLibrary<Item> ans;
+		
+		ans = new ItemLibrary<Item> ();
+		for (ItemLibrary<? extends Item> lib : libs)
+			ans.add (lib);
+		
+		return ans;
+	}
+
 	protected Response call (Meter meter, String resource, boolean isArray)
 			throws IOException
 	{
@@ -505,96 +1279,166 @@ public class Connection {
 	protected Response call (Meter meter, String resource, boolean isArray, String arg, CacheInfo cinfo)
 		throws IOException
 	{
-		HttpURLConnection conn;
-		JSONTokener tok;
+		return call (meter, resource, isArray, arg, cinfo, null);
+	}
+	
+	/**
+	 * Issues an API request, retrying it on transient errors according to the
+	 * current {@link RetryPolicy}. All API requests are idempotent GETs,
+	 * so they can be safely retried, unless some items have already been
+	 * streamed to the decoder listener. Fails immediately if the 
+	 * {@link CircuitBreaker} is open.
+	 */
+	protected Response call (Meter meter, String resource, boolean isArray, String arg, 
+							 CacheInfo cinfo, ItemDecoder<?> decoder)
+		throws IOException
+	{
+		Response ans;
+		int attempt;
+		
+		attempt = 0;
+		while (true) {
+			breaker.allow ();
+			attempt++;
+			try {
+				ans = callOnce (meter, resource, isArray, arg, cinfo, decoder);
+				breaker.success ();
+				
+				return ans;
+			} catch (NotModifiedException e) {
+				breaker.success ();
+				throw e;
+			} catch (ApplicationException e) {
+				/* The server is up, at least */
+				breaker.success ();
+				throw e;
+			} catch (ParseException e) {
+				breaker.success ();
+				throw e;
+			} catch (IOException e) {
+				if (!retry.isTransient (e)) {
+					/* A client error means the server is up */
+					if (e instanceof HttpException)
+						breaker.success ();
+					else
+						breaker.cancel ();
+					throw e;
+				}
+				breaker.failure ();
+				if (!retry.shouldRetry (attempt, e) || (decoder != null && !decoder.rewind ()))
+					throw e;
+				retry.backoff (attempt);
+			} catch (RuntimeException e) {
+				/* A bug, not an outage. Release the trial request, if any */
+				breaker.cancel ();
+				throw e;
+			}
+		}
+	}
+	
+	private Response callOnce (Meter meter, String resource, boolean isArray, String arg, 
+							   CacheInfo cinfo, ItemDecoder<?> decoder)
+		throws IOException
+	{
+		MeteredInputStream wis;
+		Transport.Request req;
+		Transport.Response rsp;
+		long start, ttfb, body;
+		Response ans;
 		InputStream is;
-		URL url;
 		
-		url = new URL (makeURL (resource, arg));
-		conn = null;
-		tok = null;
+		req = new Transport.Request (makeURL (resource, arg));
+		req.compress = compress;
+		if (cinfo != null) {
+			req.etag = cinfo.etag;
+			req.ifModifiedSince = cinfo.modified;
+		}
+		start = System.currentTimeMillis ();
+		rsp = transport.open (req);
 		try {
-			conn = (HttpURLConnection) url.openConnection ();
-			if (cinfo != null) {
-				if (cinfo.etag != null)
-					conn.setRequestProperty ("If-None-Match", cinfo.etag);
-				else if (cinfo.modified != null)
-					conn.setIfModifiedSince (cinfo.modified.getTime ());
-			}
-			setTimeouts (conn);
-			conn.connect ();
+			meter.connection (rsp.isReused ());
+			rsp.getCode ();
+			ttfb = System.currentTimeMillis () - start;
 			if (cinfo != null && cinfo.hasData () && 
-				conn.getResponseCode () == HttpURLConnection.HTTP_NOT_MODIFIED)
-					throw new NotModifiedException ();
-			measureHeaders (meter, conn, false);
-			is = conn.getInputStream ();
-			tok = new JSONTokener (readStream (meter, is));
+				rsp.getCode () == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				meter.timing (resource, ttfb, ttfb, 0, 0);
+				/* Cached data is valid as of now */
+				cinfo.modified = rsp.getDate () > 0 ? new Date (rsp.getDate ()) : new Date ();
+				throw new NotModifiedException ();
+			}
+			if (rsp.getCode () >= 400)
+				throw new HttpException (rsp.getCode ());
+			measureHeaders (meter, rsp, false);
+			wis = new MeteredInputStream (rsp.getInputStream (), meter, true, true);
+			if ("gzip".equalsIgnoreCase (rsp.getHeaderField ("Content-Encoding"))) {
+				wis.decoded = false;
+				is = new MeteredInputStream (new GZIPInputStream (wis), meter, false, true);
+			} else
+				is = wis;
+			body = System.currentTimeMillis ();
+			ans = new Response (new JSONStreamReader (meter, is), isArray, decoder);
+			meter.timing (resource, System.currentTimeMillis () - start, ttfb,
+						  System.currentTimeMillis () - body, wis.total);
+			meter.sync ();
+		} catch (JSONException e) {
+			throw new ParseException ();
 		} finally {
-			if (conn != null)
-				conn.disconnect ();
+			rsp.close ();
 		}
 				
 		if (cinfo != null) {
 			cinfo.modified = new Date ();
-			if (conn.getDate () > 0)
-				cinfo.modified = new Date (conn.getDate ());
-			if (conn.getLastModified () > 0)
-				cinfo.modified = new Date (conn.getLastModified ());
+			if (rsp.getDate () > 0)
+				cinfo.modified = new Date (rsp.getDate ());
+			if (rsp.getLastModified () > 0)
+				cinfo.modified = new Date (rsp.getLastModified ());
 		
-			cinfo.etag = conn.getHeaderField ("ETag");
+			cinfo.etag = rsp.getHeaderField ("ETag");
 		}
 		
-		try {
-			return new Response (new JSONObject (tok), isArray);
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return ans;
 	}
 		
 	public void resolve (Meter meter, UserInformation ui, int size, Bitmap defAvatar)
 	{
-			HttpURLConnection conn;
-			InputStream is;
-			URL url;
+			Transport.Response rsp;
 			int code;
 			
-			conn = null;
+			rsp = null;
 			try {
-				url = new URL (config.gravatarUrl + "/" + ui.gravatar + 
-							   "?s=" + size + "&d=404");
-				conn = (HttpURLConnection) url.openConnection ();
-				setTimeouts (conn);
-				code = conn.getResponseCode ();
-				if (code == 200) {
-					is = conn.getInputStream ();
-					ui.gravatarBitmap = BitmapFactory.decodeStream (is);
-				} else if (code == 404)
+				rsp = transport.open (new Transport.Request (config.gravatarUrl + "/" + ui.gravatar + 
+															 "?s=" + size + "&d=404"));
+				meter.connection (rsp.isReused ());
+				code = rsp.getCode ();
+				if (code == 200)
+					ui.gravatarBitmap = BitmapFactory.decodeStream (rsp.getInputStream ());
+				else if (code == 404)
 					ui.gravatarBitmap = defAvatar;
-				measureHeaders (meter, conn, true);
+				measureHeaders (meter, rsp, true);
 			} catch (IOException e) {
 				/* empty */
 			} finally {
-				if (conn != null)
-					conn.disconnect ();
+				if (rsp != null)
+					rsp.close ();
 			}
 	}
 	
-	protected void measureHeaders (Meter meter, URLConnection conn, boolean clen)
+	protected void measureHeaders (Meter meter, Transport.Response rsp, boolean clen)
 	{
 		Map<String, List<String>> hdrs;
 		
-		hdrs = conn.getHeaderFields ();
+		hdrs = rsp.getHeaderFields ();
 		if (hdrs == null)
 			return;
 		for (Map.Entry<String, List<String>> e : hdrs.entrySet ()) {
 			if (e.getKey () != null) 
-				meter.count (e.getKey ().length () + 1);
+				count (meter, e.getKey ().length () + 1);
 			for (String s : e.getValue ())
-				meter.count (s.length () + 3);
+				count (meter, s.length () + 3);
 			if (clen && e.getKey () != null && 
 			    e.getKey ().equals ("Content-Length") && !e.getValue ().isEmpty ()) {
 				try {
-					meter.count (Integer.parseInt (e.getValue ().get (0)));
+					count (meter, Integer.parseInt (e.getValue ().get (0)));
 				} catch (NumberFormatException x) {
 					/* empty */
 				}
@@ -604,6 +1448,12 @@ public class Connection {
 		meter.sync ();
 	}
 		
+	private static void count (Meter meter, int data)
+	{
+		meter.count (data);
+		meter.countDecoded (data);
+	}
+	
 	private String makeURL (String resource, String arg)
 	{
 		String ans;
@@ -615,10 +1465,4 @@ public class Connection {
 							 
 		return ans;
 	}
-	
-	private void setTimeouts (HttpURLConnection conn)
-	{
-		conn.setConnectTimeout (CONNECT_TIMEOUT);
-		conn.setReadTimeout (READ_TIMEOUT);
-	}
 }
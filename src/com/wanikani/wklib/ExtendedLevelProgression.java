@@ -40,7 +40,7 @@ public class ExtendedLevelProgression {
 
 	ExtendedLevelProgression (ItemLibrary<Radical> rlib, ItemLibrary<Kanji> klib)
 	{
-		Date now;
+		Date now, avail;
 		
 		currentLevelAvailable = null;
 		now = new Date ();
@@ -50,13 +50,14 @@ public class ExtendedLevelProgression {
 				radicalsUnlocked++;
 				if (r.stats.srs != SRSLevel.APPRENTICE)
 					radicalsProgress++;
-				if (r.stats.availableDate != null &&
+				avail = r.stats.getAvailableDate ();
+				if (avail != null &&
 					r.stats.srs != SRSLevel.BURNED) {
-					if (r.stats.availableDate.before (now))
+					if (avail.before (now))
 						currentLevelRadicalsAvailable++;
 					if (currentLevelAvailable == null ||
-						r.stats.availableDate.before (currentLevelAvailable))
-						currentLevelAvailable = r.stats.availableDate;
+						avail.before (currentLevelAvailable))
+						currentLevelAvailable = avail;
 				}
 			}
 		}
@@ -67,13 +68,14 @@ public class ExtendedLevelProgression {
 				kanjiUnlocked++;
 				if (k.stats.srs != SRSLevel.APPRENTICE)
 					kanjiProgress++;
-				if (k.stats.availableDate != null) {
-					if (k.stats.availableDate.before (now) &&
+				avail = k.stats.getAvailableDate ();
+				if (avail != null) {
+					if (avail.before (now) &&
 						k.stats.srs != SRSLevel.BURNED)
 						currentLevelKanjiAvailable++;
 					if (currentLevelAvailable == null ||
-						k.stats.availableDate.before (currentLevelAvailable))
-						currentLevelAvailable = k.stats.availableDate;
+						avail.before (currentLevelAvailable))
+						currentLevelAvailable = avail;
 				}
 			}
 		}
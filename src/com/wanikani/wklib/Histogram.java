@@ -0,0 +1,200 @@
+package com.wanikani.wklib;
+
+import java.io.Serializable;
+import java.util.StringTokenizer;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A histogram of non-negative values, with log-linear buckets (in the style
+ * of HDR histograms). Each power of two is split into {@link #SUB_BUCKETS}
+ * linear sub-buckets, so the relative error is bounded (about 6%)
+ * whatever the magnitude of the values, and memory is constant.
+ * Histograms can be merged, and serialized to a compact string.
+ */
+public class Histogram implements Serializable {
+
+	public static final long serialVersionUID = 1L;
+
+	/// Number of bits of precision
+	private static final int SUB_BITS = 4;
+
+	/// Number of linear buckets each power of two is split into
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/// Total number of buckets
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	/// The buckets
+	private long counts [];
+
+	/// Number of values recorded
+	private long total;
+
+	/**
+	 * Constructor. Builds an empty histogram.
+	 */
+	public Histogram ()
+	{
+		counts = new long [BUCKETS];
+	}
+
+	/**
+	 * Records a value.
+	 * @param value the value (negative values are recorded as zero)
+	 */
+	public void record (long value)
+	{
+		counts [index (Math.max (value, 0))]++;
+		total++;
+	}
+
+	/**
+	 * Adds all the values of another histogram to this one.
+	 * @param h the other histogram
+	 */
+	public void add (Histogram h)
+	{
+		int i;
+
+		for (i = 0; i < BUCKETS; i++)
+			counts [i] += h.counts [i];
+		total += h.total;
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 * @return the number of values
+	 */
+	public long getCount ()
+	{
+		return total;
+	}
+
+	/**
+	 * Returns a percentile.
+	 * @param p the percentile, between 0 and 100
+	 * @return the (approximated) value, or <code>0</code> if the histogram is empty
+	 */
+	public long getPercentile (double p)
+	{
+		long target, sum;
+		int i;
+
+		if (total == 0)
+			return 0;
+
+		target = Math.max (1, (long) Math.ceil (p * total / 100));
+		sum = 0;
+		for (i = 0; i < BUCKETS; i++) {
+			sum += counts [i];
+			if (sum >= target)
+				return value (i);
+		}
+
+		return value (BUCKETS - 1);
+	}
+
+	/**
+	 * Serializes this histogram. Only non-empty buckets are stored.
+	 * @return a string that can be parsed by {@link #parse(String)}
+	 */
+	public String serialize ()
+	{
+		StringBuffer sb;
+		int i;
+
+		sb = new StringBuffer ();
+		for (i = 0; i < BUCKETS; i++)
+			if (counts [i] > 0) {
+				if (sb.length () > 0)
+					sb.append (',');
+				sb.append (i).append (':').append (counts [i]);
+			}
+
+		return sb.toString ();
+	}
+
+	/**
+	 * Builds a histogram from its serialized form. Malformed entries are ignored.
+	 * @param s the string returned by {@link #serialize()} (may be <code>null</code>)
+	 * @return the histogram
+	 */
+	public static Histogram parse (String s)
+	{
+		StringTokenizer st;
+		Histogram ans;
+		String tok;
+		int idx, colon;
+		long cnt;
+
+		ans = new Histogram ();
+		if (s == null)
+			return ans;
+
+		st = new StringTokenizer (s, ",");
+		while (st.hasMoreTokens ()) {
+			tok = st.nextToken ();
+			colon = tok.indexOf (':');
+			if (colon < 0)
+				continue;
+			try {
+				idx = Integer.parseInt (tok.substring (0, colon));
+				cnt = Long.parseLong (tok.substring (colon + 1));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if (idx >= 0 && idx < BUCKETS && cnt > 0) {
+				ans.counts [idx] += cnt;
+				ans.total += cnt;
+			}
+		}
+
+		return ans;
+	}
+
+	private static int index (long value)
+	{
+		int exp;
+
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		exp = 63 - Long.numberOfLeadingZeros (value);
+
+		return (exp - SUB_BITS + 1) * SUB_BUCKETS +
+				(int) ((value >> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the highest value that falls into a bucket.
+	 * @param idx the bucket index
+	 * @return the value
+	 */
+	private static long value (int idx)
+	{
+		int shift;
+
+		if (idx < SUB_BUCKETS)
+			return idx;
+
+		shift = idx / SUB_BUCKETS - 1;
+
+		return ((SUB_BUCKETS + (long) (idx % SUB_BUCKETS) + 1) << shift) - 1;
+	}
+}
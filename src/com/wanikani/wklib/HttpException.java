@@ -0,0 +1,48 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+
+/* 
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Thrown when the server replies with an HTTP error status.
+ */
+public class HttpException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+	
+	/// The HTTP status code
+	public int code;
+	
+	public HttpException (int code)
+	{
+		super ("HTTP status " + code);
+		
+		this.code = code;
+	}
+	
+	/**
+	 * Tells whether this is a server error (5xx), which may go away
+	 * if the request is retried.
+	 * @return <code>true</code> if it is a server error
+	 */
+	public boolean isServerError ()
+	{
+		return code / 100 == 5;
+	}
+}
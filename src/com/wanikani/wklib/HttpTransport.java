@@ -0,0 +1,283 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The default transport, based on <code>HttpURLConnection</code>.
+ * In pooled mode, replies are released by draining and closing their
+ * body instead of disconnecting, so the platform keeps the socket alive
+ * and the next request to the same host skips the TCP and TLS handshakes.
+ * Since <code>HttpURLConnection</code> does not tell whether a socket was
+ * actually reused, we keep track of the connections we handed back to the
+ * platform pool, and assume a request reuses one of them if it has not
+ * expired yet.
+ */
+public class HttpTransport implements Transport {
+
+	/**
+	 * A reply, which is just a thin wrapper of the connection.
+	 */
+	private class HttpResponse implements Transport.Response {
+
+		/// The connection
+		HttpURLConnection conn;
+
+		/// The host, used as the pool key
+		String host;
+
+		/// Set if the connection is likely to be a reused one. An estimate, see {@link HttpTransport#acquire(String)}
+		boolean reused;
+
+		public HttpResponse (HttpURLConnection conn, String host, boolean reused)
+		{
+			this.conn = conn;
+			this.host = host;
+			this.reused = reused;
+		}
+
+		public int getCode ()
+			throws IOException
+		{
+			return conn.getResponseCode ();
+		}
+
+		public InputStream getInputStream ()
+			throws IOException
+		{
+			return conn.getInputStream ();
+		}
+
+		public String getHeaderField (String name)
+		{
+			return conn.getHeaderField (name);
+		}
+
+		public Map<String, List<String>> getHeaderFields ()
+		{
+			return conn.getHeaderFields ();
+		}
+
+		public long getDate ()
+		{
+			return conn.getDate ();
+		}
+
+		public long getLastModified ()
+		{
+			return conn.getLastModified ();
+		}
+
+		public boolean isReused ()
+		{
+			return reused;
+		}
+
+		public void close ()
+		{
+			if (!pooled || !release (conn))
+				conn.disconnect ();
+			else
+				released (host);
+		}
+	}
+
+	/// Max number of idle connections the platform keeps for each host
+	public static final int MAX_IDLE_CONNECTIONS = 5;
+
+	/// How long the platform keeps an idle connection open
+	public static final long KEEPALIVE = 5000;
+
+	/// Max number of unread bytes we are willing to drain to save a connection
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/// Set if connections should be kept alive
+	private boolean pooled;
+
+	/// Release times of the idle connections, indexed by host
+	private Map<String, List<Long>> idle;
+
+	/// Number of connections opened
+	private int opened;
+
+	/// Number of requests that are estimated to have reused a connection
+	private int reused;
+
+	/**
+	 * Constructor. Builds a non-pooled transport, which disconnects after
+	 * each request.
+	 */
+	public HttpTransport ()
+	{
+		this (false);
+	}
+
+	/**
+	 * Constructor.
+	 * @param pooled set if connections should be kept alive
+	 */
+	public HttpTransport (boolean pooled)
+	{
+		this.pooled = pooled;
+
+		idle = new Hashtable<String, List<Long>> ();
+	}
+
+	public Transport.Response open (Transport.Request req)
+		throws IOException
+	{
+		HttpURLConnection conn;
+		boolean reused;
+		URL url;
+
+		url = new URL (req.url);
+		conn = (HttpURLConnection) url.openConnection ();
+		if (req.etag != null)
+			conn.setRequestProperty ("If-None-Match", req.etag);
+		else if (req.ifModifiedSince != null)
+			conn.setIfModifiedSince (req.ifModifiedSince.getTime ());
+		/* If we ask for it explicitly, the platform will not decompress it transparently */
+		conn.setRequestProperty ("Accept-Encoding", req.compress ? "gzip" : "identity");
+		conn.setRequestProperty ("Connection", pooled ? "keep-alive" : "close");
+		conn.setConnectTimeout (Connection.CONNECT_TIMEOUT);
+		conn.setReadTimeout (Connection.READ_TIMEOUT);
+
+		reused = acquire (url.getHost ());
+		try {
+			conn.connect ();
+		} catch (IOException e) {
+			conn.disconnect ();
+			throw e;
+		}
+
+		return new HttpResponse (conn, url.getHost (), reused);
+	}
+
+	/**
+	 * Tries to hand a connection back to the platform pool, by consuming
+	 * the rest of its body.
+	 * @param conn the connection
+	 * @return <code>true</code> if successful
+	 */
+	private static boolean release (HttpURLConnection conn)
+	{
+		InputStream is;
+		byte buf [];
+		int rd, total;
+
+		try {
+			if (conn.getResponseCode () / 100 != 2)
+				return conn.getResponseCode () == HttpURLConnection.HTTP_NOT_MODIFIED;
+
+			is = conn.getInputStream ();
+			buf = new byte [4096];
+			total = 0;
+			while ((rd = is.read (buf)) > 0) {
+				total += rd;
+				if (total > MAX_DRAIN) {
+					is.close ();
+					return false;
+				}
+			}
+			is.close ();
+
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Called before a request is issued, to guess whether it will reuse an 
+	 * idle connection. This is not observed: we only know that a connection
+	 * we handed back to the platform pool has not reached its keep-alive
+	 * timeout yet. The server or the platform may have closed it anyway.
+	 * @param host the host
+	 * @return <code>true</code> if an idle connection is available
+	 */
+	private synchronized boolean acquire (String host)
+	{
+		List<Long> times;
+		long now;
+
+		times = idle.get (host);
+		now = System.currentTimeMillis ();
+		while (times != null && !times.isEmpty ()) {
+			if (now - times.remove (times.size () - 1) < KEEPALIVE) {
+				reused++;
+				return true;
+			}
+		}
+		opened++;
+
+		return false;
+	}
+
+	/**
+	 * Called when a connection has been handed back to the platform pool.
+	 * @param host the host
+	 */
+	private synchronized void released (String host)
+	{
+		List<Long> times;
+
+		times = idle.get (host);
+		if (times == null) {
+			times = new Vector<Long> ();
+			idle.put (host, times);
+		}
+		if (times.size () >= MAX_IDLE_CONNECTIONS)
+			times.remove (0);
+		times.add (System.currentTimeMillis ());
+	}
+
+	/**
+	 * Tells whether connections are kept alive.
+	 * @return <code>true</code> if pooled
+	 */
+	public boolean isPooled ()
+	{
+		return pooled;
+	}
+
+	/**
+	 * Returns the estimated number of connections opened so far.
+	 * @return the number of connections
+	 */
+	public synchronized int getOpenedConnections ()
+	{
+		return opened;
+	}
+
+	/**
+	 * Returns the estimated number of requests that reused an idle connection.
+	 * @return the number of requests
+	 */
+	public synchronized int getReusedConnections ()
+	{
+		return reused;
+	}
+}
@@ -27,9 +27,32 @@ import org.json.JSONObject;
 
 public abstract class Item implements Serializable {
 	
-	public static final long serialVersionUID = 1L;
+	public static final long serialVersionUID = 2L;
 	
-	public static class SortByToxicity implements Comparator<Item> {
+	/**
+	 * A comparator whose primary criterion can be reduced to a number.
+	 * This allows {@link ItemSorter} to compute the keys once per item,
+	 * instead of twice per comparison.
+	 */
+	public interface KeyedComparator extends Comparator<Item> {
+		
+		/**
+		 * Returns the primary key of an item. Items having a smaller
+		 * key come first; items having the same key are ordered by
+		 * {@link #getSecondKey()}.
+		 * @param item an item
+		 * @return the key
+		 */
+		public long getKey (Item item);
+		
+		/**
+		 * Returns the comparator used to break ties.
+		 * @return the comparator, or <code>null</code> if ties are not broken
+		 */
+		public Comparator<Item> getSecondKey ();
+	}
+	
+	public static class SortByToxicity implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -52,6 +75,22 @@ public abstract class Item implements Serializable {
 			this.secondKey = secondKey;
 		}
 		
+		public long getKey (Item item)
+		{
+			long ans;
+			
+			ans = item.stats != null && !item.stats.burned ? 
+					(item.stats.reading != null ? item.stats.reading.incorrect : 0) + 
+					(item.stats.meaning != null ? item.stats.meaning.incorrect : 0)  : -1;
+			
+			return ascending ? ans : -ans;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return secondKey;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			int ans, am, bm;
@@ -79,7 +118,7 @@ public abstract class Item implements Serializable {
 		}
 	}
 	
-	public static class SortByMaxStreaks implements Comparator<Item> {
+	public static class SortByMaxStreaks implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -102,6 +141,22 @@ public abstract class Item implements Serializable {
 			this.secondKey = secondKey;
 		}
 		
+		public long getKey (Item item)
+		{
+			long ans;
+			
+			ans = item.stats != null ? 
+					(item.stats.reading != null ? item.stats.reading.maxStreak : 0) + 
+					(item.stats.meaning != null ? item.stats.meaning.maxStreak : 0)  : -1;
+			
+			return ascending ? ans : -ans;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return secondKey;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			int ans, am, bm;
@@ -129,7 +184,7 @@ public abstract class Item implements Serializable {
 		}
 	}
 
-	public static class SortByErrors implements Comparator<Item> {
+	public static class SortByErrors implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -152,6 +207,22 @@ public abstract class Item implements Serializable {
 			this.secondKey = secondKey;
 		}
 		
+		public long getKey (Item item)
+		{
+			long ans;
+			
+			ans = item.percentage;
+			if (ans < 0 && !ascending)
+				ans = 101;
+			
+			return ascending ? -ans : ans;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return secondKey;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			int ans, ap, bp;
@@ -174,7 +245,7 @@ public abstract class Item implements Serializable {
 	}
 	
 
-	public static class SortByTime implements Comparator<Item> {
+	public static class SortByTime implements KeyedComparator {
 		
 		boolean ascending;
 
@@ -187,6 +258,22 @@ public abstract class Item implements Serializable {
 			this.ascending = ascending;
 		}
 		
+		public long getKey (Item item)
+		{
+			long time;
+			
+			time = item.getUnlockedTime ();
+			if (time == 0)
+				return Long.MAX_VALUE;
+			
+			return ascending ? time : -time;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return null;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			Date ula, ulb;
@@ -212,7 +299,13 @@ public abstract class Item implements Serializable {
 		}
 	}
 	
-	public static class SortByAvailable implements Comparator<Item> {
+	public static class SortByAvailable implements KeyedComparator {
+		
+		/// Key offset of burned items. Larger than any date and {@link #NO_DATE_KEY} combined
+		private static final long BURNED_KEY = 1L << 62;
+		
+		/// Key offset of items having no review date. Larger than any date
+		private static final long NO_DATE_KEY = 1L << 61;
 		
 		boolean ascending;
 
@@ -225,6 +318,27 @@ public abstract class Item implements Serializable {
 			this.ascending = ascending;
 		}
 		
+		public long getKey (Item item)
+		{
+			long ans, time;
+			
+			/* Burned flag first, then missing dates, then the dates themselves */
+			ans = item.stats != null && item.stats.burned ? BURNED_KEY : 0;
+			
+			time = item.stats != null ? item.stats.getAvailableTime () : 0;
+			if (time == 0)
+				ans += NO_DATE_KEY;
+			else
+				ans += ascending ? -time : time;
+			
+			return ans;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return null;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			Date ala, alb;
@@ -260,7 +374,7 @@ public abstract class Item implements Serializable {
 		}
 	}
 	
-	public static class SortByLevel implements Comparator<Item> {
+	public static class SortByLevel implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -282,6 +396,16 @@ public abstract class Item implements Serializable {
 			this.secondKey = secondKey;
 		}
 
+		public long getKey (Item item)
+		{
+			return ascending ? item.level : -item.level;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return secondKey;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			int ans;
@@ -294,7 +418,7 @@ public abstract class Item implements Serializable {
 		}
 	}
 
-	public static class SortBySRS implements Comparator<Item> {
+	public static class SortBySRS implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -317,6 +441,21 @@ public abstract class Item implements Serializable {
 			this.secondKey = secondKey;
 		}
 
+		public long getKey (Item item)
+		{
+			long ans;
+			
+			ans = item.stats == null ? 0 : 
+					item.stats.srs != null ? item.stats.srs.ordinal () + 1 : 1;
+			
+			return ascending ? ans : -ans;
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return secondKey;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			int ans;
@@ -336,7 +475,7 @@ public abstract class Item implements Serializable {
 		}
 	}
 
-	public static class SortByType implements Comparator<Item> {
+	public static class SortByType implements KeyedComparator {
 		
 		Comparator<Item> secondKey;
 		
@@ -354,6 +493,16 @@ public abstract class Item implements Serializable {
 			this.secondKey = secondKey;
 		}
 
+		public long getKey (Item item)
+		{
+			return item.type.ordinal ();
+		}
+		
+		public Comparator<Item> getSecondKey ()
+		{
+			return secondKey;
+		}
+		
 		public int compare (Item a, Item b)
 		{
 			int ans;
@@ -438,15 +587,18 @@ public abstract class Item implements Serializable {
 	
 	public static class Stats implements Serializable {
 		
-		public static final long serialVersionUID = 1L;
+		public static final long serialVersionUID = 2L;
 
 		public SRSLevel srs;
 		
-		private Date unlockedDate;
+		/// Unlock time, in ms, or <code>0</code> if unknown
+		private long unlockedTime;
 		
-		public Date availableDate;
+		/// Next review time, in ms, or <code>0</code> if unknown
+		private long availableTime;
 		
-		public Date burnedDate;
+		/// Burn time, in ms, or <code>0</code> if unknown
+		private long burnedTime;
 		
 		public boolean burned;
 				
@@ -472,23 +624,23 @@ public abstract class Item implements Serializable {
 			if (srs == null)
 				throw new JSONException ("Bad SRS: " + s);
 			
-			unlockedDate = Util.getDate (obj, "unlocked_date");
-			availableDate = Util.getDate (obj, "available_date"); 
-			burnedDate = Util.getDate (obj, "burned_date");
+			unlockedTime = Util.getTime (obj, "unlocked_date");
+			availableTime = Util.getTime (obj, "available_date"); 
+			burnedTime = Util.getTime (obj, "burned_date");
 			burned = Util.getBoolean (obj, "burned");
 			
 			if (hasReading)
 				reading = new Item.Performance (obj, "reading");			
 			meaning = new Item.Performance (obj, "meaning");
 			
-			meaningNote = Util.getString (obj, "meaning_note");
+			meaningNote = StringPool.ITEMS.intern (Util.getString (obj, "meaning_note"));
 			if (obj.has ("reading_note"))
-				readingNote = Util.getString (obj, "reading_note");
+				readingNote = StringPool.ITEMS.intern (Util.getString (obj, "reading_note"));
 			if (!obj.isNull ("user_synonyms")) {
 				synonyms = obj.getJSONArray ("user_synonyms");
 				userSynonyms = new String [synonyms.length ()];
 				for (i = 0; i < userSynonyms.length; i++)
-					userSynonyms [i] = synonyms.getString (i);
+					userSynonyms [i] = StringPool.ITEMS.intern (synonyms.getString (i));
 			}
 		}
 		
@@ -496,6 +648,35 @@ public abstract class Item implements Serializable {
 		{
 			/* empty */
 		}
+		
+		public Date getAvailableDate ()
+		{
+			return toDate (availableTime);
+		}
+		
+		public void setAvailableDate (Date date)
+		{
+			availableTime = toTime (date);
+		}
+		
+		/**
+		 * Returns the next review time, without allocating a date.
+		 * @return the time, in ms, or <code>0</code> if unknown
+		 */
+		public long getAvailableTime ()
+		{
+			return availableTime;
+		}
+		
+		public Date getBurnedDate ()
+		{
+			return toDate (burnedTime);
+		}
+		
+		public void setBurnedDate (Date date)
+		{
+			burnedTime = toTime (date);
+		}
 	};
 	
 	private static class DynamicFactory implements Item.Factory<Item> {
@@ -529,18 +710,21 @@ public abstract class Item implements Serializable {
 	
 	public int percentage;
 	
-	private Date unlockedDate;
+	/// Unlock time, in ms, or <code>0</code> if unknown. Dates are kept as
+	/// primitives, and built only when asked for, since most of them are never read
+	private long unlockedTime;
 		
-	public Date instanceCreationDate;
+	/// When this instance was built, in ms
+	private long creationTime;
 	
 	protected Item (JSONObject obj, Type type)
 		throws JSONException
 	{
 		this.type = type;
 		
-		instanceCreationDate = new Date ();
-		character = Util.getString (obj, "character");
-		meaning = Util.getString (obj, "meaning");
+		creationTime = System.currentTimeMillis ();
+		character = StringPool.ITEMS.intern (Util.getString (obj, "character"));
+		meaning = StringPool.ITEMS.intern (Util.getString (obj, "meaning"));
 		level = Util.getInt (obj, "level");
 		
 		if (!obj.isNull ("user_specific"))
@@ -556,7 +740,7 @@ public abstract class Item implements Serializable {
 			
 		
 		/* Only for recent unlocks */
-		unlockedDate = Util.getDate (obj, "unlocked_date");
+		unlockedTime = Util.getTime (obj, "unlocked_date");
 	}
 	
 	protected Item (Type type)
@@ -583,20 +767,84 @@ public abstract class Item implements Serializable {
 	
 	public Date getUnlockedDate ()
 	{
-		return 	unlockedDate != null ? unlockedDate :
-					stats == null ? null : stats.unlockedDate;
+		return toDate (getUnlockedTime ());
+	}
+	
+	/**
+	 * Returns the unlock time, without allocating a date.
+	 * @return the time, in ms, or <code>0</code> if unknown
+	 */
+	public long getUnlockedTime ()
+	{
+		return 	unlockedTime != 0 ? unlockedTime :
+					stats == null ? 0 : stats.unlockedTime;
 	}
 	
 	public void setUnlockedDate (Date date)
 	{
-		unlockedDate = date;
+		unlockedTime = toTime (date);
 		if (stats != null)
-			stats.unlockedDate = date;
+			stats.unlockedTime = unlockedTime;
 	}
 	
 	public Date getAvailableDate ()
 	{
-		return stats == null ? null : stats.availableDate;
+		return stats == null ? null : stats.getAvailableDate ();
+	}
+	
+	/**
+	 * Returns when this instance was built.
+	 * @return the date, or <code>null</code> if unknown
+	 */
+	public Date getInstanceCreationDate ()
+	{
+		return toDate (creationTime);
+	}
+	
+	public void setInstanceCreationDate (Date date)
+	{
+		creationTime = toTime (date);
+	}
+	
+	static Date toDate (long time)
+	{
+		return time != 0 ? new Date (time) : null;
+	}
+	
+	static long toTime (Date date)
+	{
+		return date != null ? date.getTime () : 0;
+	}
+	
+	/**
+	 * Returns a rough estimate of the heap used by this item. Subclasses
+	 * having additional fields should add their own contribution. 
+	 * @return the number of bytes
+	 */
+	public int estimateSize ()
+	{
+		int ans, i;
+		
+		ans = 56 + sizeOf (character) + sizeOf (meaning);
+		if (stats != null) {
+			ans += 64 + 2 * 32 + 
+					sizeOf (stats.readingNote) + sizeOf (stats.meaningNote);
+			if (stats.userSynonyms != null)
+				for (i = 0; i < stats.userSynonyms.length; i++)
+					ans += 4 + sizeOf (stats.userSynonyms [i]);
+		}
+		
+		return ans;
+	}
+	
+	/**
+	 * Returns a rough estimate of the heap used by a string.
+	 * @param s the string (may be <code>null</code>)
+	 * @return the number of bytes
+	 */
+	protected static int sizeOf (String s)
+	{
+		return s != null ? 40 + 2 * s.length () : 0;
 	}
 
 	protected boolean hasReading ()
@@ -0,0 +1,237 @@
+package com.wanikani.wklib;
+
+import java.lang.reflect.Array;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A columnar view of a set of items, holding only the fields needed by
+ * statistics. Each field is stored in a primitive array, indexed by row,
+ * so aggregations scan contiguous memory instead of following references
+ * to items, stats and performance objects.
+ * <p>
+ * Rows are appended either from items ({@link #add(Item)}), or field by field
+ * ({@link #addRow()}). Arrays may be longer than {@link #size}: only the first
+ * <code>size</code> elements are valid.
+ * <p>
+ * Building the view costs one pass over items that already exist, so it pays
+ * off only when several aggregations scan the same batch, as the stats
+ * charts do.
+ */
+public class ItemColumns {
+
+	/// Value of {@link #srs} for items having no SRS level (i.e. locked items)
+	public static final byte NO_SRS = -1;
+
+	/// Value of date columns when the date is unknown
+	public static final long NO_DATE = 0;
+
+	/// Initial capacity
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/// Item types, by ordinal
+	private static final Item.Type TYPES [] = Item.Type.values ();
+
+	/// SRS levels, by ordinal
+	private static final SRSLevel SRS_LEVELS [] = SRSLevel.values ();
+
+	/// Number of rows
+	public int size;
+
+	/// Item type ordinals
+	public byte type [];
+
+	/// Levels
+	public int level [];
+
+	/// SRS level ordinals, or {@link #NO_SRS}
+	public byte srs [];
+
+	/// Unlock dates, in ms, or {@link #NO_DATE}
+	public long unlocked [];
+
+	/// Next review dates, in ms, or {@link #NO_DATE}
+	public long available [];
+
+	/// Burned flags
+	public boolean burned [];
+
+	/// Correct meaning answers
+	public int meaningCorrect [];
+
+	/// Incorrect meaning answers
+	public int meaningIncorrect [];
+
+	/// Correct reading answers
+	public int readingCorrect [];
+
+	/// Incorrect reading answers
+	public int readingIncorrect [];
+
+	/**
+	 * Constructor. Builds an empty object.
+	 */
+	public ItemColumns ()
+	{
+		this (DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor. Builds an empty object.
+	 * @param capacity the expected number of rows
+	 */
+	public ItemColumns (int capacity)
+	{
+		capacity = Math.max (capacity, 1);
+
+		type = new byte [capacity];
+		level = new int [capacity];
+		srs = new byte [capacity];
+		unlocked = new long [capacity];
+		available = new long [capacity];
+		burned = new boolean [capacity];
+		meaningCorrect = new int [capacity];
+		meaningIncorrect = new int [capacity];
+		readingCorrect = new int [capacity];
+		readingIncorrect = new int [capacity];
+	}
+
+	/**
+	 * Constructor. Builds the columns of an item library.
+	 * @param lib the library
+	 */
+	public ItemColumns (ItemLibrary<? extends Item> lib)
+	{
+		this (lib.list.size ());
+
+		add (lib);
+	}
+
+	/**
+	 * Appends an empty row. The caller is expected to fill its fields.
+	 * @return the row index
+	 */
+	public int addRow ()
+	{
+		int n;
+
+		if (size == type.length) {
+			n = size * 2;
+			type = (byte []) grow (type, n);
+			level = (int []) grow (level, n);
+			srs = (byte []) grow (srs, n);
+			unlocked = (long []) grow (unlocked, n);
+			available = (long []) grow (available, n);
+			burned = (boolean []) grow (burned, n);
+			meaningCorrect = (int []) grow (meaningCorrect, n);
+			meaningIncorrect = (int []) grow (meaningIncorrect, n);
+			readingCorrect = (int []) grow (readingCorrect, n);
+			readingIncorrect = (int []) grow (readingIncorrect, n);
+		}
+
+		srs [size] = NO_SRS;
+		unlocked [size] = NO_DATE;
+		available [size] = NO_DATE;
+		burned [size] = false;
+		meaningCorrect [size] = meaningIncorrect [size] = 0;
+		readingCorrect [size] = readingIncorrect [size] = 0;
+
+		return size++;
+	}
+
+	/**
+	 * Copies an array into a larger one. Arrays.copyOf would do, but it
+	 * is not available on older devices.
+	 * @param array a primitive array
+	 * @param n the new length
+	 * @return the new array
+	 */
+	private static Object grow (Object array, int n)
+	{
+		Object ans;
+
+		ans = Array.newInstance (array.getClass ().getComponentType (), n);
+		System.arraycopy (array, 0, ans, 0, Array.getLength (array));
+
+		return ans;
+	}
+
+	/**
+	 * Appends an item.
+	 * @param item the item
+	 * @return the row index
+	 */
+	public int add (Item item)
+	{
+		Item.Stats stats;
+		int i;
+
+		i = addRow ();
+		type [i] = (byte) item.type.ordinal ();
+		level [i] = item.level;
+		unlocked [i] = item.getUnlockedTime ();
+
+		stats = item.stats;
+		if (stats != null) {
+			if (stats.srs != null)
+				srs [i] = (byte) stats.srs.ordinal ();
+			available [i] = stats.getAvailableTime ();
+			burned [i] = stats.burned;
+			if (stats.meaning != null) {
+				meaningCorrect [i] = stats.meaning.correct;
+				meaningIncorrect [i] = stats.meaning.incorrect;
+			}
+			if (stats.reading != null) {
+				readingCorrect [i] = stats.reading.correct;
+				readingIncorrect [i] = stats.reading.incorrect;
+			}
+		}
+
+		return i;
+	}
+
+	/**
+	 * Appends all the items of a library.
+	 * @param lib the library
+	 */
+	public void add (ItemLibrary<? extends Item> lib)
+	{
+		for (Item item : lib.list)
+			add (item);
+	}
+
+	/**
+	 * Returns the item type of a row.
+	 * @param i the row
+	 * @return the type
+	 */
+	public Item.Type getType (int i)
+	{
+		return TYPES [type [i]];
+	}
+
+	/**
+	 * Returns the SRS level of a row.
+	 * @param i the row
+	 * @return the level, or <code>null</code> if the item is locked
+	 */
+	public SRSLevel getSRS (int i)
+	{
+		return srs [i] != NO_SRS ? SRS_LEVELS [srs [i]] : null;
+	}
+}
@@ -0,0 +1,142 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Builds an item library straight from a {@link JSONStreamReader}, one
+ * item at a time. Only the JSON tree of the item being decoded is kept in memory.
+ * Items are optionally published to a listener in chunks, as soon as they
+ * are decoded.
+ */
+public class ItemDecoder<T extends Item> {
+
+	/**
+	 * Interface implemented by clients that wish to receive items
+	 * as they arrive. Calls are serialized on the listener instance, however
+	 * they may come from different threads.
+	 */
+	public interface Listener<T extends Item> {
+
+		public void newItems (ItemLibrary<T> lib);
+
+	}
+
+	/// Number of items published at once to the listener
+	public static final int CHUNK_SIZE = 100;
+
+	/// The item factory
+	private Item.Factory<T> factory;
+
+	/// The listener. May be <code>null</code>
+	private Listener<T> listener;
+
+	/// The items decoded so far
+	public ItemLibrary<T> lib;
+
+	/// Items not published yet
+	private ItemLibrary<T> chunk;
+
+	/// Set if at least one chunk has been published
+	private boolean published;
+
+	/**
+	 * Constructor.
+	 * @param factory the item factory
+	 * @param listener the listener (may be <code>null</code>)
+	 */
+	public ItemDecoder (Item.Factory<T> factory, Listener<T> listener)
+	{
+		this.factory = factory;
+		this.listener = listener;
+
+		lib = new ItemLibrary<T> ();
+		chunk = new ItemLibrary<T> ();
+	}
+
+	/**
+	 * Decodes an array of items.
+	 * @param rd the reader, positioned at the beginning of the array
+	 */
+	public void decode (JSONStreamReader rd)
+		throws IOException, JSONException
+	{
+		T item;
+
+		rd.beginArray ();
+		while (rd.hasNext ()) {
+			item = factory.deserialize (new JSONObject (rd.nextValue ()));
+			lib.add (item);
+			if (listener != null) {
+				chunk.add (item);
+				if (chunk.list.size () >= CHUNK_SIZE)
+					flush ();
+			}
+		}
+		rd.endArray ();
+
+		flush ();
+	}
+
+	/**
+	 * Publishes pending items to the listener
+	 */
+	private void flush ()
+	{
+		if (listener != null && !chunk.list.isEmpty ()) {
+			publish (listener, chunk);
+			chunk = new ItemLibrary<T> ();
+			published = true;
+		}
+	}
+
+	/**
+	 * Discards the items decoded so far, so that the document can be decoded
+	 * again (e.g. after a network error). This is not possible if some
+	 * items have already been published to the listener.
+	 * @return <code>true</code> if successful
+	 */
+	public boolean rewind ()
+	{
+		if (published)
+			return false;
+
+		lib = new ItemLibrary<T> ();
+		chunk = new ItemLibrary<T> ();
+
+		return true;
+	}
+
+	/**
+	 * Publishes a library to a listener, serializing calls.
+	 * @param listener the listener (may be <code>null</code>)
+	 * @param lib the library
+	 */
+	public static <T extends Item> void publish (Listener<T> listener, ItemLibrary<T> lib)
+	{
+		if (listener != null && !lib.list.isEmpty ()) {
+			synchronized (listener) {
+				listener.newItems (lib);
+			}
+		}
+	}
+}
@@ -55,4 +55,19 @@ public class ItemLibrary<T extends Item> implements Serializable {
 		
 		return this;
 	}
+	
+	/**
+	 * Estimates the memory used by this library.
+	 * @return the size, in bytes
+	 */
+	public long estimateSize ()
+	{
+		long ans;
+		
+		ans = 64;
+		for (T t : list)
+			ans += 8 + t.estimateSize ();
+		
+		return ans;
+	}
 }
@@ -0,0 +1,552 @@
+package com.wanikani.wklib;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A full text index of a set of items, supporting substring queries.
+ * Each item is indexed by its character, meanings, user synonyms and
+ * readings. Text is normalized to lower case, and katakana is folded
+ * to hiragana.
+ * <p>
+ * The index maps every character and every pair of adjacent characters
+ * (bigram) to the sorted list of the items containing it.
+ * A query is resolved by intersecting the lists of its bigrams, and then
+ * checking the few remaining candidates. Queries made of romaji are also
+ * converted to kana, so readings can be searched without a Japanese
+ * keyboard.
+ * <p>
+ * Items can be added at any time, so the index can be kept in sync with
+ * a list that grows incrementally.
+ */
+public class ItemSearchIndex {
+
+	/**
+	 * The list of items containing a gram. Ids are appended in increasing
+	 * order, so the list is always sorted.
+	 */
+	private static class Postings {
+
+		/// The item ids
+		int ids [];
+
+		/// Number of valid ids
+		int size;
+
+		public Postings ()
+		{
+			ids = new int [4];
+		}
+
+		public void add (int id)
+		{
+			int nids [];
+
+			if (size > 0 && ids [size - 1] == id)
+				return;
+
+			if (size == ids.length) {
+				nids = new int [size * 2];
+				System.arraycopy (ids, 0, nids, 0, size);
+				ids = nids;
+			}
+			ids [size++] = id;
+		}
+	}
+
+	/**
+	 * The result of a search. It can be used to refine later searches.
+	 */
+	public static class Result {
+
+		/// The strings searched. An item matches if its text contains any of them
+		String needles [];
+
+		/// The ids of the matching items
+		BitSet ids;
+
+		/// Number of items in the index when the search was run
+		int indexed;
+
+		/// The generation of the index when the search was run
+		int generation;
+
+		/// Set if the result was computed by refining a previous one
+		boolean refined;
+
+		Result (String needles [], int indexed, int generation)
+		{
+			this.needles = needles;
+			this.indexed = indexed;
+			this.generation = generation;
+
+			ids = new BitSet (indexed);
+		}
+
+		/**
+		 * Tells whether the items matching this search are a subset of the
+		 * ones matching another search. This is true if each string searched
+		 * here contains a string searched there.
+		 * @param r the other search
+		 * @return <code>true</code> if this search is narrower
+		 */
+		boolean narrows (Result r)
+		{
+			int i;
+
+			for (i = 0; i < needles.length; i++)
+				if (!contains (needles [i], r.needles))
+					return false;
+
+			return true;
+		}
+
+		/**
+		 * Returns the number of matching items.
+		 * @return the number of items
+		 */
+		public int size ()
+		{
+			return ids.cardinality ();
+		}
+
+		/**
+		 * Tells whether this result was computed by refining a previous one.
+		 * @return <code>true</code> if it was
+		 */
+		public boolean isRefined ()
+		{
+			return refined;
+		}
+	}
+
+	/// Separates the terms of an item. It can't appear in a normalized query
+	private static final char SEPARATOR = '\n';
+
+	/// Separates alternative queries
+	private static final String QUERY_SEPARATOR = ",";
+
+	/// The items, by id
+	private List<Item> items;
+
+	/// The normalized text of each item, by id
+	private List<String> docs;
+
+	/// The postings. Keys are built by {@link #gram(char)} and {@link #gram(char, char)}
+	private Map<Integer, Postings> grams;
+
+	/// The romaji converter
+	private JapaneseIME ime;
+
+	/// Incremented each time the index is cleared, to invalidate older results
+	private int generation;
+
+	/**
+	 * Constructor. Builds an empty index.
+	 */
+	public ItemSearchIndex ()
+	{
+		items = new Vector<Item> ();
+		docs = new Vector<String> ();
+		grams = new HashMap<Integer, Postings> ();
+		ime = new JapaneseIME ();
+	}
+
+	/**
+	 * Removes all the items.
+	 */
+	public synchronized void clear ()
+	{
+		items.clear ();
+		docs.clear ();
+		grams.clear ();
+		generation++;
+	}
+
+	/**
+	 * Returns the number of items indexed.
+	 * @return the number of items
+	 */
+	public synchronized int size ()
+	{
+		return items.size ();
+	}
+
+	/**
+	 * Adds a list of items.
+	 * @param l the items
+	 */
+	public synchronized void add (List<? extends Item> l)
+	{
+		for (Item item : l)
+			add (item);
+	}
+
+	/**
+	 * Adds an item. No duplicate checking is performed.
+	 * @param item the item
+	 */
+	public synchronized void add (Item item)
+	{
+		String doc;
+		char c, prev;
+		int i, id;
+
+		id = items.size ();
+		doc = document (item);
+		items.add (item);
+		docs.add (doc);
+
+		prev = SEPARATOR;
+		for (i = 0; i < doc.length (); i++) {
+			c = doc.charAt (i);
+			if (c != SEPARATOR) {
+				postings (gram (c)).add (id);
+				if (prev != SEPARATOR)
+					postings (gram (prev, c)).add (id);
+			}
+			prev = c;
+		}
+	}
+
+	/**
+	 * Returns the postings of a gram, creating them if needed.
+	 * @param gram the gram
+	 * @return the postings
+	 */
+	private Postings postings (Integer gram)
+	{
+		Postings ans;
+
+		ans = grams.get (gram);
+		if (ans == null) {
+			ans = new Postings ();
+			grams.put (gram, ans);
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Returns the key of a single character.
+	 * @param c the character
+	 * @return the key
+	 */
+	private static Integer gram (char c)
+	{
+		return (int) c;
+	}
+
+	/**
+	 * Returns the key of a bigram. Since the first character is never
+	 * the null char, it never clashes with single characters.
+	 * @param a the first character
+	 * @param b the second character
+	 * @return the key
+	 */
+	private static Integer gram (char a, char b)
+	{
+		return (a << 16) | b;
+	}
+
+	/**
+	 * Builds the normalized text of an item.
+	 * @param item the item
+	 * @return the text, where each term is followed by {@link #SEPARATOR}
+	 */
+	private static String document (Item item)
+	{
+		StringBuffer sb;
+		Kanji kanji;
+		int i;
+
+		sb = new StringBuffer ();
+		append (sb, item.character);
+		append (sb, item.meaning);
+		if (item.stats != null && item.stats.userSynonyms != null)
+			for (i = 0; i < item.stats.userSynonyms.length; i++)
+				append (sb, item.stats.userSynonyms [i]);
+
+		switch (item.type) {
+		case KANJI:
+			kanji = (Kanji) item;
+			append (sb, kanji.onyomi);
+			append (sb, kanji.kunyomi);
+			append (sb, kanji.nanori);
+			break;
+
+		case VOCABULARY:
+			append (sb, ((Vocabulary) item).kana);
+			break;
+
+		case RADICAL:
+			break;
+		}
+
+		return sb.toString ();
+	}
+
+	/**
+	 * Appends a normalized term to a document.
+	 * @param sb the document
+	 * @param s the term (may be <code>null</code>)
+	 */
+	private static void append (StringBuffer sb, String s)
+	{
+		if (s != null)
+			sb.append (normalize (s)).append (SEPARATOR);
+	}
+
+	/**
+	 * Normalizes a string, converting it to lower case and folding
+	 * katakana to hiragana.
+	 * @param s the string
+	 * @return the normalized string
+	 */
+	public static String normalize (String s)
+	{
+		StringBuffer sb;
+		char c;
+		int i;
+
+		s = s.toLowerCase (Locale.US);
+		sb = null;
+		for (i = 0; i < s.length (); i++) {
+			c = s.charAt (i);
+			if (c >= 'ァ' && c <= 'ヶ') {
+				if (sb == null)
+					sb = new StringBuffer (s);
+				sb.setCharAt (i, (char) (c - 0x60));
+			} else if (c == SEPARATOR) {
+				if (sb == null)
+					sb = new StringBuffer (s);
+				sb.setCharAt (i, ' ');
+			}
+		}
+
+		return sb != null ? sb.toString () : s;
+	}
+
+	/**
+	 * Looks for the items matching a query. The query is a comma separated
+	 * list of alternatives, and an item matches if any of the alternatives
+	 * is contained in one of its terms. Alternatives written in romaji
+	 * also match the corresponding kana.
+	 * @param query the query
+	 * @return the matching items, or <code>null</code> if the query
+	 * is empty, and therefore matches any item
+	 */
+	public synchronized List<Item> search (String query)
+	{
+		Result result;
+
+		result = search (query, null);
+
+		return result != null ? getItems (result) : null;
+	}
+
+	/**
+	 * Looks for the items matching a query, like {@link #search(String)}.
+	 * If the query narrows a previous one, i.e. any item it matches is
+	 * also matched by the previous query, only the results of the previous
+	 * query (and the items added afterwards) are checked.
+	 * @param query the query
+	 * @param previous the result of a previous search (may be <code>null</code>)
+	 * @return the result, or <code>null</code> if the query is empty,
+	 * and therefore matches any item
+	 */
+	public synchronized Result search (String query, Result previous)
+	{
+		StringTokenizer st;
+		List<String> needles;
+		Result ans;
+		String s, kana;
+		int i, id;
+
+		st = new StringTokenizer (query, QUERY_SEPARATOR);
+		needles = new Vector<String> ();
+		while (st.hasMoreTokens ()) {
+			s = normalize (st.nextToken ().trim ());
+			if (s.length () == 0)
+				continue;
+
+			needles.add (s);
+			kana = toKana (s);
+			if (kana != null)
+				needles.add (kana);
+		}
+
+		if (needles.isEmpty ())
+			return null;
+
+		ans = new Result (needles.toArray (new String [needles.size ()]),
+						  items.size (), generation);
+
+		if (previous != null && previous.generation == generation &&
+			ans.narrows (previous)) {
+			ans.refined = true;
+			for (id = previous.ids.nextSetBit (0); id >= 0; id = previous.ids.nextSetBit (id + 1))
+				if (contains (docs.get (id), ans.needles))
+					ans.ids.set (id);
+			for (id = previous.indexed; id < items.size (); id++)
+				if (contains (docs.get (id), ans.needles))
+					ans.ids.set (id);
+		} else {
+			for (i = 0; i < ans.needles.length; i++)
+				lookup (ans.needles [i], ans.ids);
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Returns the items of a search result.
+	 * @param result the result
+	 * @return a new list
+	 */
+	public synchronized List<Item> getItems (Result result)
+	{
+		List<Item> ans;
+		int id;
+
+		ans = new Vector<Item> (result.ids.cardinality ());
+		if (result.generation != generation)
+			return ans;
+
+		for (id = result.ids.nextSetBit (0); id >= 0; id = result.ids.nextSetBit (id + 1))
+			ans.add (items.get (id));
+
+		return ans;
+	}
+
+	/**
+	 * Tells whether a document contains any of a set of strings.
+	 * @param doc the document
+	 * @param needles the strings
+	 * @return <code>true</code> if it does
+	 */
+	private static boolean contains (String doc, String needles [])
+	{
+		int i;
+
+		for (i = 0; i < needles.length; i++)
+			if (doc.indexOf (needles [i]) >= 0)
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Converts a romaji string to hiragana.
+	 * @param s a normalized string
+	 * @return the kana string, or <code>null</code> if it is not romaji,
+	 * or it can't be fully converted
+	 */
+	private String toKana (String s)
+	{
+		String ans;
+		char c;
+		int i;
+
+		ans = ime.parse (s);
+		if (ans == s)
+			return null;
+
+		for (i = 0; i < ans.length (); i++) {
+			c = ans.charAt (i);
+			if (c < 128 && Character.isLetter (c))
+				return null;
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Looks for the items containing a string.
+	 * @param s a normalized, non empty string
+	 * @param hits where to set the ids of the matching items
+	 */
+	private void lookup (String s, BitSet hits)
+	{
+		Postings p, lists [];
+		int pos [];
+		int i, j, id;
+
+		if (s.length () == 1) {
+			p = grams.get (gram (s.charAt (0)));
+			if (p != null)
+				for (i = 0; i < p.size; i++)
+					hits.set (p.ids [i]);
+			return;
+		}
+
+		lists = new Postings [s.length () - 1];
+		for (i = 0; i < lists.length; i++) {
+			lists [i] = grams.get (gram (s.charAt (i), s.charAt (i + 1)));
+			if (lists [i] == null)
+				return;
+		}
+
+		/* Start from the shortest list, and check the others */
+		for (i = 1; i < lists.length; i++)
+			if (lists [i].size < lists [0].size) {
+				p = lists [0];
+				lists [0] = lists [i];
+				lists [i] = p;
+			}
+
+		pos = new int [lists.length];
+		for (i = 0; i < lists [0].size; i++) {
+			id = lists [0].ids [i];
+			for (j = 1; j < lists.length; j++)
+				if (!contains (lists [j], id, pos, j))
+					break;
+			if (j == lists.length && docs.get (id).indexOf (s) >= 0)
+				hits.set (id);
+		}
+	}
+
+	/**
+	 * Tells whether a postings list contains an id. Since ids are looked
+	 * up in increasing order, the search starts from where the previous
+	 * one stopped.
+	 * @param p the list
+	 * @param id the id
+	 * @param pos the position of each list
+	 * @param j the index of this list in <code>pos</code>
+	 * @return <code>true</code> if the id is in the list
+	 */
+	private static boolean contains (Postings p, int id, int pos [], int j)
+	{
+		int k;
+
+		k = pos [j];
+		while (k < p.size && p.ids [k] < id)
+			k++;
+		pos [j] = k;
+
+		return k < p.size && p.ids [k] == id;
+	}
+}
@@ -0,0 +1,326 @@
+package com.wanikani.wklib;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Sorts item lists using precomputed keys. The item comparators compute
+ * their criteria (error counts, streaks, dates...) from scratch on each
+ * comparison, and then fall back to a chain of other comparators.
+ * When the comparator is an {@link Item.KeyedComparator}, this class
+ * walks the chain once, stores the key of each criterion of each item in
+ * a primitive array, and sorts an index array comparing those keys only.
+ * The list is then permuted accordingly.
+ * <p>
+ * Like {@link Collections#sort(List, Comparator)}, the sort is stable,
+ * and the result is the same the comparator would yield. Other
+ * comparators are simply passed to {@link Collections#sort(List, Comparator)}.
+ */
+public class ItemSorter {
+
+	/// Lists at least this long are sorted on two threads, if there are two cores
+	public static final int PARALLEL_THRESHOLD = 2048;
+
+	/// Ranges shorter than this are insertion sorted
+	private static final int INSERTION_THRESHOLD = 8;
+
+	/// Maximum length of the comparator chain that is turned into keys
+	private static final int MAX_KEYS = 8;
+
+	/// The items, in their original order
+	private Item items [];
+
+	/// The keys. The first index is the criterion, the second one the item
+	private long keys [][];
+
+	/// Comparator that breaks ties between equal keys. May be <code>null</code>
+	private Comparator<Item> tail;
+
+	/**
+	 * Sorts half of the index array on a separate thread.
+	 */
+	private class Half implements Runnable {
+
+		/// The source array
+		int src [];
+
+		/// The destination array
+		int dst [];
+
+		/// Start of the range
+		int lo;
+
+		/// End of the range
+		int hi;
+
+		/// Set if the sort failed
+		RuntimeException e;
+
+		public Half (int src [], int dst [], int lo, int hi)
+		{
+			this.src = src;
+			this.dst = dst;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		public void run ()
+		{
+			try {
+				mergeSort (src, dst, lo, hi);
+			} catch (RuntimeException e) {
+				this.e = e;
+			}
+		}
+	}
+
+	/**
+	 * Constructor. Extracts the keys.
+	 * @param list the items
+	 * @param cmp the comparator
+	 */
+	private ItemSorter (List<? extends Item> list, Item.KeyedComparator cmp)
+	{
+		Item.KeyedComparator kcmp;
+		Comparator<Item> next;
+		long column [];
+		int i, k, n;
+
+		items = list.toArray (new Item [list.size ()]);
+		n = items.length;
+
+		keys = new long [MAX_KEYS][];
+		next = cmp;
+		for (k = 0; k < MAX_KEYS && next instanceof Item.KeyedComparator; k++) {
+			kcmp = (Item.KeyedComparator) next;
+			column = new long [n];
+			for (i = 0; i < n; i++)
+				column [i] = kcmp.getKey (items [i]);
+			keys [k] = column;
+			next = kcmp.getSecondKey ();
+		}
+
+		if (k < MAX_KEYS)
+			keys = copy (keys, k);
+		tail = next;
+	}
+
+	/**
+	 * Truncates a key matrix.
+	 * @param keys the keys
+	 * @param n the number of criteria to keep
+	 * @return the new matrix
+	 */
+	private static long [][] copy (long keys [][], int n)
+	{
+		long ans [][];
+
+		ans = new long [n][];
+		System.arraycopy (keys, 0, ans, 0, n);
+
+		return ans;
+	}
+
+	/**
+	 * Sorts a list. Long lists are sorted on two threads.
+	 * @param list the list
+	 * @param cmp the comparator
+	 */
+	public static <T extends Item> void sort (List<T> list, Comparator<Item> cmp)
+	{
+		sort (list, cmp, true);
+	}
+
+	/**
+	 * Sorts a list.
+	 * @param list the list
+	 * @param cmp the comparator
+	 * @param parallel set if long lists may be sorted on two threads
+	 */
+	public static <T extends Item> void sort (List<T> list, Comparator<Item> cmp, boolean parallel)
+	{
+		ItemSorter sorter;
+		ListIterator<T> li;
+		int idx [];
+		int i;
+
+		if (!(cmp instanceof Item.KeyedComparator)) {
+			Collections.sort (list, cmp);
+			return;
+		}
+
+		if (list.size () < 2)
+			return;
+
+		sorter = new ItemSorter (list, (Item.KeyedComparator) cmp);
+		idx = sorter.sort (parallel && list.size () >= PARALLEL_THRESHOLD &&
+						   Runtime.getRuntime ().availableProcessors () > 1);
+
+		li = list.listIterator ();
+		for (i = 0; i < idx.length; i++) {
+			li.next ();
+			li.set (sorter.<T>get (idx [i]));
+		}
+	}
+
+	@SuppressWarnings ("unchecked")
+	private <T extends Item> T get (int i)
+	{
+		return (T) items [i];
+	}
+
+	/**
+	 * Sorts the items.
+	 * @param parallel set if the two halves should be sorted on two threads
+	 * @return the indexes of the items, in sorted order
+	 */
+	private int [] sort (boolean parallel)
+	{
+		Thread thread;
+		Half half;
+		int idx [], aux [];
+		int i, mid;
+
+		idx = new int [items.length];
+		for (i = 0; i < idx.length; i++)
+			idx [i] = i;
+		aux = idx.clone ();
+
+		if (!parallel) {
+			mergeSort (aux, idx, 0, idx.length);
+			return idx;
+		}
+
+		mid = idx.length >>> 1;
+		half = new Half (idx, aux, 0, mid);
+		thread = new Thread (half, "ItemSorter");
+		thread.start ();
+		mergeSort (idx, aux, mid, idx.length);
+		join (thread);
+		if (half.e != null)
+			throw half.e;
+
+		merge (aux, idx, 0, mid, idx.length);
+
+		return idx;
+	}
+
+	/**
+	 * Waits for a thread to complete, even if the caller is interrupted.
+	 * The interrupt flag is restored afterwards.
+	 * @param thread the thread
+	 */
+	private static void join (Thread thread)
+	{
+		boolean interrupted;
+
+		interrupted = false;
+		while (true) {
+			try {
+				thread.join ();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread ().interrupt ();
+	}
+
+	/**
+	 * Compares two items, given their indexes.
+	 * @param a the first item
+	 * @param b the second item
+	 * @return a negative number, zero or a positive number, if <code>a</code>
+	 * comes before, together with, or after <code>b</code>
+	 */
+	private int compare (int a, int b)
+	{
+		long column [];
+		int k;
+
+		for (k = 0; k < keys.length; k++) {
+			column = keys [k];
+			if (column [a] != column [b])
+				return column [a] < column [b] ? -1 : 1;
+		}
+
+		return tail != null ? tail.compare (items [a], items [b]) : 0;
+	}
+
+	/**
+	 * Stable merge sort. On entry, <code>src</code> and <code>dst</code> must
+	 * hold the same elements in the given range. On exit, the range of
+	 * <code>dst</code> is sorted, while <code>src</code> has been used as scratch.
+	 * @param src the source array
+	 * @param dst the destination array
+	 * @param lo start of the range
+	 * @param hi end of the range (exclusive)
+	 */
+	private void mergeSort (int src [], int dst [], int lo, int hi)
+	{
+		int i, j, t, mid;
+
+		if (hi - lo < INSERTION_THRESHOLD) {
+			for (i = lo + 1; i < hi; i++) {
+				t = dst [i];
+				for (j = i; j > lo && compare (dst [j - 1], t) > 0; j--)
+					dst [j] = dst [j - 1];
+				dst [j] = t;
+			}
+			return;
+		}
+
+		mid = (lo + hi) >>> 1;
+		mergeSort (dst, src, lo, mid);
+		mergeSort (dst, src, mid, hi);
+		merge (src, dst, lo, mid, hi);
+	}
+
+	/**
+	 * Merges two sorted adjacent ranges.
+	 * @param src the array holding the ranges
+	 * @param dst the destination array
+	 * @param lo start of the first range
+	 * @param mid end of the first range and start of the second one
+	 * @param hi end of the second range
+	 */
+	private void merge (int src [], int dst [], int lo, int mid, int hi)
+	{
+		int i, p, q;
+
+		if (compare (src [mid - 1], src [mid]) <= 0) {
+			System.arraycopy (src, lo, dst, lo, hi - lo);
+			return;
+		}
+
+		p = lo;
+		q = mid;
+		for (i = lo; i < hi; i++) {
+			if (q >= hi || (p < mid && compare (src [p], src [q]) <= 0))
+				dst [i] = src [p++];
+			else
+				dst [i] = src [q++];
+		}
+	}
+}
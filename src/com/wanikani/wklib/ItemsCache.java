@@ -1,62 +1,137 @@
 package com.wanikani.wklib;
 
-import java.util.EnumMap;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.wanikani.wklib.ItemsCacheInterface.LevelData;
 
 public class ItemsCache implements ItemsCacheInterface {
 	
-	static final long serialVersionUID = 2L; 
+	static final long serialVersionUID = 3L; 
 
+	/**
+	 * The cache of one item type. Levels are stored in an array of atomic
+	 * slots, indexed by level, so reads take no lock and allocate nothing.
+	 * Writers replace whole slots, and the array is replaced (copy-on-write)
+	 * in the rare case it must grow.
+	 */
 	public class LevelCache<T extends Item> implements ItemsCacheInterface.Cache<T> {
 		
-		static final long serialVersionUID = 2L; 
+		static final long serialVersionUID = 3L; 
 		
-		Map<Integer, ItemsCacheInterface.LevelData<T>> ht;
+		/// Initial number of slots, enough for all the WaniKani levels
+		private static final int INITIAL_SLOTS = 64;
+		
+		/// The slots, indexed by level
+		volatile AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> slots;
 		
 		public LevelCache ()
 		{
-			ht = new Hashtable<Integer, LevelData<T>> ();
+			slots = new AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> (INITIAL_SLOTS);
 		}
 		
+		@SuppressWarnings ("unchecked")
 		public LevelData<T> get (int level)
 		{
+			AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> slots;
 			LevelData<T> ans;
 			
-			ans = ht.get (level);
+			slots = this.slots;
+			ans = level >= 0 && level < slots.length () ? slots.get (level) : null;
 			
-			return ans != null ? ans : new LevelData<T> ();
+			return ans != null ? ans : (LevelData<T>) MISSING;
 		}
 
 		public void get (Map<Integer, LevelData <T>> data)
 		{
-			for (int level : data.keySet ())
-				data.put (level, get (level));
+			for (Map.Entry<Integer, LevelData <T>> e : data.entrySet ())
+				e.setValue (get (e.getKey ()));
 		}
 		
 		public void put (LevelData <T> data)
 		{
-			Map<Integer, LevelData <T>> map;
-			LevelData<T> ld;
+			AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> slots;
+			List<LevelData<T>> parts;
+			int level;
 			
-			map = new Hashtable<Integer, LevelData <T>> ();
-			for (T t : data.lib.list) {
-				ld = map.get (t.level);
-				if (ld == null) {
-					ld = new LevelData<T> (data.date, data.etag, new ItemLibrary<T> ());
-					map.put (t.level, ld);
+			parts = partition (data);
+			
+			for (LevelData<T> part : parts) {
+				level = part.lib.list.get (0).level;
+				if (level < 0)
+					continue;
+				/* If the array was replaced in the meantime, our write may be lost */
+				do {
+					slots = grow (level);
+					slots.set (level, part);
+				} while (slots != this.slots);
+			}
+		}
+		
+		/**
+		 * Makes sure a level fits in the slots array.
+		 * @param level the level
+		 * @return the slots array
+		 */
+		private AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> grow (int level)
+		{
+			AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> nslots;
+			int i;
+			
+			if (level < slots.length ())
+				return slots;
+			
+			synchronized (this) {
+				if (level >= slots.length ()) {
+					nslots = new AtomicReferenceArray<ItemsCacheInterface.LevelData<T>> (level * 2);
+					for (i = 0; i < slots.length (); i++)
+						nslots.set (i, slots.get (i));
+					slots = nslots;
 				}
-				ld.lib.add (t);
+				return slots;
 			}
-				
-			ht.putAll (map);
-		}		
+		}
 	}
 
+	/**
+	 * Splits a set of items by level, in a single pass. 
+	 * Levels with no items are not returned.
+	 * @param data the items
+	 * @return one element for each level, with the same validators of the input
+	 */
+	static<T extends Item> List<LevelData<T>> partition (LevelData<T> data)
+	{
+		List<LevelData<T>> ans;
+		LevelData<T> ld;
+		
+		/* Items usually come sorted by level, so the last level is a good guess */
+		ans = new Vector<LevelData<T>> ();
+		ld = null;
+		for (T t : data.lib.list) {
+			if (ld == null || ld.lib.list.get (0).level != t.level) {
+				ld = null;
+				for (LevelData<T> part : ans)
+					if (part.lib.list.get (0).level == t.level) {
+						ld = part;
+						break;
+					}
+				if (ld == null) {
+					ld = new LevelData<T> (data.date, data.etag, data.batch, new ItemLibrary<T> ());
+					ans.add (ld);
+				}
+			}
+			ld.lib.add (t);
+		}
+		
+		return ans;
+	}
+	
+	/// Returned on misses. It is shared, so it must never be modified
+	@SuppressWarnings ("rawtypes")
+	static final LevelData MISSING = new LevelData ();
+	
 	LevelCache<Radical> radicals;
 	
 	LevelCache<Kanji> kanji;
@@ -23,6 +23,9 @@ public interface ItemsCacheInterface extends Serializable {
 		
 		public String etag;
 		
+		/// The comma-separated list of levels the ETag refers to. If null, just this level 
+		public String batch;
+		
 		public Date date;
 		
 		public ItemLibrary<T> lib;
@@ -35,6 +38,13 @@ public interface ItemsCacheInterface extends Serializable {
 			this.etag = etag;
 		}
 		
+		public LevelData (Date date, String etag, String batch, ItemLibrary<T> lib)
+		{
+			this (date, etag, lib);
+			
+			this.batch = batch;
+		}
+		
 		public LevelData ()
 		{
 			quality = Quality.MISSING;
@@ -54,6 +64,17 @@ public interface ItemsCacheInterface extends Serializable {
 		
 	}
 	
+	/**
+	 * Interface implemented by clients that want to know when
+	 * stale cached data has been replaced by fresh data, fetched
+	 * in background.
+	 */
+	public interface Listener {
+		
+		public void levelsUpdated (Item.Type type, int levels []);
+		
+	}
+	
 	public interface Cache<T extends Item> extends Serializable {
 		
 		public LevelData<T> get (int level);
@@ -0,0 +1,369 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.json.JSONException;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A minimal pull parser for JSON documents. It is not a full-fledged
+ * JSON parser: it only knows how to navigate through objects and arrays,
+ * and returns leaf values (or whole subtrees) as raw JSON text, which can be
+ * parsed by <code>org.json</code>. This way callers can decode large arrays
+ * one element at a time, without holding the whole document in memory.
+ * We can't use <code>android.util.JsonReader</code>, because it is not
+ * available on our minimum SDK version.
+ */
+public class JSONStreamReader {
+
+	/**
+	 * The kind of the next token.
+	 */
+	public enum Token {
+
+		BEGIN_OBJECT,
+
+		BEGIN_ARRAY,
+
+		VALUE,
+
+		END
+
+	}
+
+	/// Size of the read buffer
+	private static final int BUFSIZE = 4096;
+
+	/// The reader
+	private Reader rd;
+
+	/// The meter, synced when the document has been read
+	private Connection.Meter meter;
+
+	/// The read buffer
+	private char buf [];
+
+	/// Position of the next char in the buffer
+	private int pos;
+
+	/// Number of valid chars in the buffer
+	private int limit;
+
+	/**
+	 * Constructor.
+	 * @param meter the meter to be synced at the end of the document
+	 * @param is the input stream, which must be UTF-8 encoded
+	 */
+	public JSONStreamReader (Connection.Meter meter, InputStream is)
+		throws IOException
+	{
+		this.meter = meter;
+
+		rd = new InputStreamReader (is, "UTF-8");
+		buf = new char [BUFSIZE];
+	}
+
+	/**
+	 * Returns the next char, without consuming it.
+	 * @return the char, or <code>-1</code> at the end of the stream
+	 */
+	private int peekChar ()
+		throws IOException
+	{
+		if (pos == limit) {
+			limit = rd.read (buf, 0, buf.length);
+			pos = 0;
+			if (limit < 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+
+		return buf [pos];
+	}
+
+	/**
+	 * Consumes the next char.
+	 * @return the char
+	 * @throws JSONException at the end of the stream
+	 */
+	private char nextChar ()
+		throws IOException, JSONException
+	{
+		if (peekChar () < 0)
+			throw new JSONException ("Unexpected end of stream");
+
+		return buf [pos++];
+	}
+
+	/**
+	 * Skips whitespace and element separators.
+	 * @return the next significant char, which is not consumed
+	 */
+	private int skipSeparators ()
+		throws IOException
+	{
+		int c;
+
+		while (true) {
+			c = peekChar ();
+			if (c != ',' && !Character.isWhitespace (c))
+				return c;
+			pos++;
+		}
+	}
+
+	private void expect (char c)
+		throws IOException, JSONException
+	{
+		char d;
+
+		skipSeparators ();
+		d = nextChar ();
+		if (d != c)
+			throw new JSONException ("Expected '" + c + "', got '" + d + "'");
+	}
+
+	/**
+	 * Returns the kind of the next token
+	 * @return the token type
+	 */
+	public Token peek ()
+		throws IOException
+	{
+		switch (skipSeparators ()) {
+		case '{':
+			return Token.BEGIN_OBJECT;
+
+		case '[':
+			return Token.BEGIN_ARRAY;
+
+		case '}':
+		case ']':
+		case -1:
+			return Token.END;
+
+		default:
+			return Token.VALUE;
+		}
+	}
+
+	/**
+	 * Tells whether the current object or array has more elements.
+	 * @return <code>true</code> if there is at least another element
+	 */
+	public boolean hasNext ()
+		throws IOException
+	{
+		return peek () != Token.END;
+	}
+
+	public void beginObject ()
+		throws IOException, JSONException
+	{
+		expect ('{');
+	}
+
+	public void endObject ()
+		throws IOException, JSONException
+	{
+		expect ('}');
+	}
+
+	public void beginArray ()
+		throws IOException, JSONException
+	{
+		expect ('[');
+	}
+
+	public void endArray ()
+		throws IOException, JSONException
+	{
+		expect (']');
+	}
+
+	/**
+	 * Reads the name of the next object member, and the colon following it.
+	 * @return the name
+	 */
+	public String nextName ()
+		throws IOException, JSONException
+	{
+		StringBuilder sb;
+
+		skipSeparators ();
+		if (nextChar () != '"')
+			throw new JSONException ("Expected member name");
+
+		sb = new StringBuilder ();
+		readString (sb, false);
+		expect (':');
+
+		return sb.toString ();
+	}
+
+	/**
+	 * Reads the next value (be it a literal, an array or an object).
+	 * @return its raw JSON representation
+	 */
+	public String nextValue ()
+		throws IOException, JSONException
+	{
+		StringBuilder sb;
+
+		sb = new StringBuilder ();
+		readValue (sb);
+
+		return sb.toString ();
+	}
+
+	/**
+	 * Skips the next value (be it a literal, an array or an object)
+	 */
+	public void skipValue ()
+		throws IOException, JSONException
+	{
+		readValue (null);
+	}
+
+	/**
+	 * Called when the document has been completely read. Flushes the meter.
+	 */
+	public void close ()
+	{
+		meter.sync ();
+	}
+
+	/**
+	 * Reads a string body. The opening double quote must have already been consumed.
+	 * @param sb the output buffer (may be <code>null</code>)
+	 * @param raw if set, escape sequences are copied verbatim
+	 */
+	private void readString (StringBuilder sb, boolean raw)
+		throws IOException, JSONException
+	{
+		char c;
+
+		while (true) {
+			c = nextChar ();
+			if (c == '"') {
+				if (raw && sb != null)
+					sb.append (c);
+				return;
+			} else if (c == '\\') {
+				if (raw) {
+					if (sb != null)
+						sb.append (c).append (nextChar ());
+					else
+						nextChar ();
+				} else
+					sb.append (unescape ());
+			} else if (sb != null)
+				sb.append (c);
+		}
+	}
+
+	private char unescape ()
+		throws IOException, JSONException
+	{
+		char c;
+		int i, cp;
+
+		c = nextChar ();
+		switch (c) {
+		case 'b':
+			return '\b';
+
+		case 'f':
+			return '\f';
+
+		case 'n':
+			return '\n';
+
+		case 'r':
+			return '\r';
+
+		case 't':
+			return '\t';
+
+		case 'u':
+			cp = 0;
+			for (i = 0; i < 4; i++)
+				cp = (cp << 4) + Character.digit (nextChar (), 16);
+			return (char) cp;
+
+		default:
+			return c;
+		}
+	}
+
+	private void readValue (StringBuilder sb)
+		throws IOException, JSONException
+	{
+		int depth, c;
+
+		skipSeparators ();
+		depth = 0;
+		while (true) {
+			c = peekChar ();
+			switch (c) {
+			case '{':
+			case '[':
+				depth++;
+				break;
+
+			case '}':
+			case ']':
+				if (depth == 0)
+					/* End of a literal in a container */
+					return;
+				depth--;
+				break;
+
+			case '"':
+				if (sb != null)
+					sb.append ('"');
+				pos++;
+				readString (sb, true);
+				if (depth == 0)
+					return;
+				continue;
+
+			case -1:
+				if (depth > 0)
+					throw new JSONException ("Unexpected end of stream");
+				return;
+
+			default:
+				if (depth == 0 && (c == ',' || Character.isWhitespace (c)))
+					return;
+			}
+
+			if (sb != null)
+				sb.append ((char) c);
+			pos++;
+
+			if (depth == 0 && (c == '}' || c == ']'))
+				return;
+		}
+	}
+}
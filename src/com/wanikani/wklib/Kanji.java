@@ -82,9 +82,9 @@ public class Kanji extends Item {
 
 		String s;
 		
-		onyomi = Util.getString (obj, "onyomi");
-		kunyomi = Util.getString (obj, "kunyomi");
-		nanori = Util.getString (obj, "nanori");
+		onyomi = StringPool.ITEMS.intern (Util.getString (obj, "onyomi"));
+		kunyomi = StringPool.ITEMS.intern (Util.getString (obj, "kunyomi"));
+		nanori = StringPool.ITEMS.intern (Util.getString (obj, "nanori"));
 		s = Util.getString (obj, "important_reading");
 		importantReading = Reading.fromString (s);
 		if (importantReading == null)
@@ -108,6 +108,12 @@ public class Kanji extends Item {
 		return "kanji";
 	}
 	
+	@Override
+	public int estimateSize ()
+	{
+		return super.estimateSize () + sizeOf (onyomi) + sizeOf (kunyomi) + sizeOf (nanori); 
+	}
+	
 	public boolean matches (String s)
 	{
 		return super.matches (s) ||
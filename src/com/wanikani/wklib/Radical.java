@@ -38,7 +38,7 @@ public class Radical extends Item {
 	{
 		super (obj, Item.Type.RADICAL);
 		
-		image = Util.getString (obj, "image");
+		image = StringPool.ITEMS.intern (Util.getString (obj, "image"));
 		
 		fixup ();
 	}	
@@ -64,10 +64,16 @@ public class Radical extends Item {
 		return "radicals";
 	}
 	
+	@Override
+	public int estimateSize ()
+	{
+		return super.estimateSize () + sizeOf (image) + sizeOf (hyphenatedMeaning); 
+	}
+	
 	@Override
 	public void fixup ()
 	{
 		hyphenatedMeaning = meaning;
-		meaning = meaning.replace ('-', ' ');
+		meaning = StringPool.ITEMS.intern (meaning.replace ('-', ' '));
 	}
 }
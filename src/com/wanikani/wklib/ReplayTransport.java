@@ -0,0 +1,576 @@
+package com.wanikani.wklib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.Vector;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A stand-in for the WaniKani servers. In record mode, requests are forwarded
+ * to another transport and successful replies are saved into a directory,
+ * one file per URL. In replay mode, the saved replies are served back,
+ * honouring conditional requests (so 304 replies are returned when validators
+ * match) and optionally injecting latency and limiting bandwidth.
+ * This makes it possible to measure refresh latency, cache hit ratios and
+ * traffic without a live service.
+ * <p>
+ * Each file contains the URL, the status code and the header fields,
+ * one per line, followed by an empty line and the body.
+ * The API key is never written: it is replaced by a placeholder, both in
+ * the URL and in the file name, so recordings can be shared and replayed
+ * with any key.
+ */
+public class ReplayTransport implements Transport {
+
+	/// The URL path segment that precedes the API key
+	private static final String USER_SEGMENT = "/user/";
+
+	/// What the API key is replaced with, in recordings
+	private static final String KEY_PLACEHOLDER = "API_KEY";
+
+	/**
+	 * A reply served from memory.
+	 */
+	private class ReplayResponse implements Transport.Response {
+
+		/// The status code
+		int code;
+
+		/// The header fields
+		Map<String, List<String>> headers;
+
+		/// The body. May be <code>null</code>
+		byte body [];
+
+		public ReplayResponse (int code, Map<String, List<String>> headers, byte body [])
+		{
+			this.code = code;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		public int getCode ()
+		{
+			return code;
+		}
+
+		public InputStream getInputStream ()
+			throws IOException
+		{
+			if (code != 200 || body == null)
+				throw new FileNotFoundException ();
+
+			return new ThrottledInputStream (new ByteArrayInputStream (body));
+		}
+
+		public String getHeaderField (String name)
+		{
+			List<String> values;
+
+			values = headers.get (name);
+
+			return values != null && !values.isEmpty () ? values.get (0) : null;
+		}
+
+		public Map<String, List<String>> getHeaderFields ()
+		{
+			return headers;
+		}
+
+		public long getDate ()
+		{
+			return parseDate (getHeaderField ("Date"));
+		}
+
+		public long getLastModified ()
+		{
+			return parseDate (getHeaderField ("Last-Modified"));
+		}
+
+		public boolean isReused ()
+		{
+			return false;
+		}
+
+		public void close ()
+		{
+			/* empty */
+		}
+	}
+
+	/**
+	 * An input stream that delivers data no faster than the configured bandwidth.
+	 */
+	private class ThrottledInputStream extends FilterInputStream {
+
+		/// When the stream was opened
+		long start;
+
+		/// Bytes read so far
+		long count;
+
+		public ThrottledInputStream (InputStream is)
+		{
+			super (is);
+
+			start = System.currentTimeMillis ();
+		}
+
+		@Override
+		public int read ()
+			throws IOException
+		{
+			int ans;
+
+			ans = super.read ();
+			if (ans >= 0)
+				throttle (1);
+
+			return ans;
+		}
+
+		@Override
+		public int read (byte buf [], int ofs, int len)
+			throws IOException
+		{
+			int ans;
+
+			ans = super.read (buf, ofs, len);
+			if (ans > 0)
+				throttle (ans);
+
+			return ans;
+		}
+
+		private void throttle (int n)
+			throws IOException
+		{
+			long delay;
+
+			count += n;
+			served (n);
+			if (bandwidth <= 0)
+				return;
+
+			delay = start + count * 1000 / bandwidth - System.currentTimeMillis ();
+			if (delay > 0)
+				sleep (delay);
+		}
+	}
+
+	/// The directory where replies are stored
+	private File dir;
+
+	/// The transport requests are forwarded to in record mode. If <code>null</code> we are replaying
+	private Transport recorder;
+
+	/// Delay before each reply is available, in milliseconds
+	private long latency;
+
+	/// Max bandwidth, in bytes per second. If zero, bandwidth is not limited
+	private long bandwidth;
+
+	/// Number of requests
+	private int requests;
+
+	/// Number of requests answered with a 304
+	private int notModified;
+
+	/// Number of requests for which no reply was available
+	private int misses;
+
+	/// Number of body bytes delivered
+	private long bytes;
+
+	/**
+	 * Constructor for replay mode.
+	 * @param dir the directory the replies were recorded into
+	 */
+	public ReplayTransport (File dir)
+	{
+		this (dir, null);
+	}
+
+	/**
+	 * Constructor for record mode.
+	 * @param dir the directory where replies are saved
+	 * @param recorder the transport requests are forwarded to
+	 * (if <code>null</code>, replies are replayed instead)
+	 */
+	public ReplayTransport (File dir, Transport recorder)
+	{
+		this.dir = dir;
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Sets the delay injected before each reply.
+	 * @param latency the delay, in milliseconds
+	 */
+	public void setLatency (long latency)
+	{
+		this.latency = latency;
+	}
+
+	/**
+	 * Limits the bandwidth.
+	 * @param bandwidth the bandwidth in bytes per second, or <code>0</code>
+	 * for unlimited bandwidth
+	 */
+	public void setBandwidth (long bandwidth)
+	{
+		this.bandwidth = bandwidth;
+	}
+
+	public Transport.Response open (Transport.Request req)
+		throws IOException
+	{
+		ReplayResponse ans;
+
+		synchronized (this) {
+			requests++;
+		}
+
+		if (latency > 0)
+			sleep (latency);
+
+		if (recorder != null)
+			return record (req);
+
+		ans = load (req.url);
+		if (ans == null) {
+			synchronized (this) {
+				misses++;
+			}
+			return new ReplayResponse (404, new Hashtable<String, List<String>> (), null);
+		}
+
+		/* Servers always return the current date */
+		put (ans.headers, "Date", formatDate (System.currentTimeMillis ()));
+		if (isNotModified (req, ans)) {
+			synchronized (this) {
+				notModified++;
+			}
+			ans.code = 304;
+			ans.body = null;
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Tells whether the request validators match the recorded reply.
+	 * @param req the request
+	 * @param rsp the recorded reply
+	 * @return <code>true</code> if a 304 should be returned
+	 */
+	private boolean isNotModified (Transport.Request req, ReplayResponse rsp)
+	{
+		long lm;
+
+		if (req.etag != null)
+			return req.etag.equals (rsp.getHeaderField ("ETag"));
+
+		if (req.ifModifiedSince != null) {
+			lm = rsp.getLastModified ();
+			return lm > 0 && lm <= req.ifModifiedSince.getTime ();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Forwards a request to the real transport, saving the reply if successful.
+	 * @param req the request
+	 * @return the reply
+	 */
+	private Transport.Response record (Transport.Request req)
+		throws IOException
+	{
+		Map<String, List<String>> headers;
+		Transport.Response rsp;
+		ByteArrayOutputStream os;
+		InputStream is;
+		byte buf [];
+		int code, rd;
+
+		rsp = recorder.open (req);
+		try {
+			code = rsp.getCode ();
+			headers = new Hashtable<String, List<String>> ();
+			if (rsp.getHeaderFields () != null)
+				for (Map.Entry<String, List<String>> e : rsp.getHeaderFields ().entrySet ())
+					if (e.getKey () != null)
+						headers.put (e.getKey (), new Vector<String> (e.getValue ()));
+			if (code != 200)
+				return new ReplayResponse (code, headers, null);
+
+			os = new ByteArrayOutputStream ();
+			buf = new byte [4096];
+			is = rsp.getInputStream ();
+			while ((rd = is.read (buf)) > 0)
+				os.write (buf, 0, rd);
+		} finally {
+			rsp.close ();
+		}
+
+		save (req.url, headers, os.toByteArray ());
+
+		return new ReplayResponse (code, headers, os.toByteArray ());
+	}
+
+	/**
+	 * Saves a reply.
+	 * @param url the URL
+	 * @param headers the header fields
+	 * @param body the body
+	 */
+	private synchronized void save (String url, Map<String, List<String>> headers, byte body [])
+		throws IOException
+	{
+		StringBuffer sb;
+		OutputStream os;
+
+		sb = new StringBuffer ();
+		url = redact (url);
+		sb.append (url).append ('\n');
+		sb.append (200).append ('\n');
+		for (Map.Entry<String, List<String>> e : headers.entrySet ())
+			for (String s : e.getValue ())
+				sb.append (e.getKey ()).append (": ").append (s).append ('\n');
+		sb.append ('\n');
+
+		dir.mkdirs ();
+		os = new FileOutputStream (getFile (url));
+		try {
+			os.write (sb.toString ().getBytes ("UTF-8"));
+			os.write (body);
+		} finally {
+			os.close ();
+		}
+	}
+
+	/**
+	 * Loads a recorded reply.
+	 * @param url the URL
+	 * @return the reply, or <code>null</code> if it was not recorded
+	 */
+	private ReplayResponse load (String url)
+		throws IOException
+	{
+		Map<String, List<String>> headers;
+		ByteArrayOutputStream bos;
+		String lines [], hdr;
+		InputStream is;
+		byte data [], body [];
+		int i, rd, code;
+		File file;
+
+		file = getFile (url);
+		if (!file.exists ())
+			return null;
+
+		bos = new ByteArrayOutputStream ();
+		data = new byte [4096];
+		is = new FileInputStream (file);
+		try {
+			while ((rd = is.read (data)) > 0)
+				bos.write (data, 0, rd);
+		} finally {
+			is.close ();
+		}
+		data = bos.toByteArray ();
+
+		for (i = 1; i < data.length; i++)
+			if (data [i] == '\n' && data [i - 1] == '\n')
+				break;
+		if (i >= data.length)
+			throw new IOException ("Corrupted recording " + file);
+
+		hdr = new String (data, 0, i - 1, "UTF-8");
+		body = new byte [data.length - i - 1];
+		System.arraycopy (data, i + 1, body, 0, body.length);
+
+		lines = hdr.split ("\n");
+		/* Hash collision */
+		if (lines.length < 2 || !lines [0].equals (redact (url)))
+			return null;
+		try {
+			code = Integer.parseInt (lines [1]);
+		} catch (NumberFormatException e) {
+			throw new IOException ("Corrupted recording " + file);
+		}
+
+		headers = new Hashtable<String, List<String>> ();
+		for (i = 2; i < lines.length; i++) {
+			rd = lines [i].indexOf (": ");
+			if (rd > 0)
+				add (headers, lines [i].substring (0, rd), lines [i].substring (rd + 2));
+		}
+
+		return new ReplayResponse (code, headers, body);
+	}
+
+	private File getFile (String url)
+	{
+		return new File (dir, String.format ("%08x.rsp", redact (url).hashCode ()));
+	}
+
+	/**
+	 * Replaces the API key contained in a URL with a placeholder.
+	 * @param url the URL, as built by {@link Connection}
+	 * @return the URL without the key
+	 */
+	private static String redact (String url)
+	{
+		int i, j;
+
+		i = url.indexOf (USER_SEGMENT);
+		if (i < 0)
+			return url;
+		i += USER_SEGMENT.length ();
+		j = url.indexOf ('/', i);
+		if (j < 0)
+			j = url.length ();
+
+		return url.substring (0, i) + KEY_PLACEHOLDER + url.substring (j);
+	}
+
+	private static void add (Map<String, List<String>> headers, String key, String value)
+	{
+		List<String> values;
+
+		values = headers.get (key);
+		if (values == null) {
+			values = new Vector<String> ();
+			headers.put (key, values);
+		}
+		values.add (value);
+	}
+
+	private static void put (Map<String, List<String>> headers, String key, String value)
+	{
+		headers.remove (key);
+		add (headers, key, value);
+	}
+
+	private static SimpleDateFormat getDateFormat ()
+	{
+		SimpleDateFormat ans;
+
+		ans = new SimpleDateFormat ("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		ans.setTimeZone (TimeZone.getTimeZone ("GMT"));
+
+		return ans;
+	}
+
+	private static String formatDate (long time)
+	{
+		return getDateFormat ().format (new Date (time));
+	}
+
+	private static long parseDate (String s)
+	{
+		if (s == null)
+			return 0;
+
+		try {
+			return getDateFormat ().parse (s).getTime ();
+		} catch (java.text.ParseException e) {
+			return 0;
+		}
+	}
+
+	private static void sleep (long delay)
+		throws IOException
+	{
+		try {
+			Thread.sleep (delay);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException ();
+		}
+	}
+
+	private synchronized void served (int n)
+	{
+		bytes += n;
+	}
+
+	/**
+	 * Returns the number of requests issued.
+	 * @return the number of requests
+	 */
+	public synchronized int getRequests ()
+	{
+		return requests;
+	}
+
+	/**
+	 * Returns the number of requests that were answered with a 304, because
+	 * the client validators matched the recorded reply.
+	 * @return the number of requests
+	 */
+	public synchronized int getNotModified ()
+	{
+		return notModified;
+	}
+
+	/**
+	 * Returns the number of requests for which no reply had been recorded.
+	 * @return the number of requests
+	 */
+	public synchronized int getMisses ()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of body bytes delivered.
+	 * @return the number of bytes
+	 */
+	public synchronized long getBytes ()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Resets all the counters.
+	 */
+	public synchronized void reset ()
+	{
+		requests = notModified = misses = 0;
+		bytes = 0;
+	}
+}
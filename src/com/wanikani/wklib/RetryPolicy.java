@@ -0,0 +1,140 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Decides whether and when a failed request should be retried.
+ * Delays grow exponentially, and are randomized ("full jitter"), so
+ * that clients that failed at the same time do not retry at the same time.
+ * Only transient errors are retried, i.e. timeouts, connections that could
+ * not be established or were reset, and HTTP 5xx replies. Everything else
+ * (client errors such as 404, API errors, malformed documents, unknown 
+ * hosts and interruptions) is not.
+ */
+public class RetryPolicy {
+
+	/// Default max number of attempts
+	public static final int DEFAULT_ATTEMPTS = 3;
+
+	/// Default delay before the first retry, in milliseconds
+	public static final long DEFAULT_BASE_DELAY = 500;
+
+	/// Default max delay between two attempts, in milliseconds
+	public static final long DEFAULT_MAX_DELAY = 8000;
+
+	/// A policy that never retries
+	public static final RetryPolicy NONE = new RetryPolicy (1, 0, 0);
+
+	/// Max number of attempts, including the first one
+	private int attempts;
+
+	/// Delay before the first retry
+	private long baseDelay;
+
+	/// Max delay between two attempts
+	private long maxDelay;
+
+	/// Random generator for the jitter
+	private Random rand;
+
+	/**
+	 * Constructor. Builds a policy with default parameters.
+	 */
+	public RetryPolicy ()
+	{
+		this (DEFAULT_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param attempts max number of attempts, including the first one
+	 * @param baseDelay delay before the first retry, in milliseconds
+	 * @param maxDelay max delay between two attempts, in milliseconds
+	 */
+	public RetryPolicy (int attempts, long baseDelay, long maxDelay)
+	{
+		this.attempts = attempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+
+		rand = new Random ();
+	}
+
+	/**
+	 * Tells whether an error is worth a retry.
+	 * @param e the exception
+	 * @return <code>true</code> if it is a transient error
+	 */
+	public boolean isTransient (IOException e)
+	{
+		if (e instanceof HttpException)
+			return ((HttpException) e).isServerError ();
+
+		/* Includes ConnectException, NoRouteToHostException and resets */
+		return e instanceof SocketTimeoutException ||
+			   e instanceof SocketException;
+	}
+
+	/**
+	 * Tells whether a request should be retried.
+	 * @param attempt the number of attempts done so far
+	 * @param e the last error
+	 * @return <code>true</code> if it should be retried
+	 */
+	public boolean shouldRetry (int attempt, IOException e)
+	{
+		return attempt < attempts && isTransient (e);
+	}
+
+	/**
+	 * Returns how long to wait before the next attempt.
+	 * @param attempt the number of attempts done so far
+	 * @return the delay, in milliseconds
+	 */
+	public long getDelay (int attempt)
+	{
+		long cap;
+
+		cap = Math.min (maxDelay, baseDelay << Math.min (attempt - 1, 20));
+
+		synchronized (rand) {
+			return cap > 0 ? (long) (rand.nextDouble () * cap) : 0;
+		}
+	}
+
+	/**
+	 * Waits before the next attempt.
+	 * @param attempt the number of attempts done so far
+	 * @throws InterruptedIOException if the thread is interrupted
+	 */
+	public void backoff (int attempt)
+		throws InterruptedIOException
+	{
+		try {
+			Thread.sleep (getDelay (attempt));
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException ();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Coalesces identical requests. If a thread asks for a key while another
+ * thread is already computing it, the second thread simply waits for the first
+ * one to complete and gets the same result (or exception).
+ */
+public class SingleFlight {
+
+	/**
+	 * A request in progress.
+	 */
+	private static class Flight {
+
+		/// The result
+		Object value;
+
+		/// The exception thrown by the leader, if any
+		IOException error;
+
+		/// Set when the leader is done
+		boolean done;
+
+	}
+
+	/// Requests in progress
+	private Map<String, Flight> flights;
+
+	/**
+	 * Constructor.
+	 */
+	public SingleFlight ()
+	{
+		flights = new Hashtable<String, Flight> ();
+	}
+
+	/**
+	 * Runs a request, unless an identical one is in progress.
+	 * The result is shared among all the threads, so it should be treated as
+	 * read-only.
+	 * @param key the request key
+	 * @param call the request
+	 * @return the result
+	 * @throws IOException if the request fails
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V run (String key, Callable<V> call)
+		throws IOException
+	{
+		Flight flight;
+		boolean leader;
+
+		synchronized (this) {
+			flight = flights.get (key);
+			leader = flight == null;
+			if (leader) {
+				flight = new Flight ();
+				flights.put (key, flight);
+			}
+		}
+
+		if (leader) {
+			try {
+				flight.value = call.call ();
+			} catch (IOException e) {
+				flight.error = e;
+			} catch (RuntimeException e) {
+				flight.error = new IOException (e.getMessage ());
+				throw e;
+			} catch (Exception e) {
+				flight.error = new IOException (e.getMessage ());
+			} finally {
+				synchronized (this) {
+					flights.remove (key);
+				}
+				synchronized (flight) {
+					flight.done = true;
+					flight.notifyAll ();
+				}
+			}
+		} else {
+			synchronized (flight) {
+				try {
+					while (!flight.done)
+						flight.wait ();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException ();
+				}
+			}
+		}
+
+		if (flight.error != null)
+			throw flight.error;
+
+		return (V) flight.value;
+	}
+}
@@ -0,0 +1,304 @@
+package com.wanikani.wklib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A compact binary format for dashboard data, meant to replace
+ * separate bundle keys when saving instance state:
+ * <ul>
+ * 	<li>Integers are stored as varints
+ * 	<li>Dates are stored as varint deltas from the previous date, since
+ * 		they tend to be close to each other
+ *  <li>No class descriptors are written
+ * </ul>
+ * Each snapshot starts with a magic number and a version, so that
+ * incompatible snapshots are rejected instead of being misread.
+ */
+public class SnapshotCodec {
+
+	/// Magic number
+	private static final int MAGIC = 0x574B53;
+
+	/// Current format version
+	public static final int VERSION = 1;
+
+	/**
+	 * Thrown when a snapshot can't be decoded.
+	 */
+	public static class FormatException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public FormatException (String msg)
+		{
+			super (msg);
+		}
+	}
+
+	/**
+	 * Encodes objects into a snapshot.
+	 */
+	public static class Writer {
+
+		/// The underlying buffer
+		private ByteArrayOutputStream bos;
+
+		/// The output stream
+		private DataOutputStream os;
+
+		/// Last date written
+		private long lastDate;
+
+		/**
+		 * Constructor. Writes the snapshot header.
+		 */
+		public Writer ()
+		{
+			bos = new ByteArrayOutputStream ();
+			os = new DataOutputStream (bos);
+
+			try {
+				writeVarLong (MAGIC);
+				writeVarLong (VERSION);
+			} catch (IOException e) {
+				/* Can't happen: we are writing to memory */
+			}
+		}
+
+		/**
+		 * Returns the snapshot.
+		 * @return the encoded data
+		 */
+		public byte [] toByteArray ()
+		{
+			return bos.toByteArray ();
+		}
+
+		public void writeVarLong (long value)
+			throws IOException
+		{
+			while ((value & ~0x7FL) != 0) {
+				os.write ((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			os.write ((int) value);
+		}
+
+		public void writeInt (int value)
+			throws IOException
+		{
+			/* Zig-zag, so that small negative values are small as well */
+			writeVarLong ((value << 1) ^ (value >> 31));
+		}
+
+		public void writeBoolean (boolean value)
+			throws IOException
+		{
+			os.write (value ? 1 : 0);
+		}
+
+		public void writeDate (Date date)
+			throws IOException
+		{
+			long delta;
+
+			if (date == null) {
+				writeVarLong (0);
+				return;
+			}
+
+			delta = date.getTime () - lastDate;
+			lastDate = date.getTime ();
+			writeVarLong (((delta << 1) ^ (delta >> 63)) + 1);
+		}
+
+		private void writeSRSLevel (SRSDistribution.Level level)
+			throws IOException
+		{
+			writeInt (level.radicals);
+			writeInt (level.kanji);
+			writeInt (level.vocabulary);
+			writeInt (level.total);
+		}
+
+		public void writeSRSDistribution (SRSDistribution srs)
+			throws IOException
+		{
+			writeBoolean (srs != null);
+			if (srs != null) {
+				writeSRSLevel (srs.apprentice);
+				writeSRSLevel (srs.guru);
+				writeSRSLevel (srs.master);
+				writeSRSLevel (srs.enlighten);
+				writeSRSLevel (srs.burned);
+			}
+		}
+
+		public void writeLevelProgression (ExtendedLevelProgression elp)
+			throws IOException
+		{
+			writeBoolean (elp != null);
+			if (elp != null) {
+				writeInt (elp.radicalsProgress);
+				writeInt (elp.radicalsUnlocked);
+				writeInt (elp.radicalsTotal);
+				writeInt (elp.currentLevelRadicalsAvailable);
+				writeInt (elp.kanjiProgress);
+				writeInt (elp.kanjiUnlocked);
+				writeInt (elp.kanjiTotal);
+				writeInt (elp.currentLevelKanjiAvailable);
+				writeDate (elp.currentLevelAvailable);
+			}
+		}
+	}
+
+	/**
+	 * Decodes objects from a snapshot. Objects must be read in the same
+	 * order they were written.
+	 */
+	public static class Reader {
+
+		/// The input stream
+		private DataInputStream is;
+
+		/// Last date read
+		private long lastDate;
+
+		/**
+		 * Constructor. Checks the snapshot header.
+		 * @param data the snapshot
+		 * @throws FormatException if the data is not a snapshot, or its version is not supported
+		 */
+		public Reader (byte data [])
+			throws IOException
+		{
+			is = new DataInputStream (new ByteArrayInputStream (data));
+
+			if (readVarLong () != MAGIC)
+				throw new FormatException ("Not a snapshot");
+			if (readVarLong () != VERSION)
+				throw new FormatException ("Unsupported snapshot version");
+		}
+
+		public long readVarLong ()
+			throws IOException
+		{
+			long ans;
+			int b, shift;
+
+			ans = 0;
+			shift = 0;
+			do {
+				if (shift > 63)
+					throw new FormatException ("Bad varint");
+				b = is.readUnsignedByte ();
+				ans |= ((long) (b & 0x7F)) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			return ans;
+		}
+
+		public int readInt ()
+			throws IOException
+		{
+			int value;
+
+			value = (int) readVarLong ();
+
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		public boolean readBoolean ()
+			throws IOException
+		{
+			return is.readUnsignedByte () != 0;
+		}
+
+		public Date readDate ()
+			throws IOException
+		{
+			long zz, delta;
+
+			zz = readVarLong ();
+			if (zz == 0)
+				return null;
+			zz--;
+			delta = (zz >>> 1) ^ -(zz & 1);
+			lastDate += delta;
+
+			return new Date (lastDate);
+		}
+
+		private void readSRSLevel (SRSDistribution.Level level)
+			throws IOException
+		{
+			level.radicals = readInt ();
+			level.kanji = readInt ();
+			level.vocabulary = readInt ();
+			level.total = readInt ();
+		}
+
+		public SRSDistribution readSRSDistribution ()
+			throws IOException
+		{
+			SRSDistribution ans;
+
+			if (!readBoolean ())
+				return null;
+
+			ans = new SRSDistribution ();
+			readSRSLevel (ans.apprentice);
+			readSRSLevel (ans.guru);
+			readSRSLevel (ans.master);
+			readSRSLevel (ans.enlighten);
+			readSRSLevel (ans.burned);
+
+			return ans;
+		}
+
+		public ExtendedLevelProgression readLevelProgression ()
+			throws IOException
+		{
+			ExtendedLevelProgression ans;
+
+			if (!readBoolean ())
+				return null;
+
+			ans = new ExtendedLevelProgression ();
+			ans.radicalsProgress = readInt ();
+			ans.radicalsUnlocked = readInt ();
+			ans.radicalsTotal = readInt ();
+			ans.currentLevelRadicalsAvailable = readInt ();
+			ans.kanjiProgress = readInt ();
+			ans.kanjiUnlocked = readInt ();
+			ans.kanjiTotal = readInt ();
+			ans.currentLevelKanjiAvailable = readInt ();
+			ans.currentLevelAvailable = readDate ();
+
+			return ans;
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package com.wanikani.wklib;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Decides when cached levels must be refetched. Each level starts with the
+ * default lifetime. Each time a level is revalidated, we look at whether it
+ * actually changed (a 304 reply, an unchanged ETag or identical contents
+ * mean it did not) and adapt its lifetime: unchanged levels are checked
+ * less and less often, while levels that keep changing are checked more often.
+ * This way old, burned out levels are seldom downloaded again, while the
+ * current level stays fresh.
+ * <p>
+ * Only revalidations caused by an expired lifetime are used to learn:
+ * levels refetched because some review became available say nothing
+ * about how long cached data stays valid.
+ * <p>
+ * What the model learns is worth keeping across restarts, so each change
+ * is handed to an optional {@link Storage}. The storage is asked to restore 
+ * the statistics, through {@link #put(Item.Type, int, long, long)}, the first
+ * time the model is used, so it can be created on any thread.
+ */
+public class StalenessModel implements Serializable {
+
+	public static final long serialVersionUID = 1L;
+
+	/**
+	 * What we know about a level.
+	 */
+	public static class LevelStats implements Serializable {
+
+		public static final long serialVersionUID = 1L;
+
+		/// Current lifetime of cached data
+		public long lifetime;
+
+		/// Fingerprint of the last contents we have seen, or 0 if unknown
+		public long fingerprint;
+
+		LevelStats (long lifetime)
+		{
+			this.lifetime = lifetime;
+		}
+	}
+
+	/**
+	 * Interface implemented by objects that save the model, so it
+	 * survives the connection and the process.
+	 */
+	public interface Storage {
+
+		/**
+		 * Called the first time the model is used, to restore the
+		 * statistics previously saved. Runs on the thread that is 
+		 * using the model.
+		 * @param model the model
+		 */
+		public void load (StalenessModel model);
+		
+		/**
+		 * Called each time the statistics of a level change.
+		 * @param type the item type
+		 * @param level the level
+		 * @param ls the new statistics
+		 */
+		public void save (Item.Type type, int level, LevelStats ls);
+	}
+
+	/// Initial lifetime, used also when no history is available
+	public static final long DEFAULT_LIFETIME = 7 * 24 * 3600 * 1000L;
+
+	/// Minimum lifetime
+	public static final long MIN_LIFETIME = 3600 * 1000L;
+
+	/// Maximum lifetime
+	public static final long MAX_LIFETIME = 60 * 24 * 3600 * 1000L;
+
+	/// Lifetime multiplier applied when a level did not change
+	private static final float GROWTH = 1.5F;
+
+	/// Lifetime divisor applied when a level changed
+	private static final float SHRINK = 2F;
+
+	/// Number of groups levels are spread across, to avoid refreshing all of them at once
+	private static final int DISPERSION_GROUPS = 7;
+
+	/// Maximum jitter, as a fraction of the lifetime
+	private static final float DISPERSION = 0.1F;
+
+	/// Per-level statistics
+	private EnumMap<Item.Type, Map<Integer, LevelStats>> stats;
+
+	/// Where changes are saved. May be <code>null</code>
+	private transient Storage storage;
+
+	/// Set once the storage has been asked to restore the statistics
+	private transient boolean loaded;
+
+	/**
+	 * Constructor.
+	 */
+	public StalenessModel ()
+	{
+		stats = new EnumMap<Item.Type, Map<Integer, LevelStats>> (Item.Type.class);
+		for (Item.Type t : Item.Type.values ())
+			stats.put (t, new Hashtable<Integer, LevelStats> ());
+	}
+
+	/**
+	 * Sets the object that saves the changes to the model.
+	 * @param storage the storage (may be <code>null</code>)
+	 */
+	public synchronized void setStorage (Storage storage)
+	{
+		this.storage = storage;
+	}
+
+	/**
+	 * Restores the statistics of a level, as previously saved.
+	 * Nothing is passed to the storage.
+	 * @param type the item type
+	 * @param level the level
+	 * @param lifetime the lifetime
+	 * @param fingerprint the fingerprint
+	 */
+	public synchronized void put (Item.Type type, int level, long lifetime, long fingerprint)
+	{
+		LevelStats ls;
+
+		ls = get (type, level);
+		ls.lifetime = Math.max (MIN_LIFETIME, Math.min (MAX_LIFETIME, lifetime));
+		ls.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Returns the statistics of a level, creating them if needed.
+	 * @param type the item type
+	 * @param level the level
+	 * @return the statistics
+	 */
+	public synchronized LevelStats get (Item.Type type, int level)
+	{
+		LevelStats ans;
+
+		load ();
+		ans = stats.get (type).get (level);
+		if (ans == null) {
+			ans = new LevelStats (DEFAULT_LIFETIME);
+			stats.get (type).put (level, ans);
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Restores the statistics from the storage, if not done yet.
+	 */
+	private void load ()
+	{
+		if (storage != null && !loaded) {
+			/* Set first, since the storage calls put */
+			loaded = true;
+			storage.load (this);
+		}
+	}
+
+	/**
+	 * Tells whether cached data has outlived the lifetime of its level.
+	 * @param type the item type
+	 * @param level the level
+	 * @param ld the cached data
+	 * @return <code>true</code> if it has expired
+	 */
+	public <T extends Item> boolean isExpired (Item.Type type, int level,
+											   ItemsCacheInterface.LevelData<T> ld)
+	{
+		return ld.date != null && 
+				System.currentTimeMillis () - ld.date.getTime () > getLifetime (type, level);
+	}
+
+	/**
+	 * Tells whether cached data must be refetched, either because it has
+	 * expired, or because some item may have become available for review.
+	 * @param type the item type
+	 * @param level the level
+	 * @param ld the cached data
+	 * @return <code>true</code> if it is stale
+	 */
+	public <T extends Item> boolean isStale (Item.Type type, int level,
+											 ItemsCacheInterface.LevelData<T> ld)
+	{
+		Date now;
+
+		now = new Date ();
+		if (isExpired (type, level, ld))
+			return true;
+
+		for (T item : ld.lib.list) {
+			/* May become available any time */
+			if (item.getAvailableDate () == null)
+				return true;
+			if (item.stats != null && item.stats.burned)
+				continue;
+			if (item.getAvailableDate ().before (now))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the lifetime of a level, including its dispersion.
+	 * @param type the item type
+	 * @param level the level
+	 * @return the lifetime, in milliseconds
+	 */
+	public synchronized long getLifetime (Item.Type type, int level)
+	{
+		long lifetime;
+
+		lifetime = get (type, level).lifetime;
+
+		return lifetime + (long) (lifetime * DISPERSION * (level % DISPERSION_GROUPS) / DISPERSION_GROUPS);
+	}
+
+	/**
+	 * Called when the revalidation of an expired level completes.
+	 * @param type the item type
+	 * @param level the level
+	 * @param changed <code>true</code> if the level has changed
+	 */
+	public synchronized void observe (Item.Type type, int level, boolean changed)
+	{
+		LevelStats ls;
+
+		ls = get (type, level);
+		adapt (ls, changed);
+		save (type, level, ls);
+	}
+
+	/**
+	 * Adapts the lifetime of a level.
+	 * @param ls the statistics of the level
+	 * @param changed <code>true</code> if the level has changed
+	 */
+	private static void adapt (LevelStats ls, boolean changed)
+	{
+		if (changed)
+			ls.lifetime = Math.max (MIN_LIFETIME, (long) (ls.lifetime / SHRINK));
+		else
+			ls.lifetime = Math.min (MAX_LIFETIME, (long) (ls.lifetime * GROWTH));
+	}
+
+	/**
+	 * Passes the statistics of a level to the storage, if any.
+	 * @param type the item type
+	 * @param level the level
+	 * @param ls the statistics
+	 */
+	private void save (Item.Type type, int level, LevelStats ls)
+	{
+		if (storage != null)
+			storage.save (type, level, ls);
+	}
+
+	/**
+	 * Called when fresh contents of a level have been downloaded. Contents
+	 * are compared to the ones seen last time, to tell whether it changed.
+	 * If the level was not refetched because it had expired, the lifetime is
+	 * left alone, and the new contents are just remembered.
+	 * @param type the item type
+	 * @param level the level
+	 * @param old the previous contents (may be <code>null</code>)
+	 * @param lib the new contents
+	 * @param expired <code>true</code> if the cached data had expired
+	 */
+	public synchronized <T extends Item> void observe (Item.Type type, int level,
+													   ItemLibrary<T> old, ItemLibrary<T> lib,
+													   boolean expired)
+	{
+		LevelStats ls;
+		long fp;
+
+		ls = get (type, level);
+		if (ls.fingerprint == 0 && old != null)
+			ls.fingerprint = fingerprint (old);
+
+		fp = fingerprint (lib);
+		/* If we don't know what was there before, this is just the first download */
+		if (ls.fingerprint != 0 && expired)
+			adapt (ls, fp != ls.fingerprint);
+		ls.fingerprint = fp;
+		save (type, level, ls);
+	}
+
+	/**
+	 * Computes an order-independent hash of the user-specific contents of a library.
+	 * @param lib the library
+	 * @return the fingerprint
+	 */
+	static <T extends Item> long fingerprint (ItemLibrary<T> lib)
+	{
+		long ans, h;
+
+		ans = 1;
+		for (T item : lib.list) {
+			h = item.character != null ? item.character.hashCode () : item.meaning.hashCode ();
+			h = 31 * h + item.getUnlockedTime ();
+			if (item.stats != null) {
+				h = 31 * h + item.stats.srs.ordinal ();
+				h = 31 * h + item.stats.getAvailableTime ();
+				h = 31 * h + (item.stats.burned ? 1 : 0);
+				h = 31 * h + count (item.stats.meaning);
+				h = 31 * h + count (item.stats.reading);
+			}
+			ans += h * 0x9E3779B97F4A7C15L;
+		}
+
+		return ans != 0 ? ans : 1;
+	}
+
+	private static long count (Item.Performance perf)
+	{
+		return perf != null ? 31 * perf.correct + perf.incorrect : 0;
+	}
+}
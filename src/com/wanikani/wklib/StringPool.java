@@ -0,0 +1,141 @@
+package com.wanikani.wklib;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A pool of canonical strings. The same item is parsed many times (from
+ * the API, the database and snapshots), and each parse would otherwise
+ * produce fresh copies of its character, meaning and readings.
+ * Interning them through a pool makes all the copies share the same
+ * instances.
+ * <p>
+ * Unlike {@link String#intern()}, strings are only weakly referenced,
+ * so they are collected as soon as no item uses them anymore.
+ */
+public class StringPool {
+
+	/// The pool used for item text fields
+	public static final StringPool ITEMS = new StringPool ();
+
+	/// The canonical instances. Values are weak too, otherwise keys would never be collected
+	private Map<String, WeakReference<String>> pool;
+
+	/// Number of lookups
+	private long lookups;
+
+	/// Number of lookups that returned an existing instance
+	private long hits;
+
+	/// Estimated memory saved by the hits, in bytes
+	private long saved;
+
+	/**
+	 * Constructor.
+	 */
+	public StringPool ()
+	{
+		pool = new WeakHashMap<String, WeakReference<String>> ();
+	}
+
+	/**
+	 * Returns the canonical instance of a string.
+	 * @param s the string (may be <code>null</code>)
+	 * @return an instance equal to <code>s</code>
+	 */
+	public synchronized String intern (String s)
+	{
+		WeakReference<String> ref;
+		String ans;
+
+		if (s == null)
+			return null;
+
+		lookups++;
+		ref = pool.get (s);
+		ans = ref != null ? ref.get () : null;
+		if (ans != null) {
+			if (ans != s) {
+				hits++;
+				saved += Item.sizeOf (s);
+			}
+			return ans;
+		}
+
+		pool.put (s, new WeakReference<String> (s));
+
+		return s;
+	}
+
+	/**
+	 * Interns all the elements of an array, in place.
+	 * @param s the array (may be <code>null</code>)
+	 * @return the array
+	 */
+	public String [] intern (String s [])
+	{
+		int i;
+
+		if (s != null)
+			for (i = 0; i < s.length; i++)
+				s [i] = intern (s [i]);
+
+		return s;
+	}
+
+	/**
+	 * Returns the number of distinct strings in the pool.
+	 * @return the number of strings
+	 */
+	public synchronized int size ()
+	{
+		return pool.size ();
+	}
+
+	/**
+	 * Returns the number of lookups.
+	 * @return the number of lookups
+	 */
+	public synchronized long getLookups ()
+	{
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of duplicates that have been replaced by
+	 * their canonical instance.
+	 * @return the number of hits
+	 */
+	public synchronized long getHits ()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns an estimate of the memory saved by the pool, i.e. the size
+	 * of all the duplicates that have been dropped.
+	 * @return the number of bytes
+	 */
+	public synchronized long getSavedBytes ()
+	{
+		return saved;
+	}
+}
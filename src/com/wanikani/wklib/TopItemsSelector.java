@@ -0,0 +1,260 @@
+package com.wanikani.wklib;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Keeps the first <i>K</i> items of a stream, according to a comparator,
+ * without storing or sorting the whole stream. Items are held in a bounded
+ * binary heap whose root is the last of the items kept so far, so each
+ * new item costs O(log K) at most, and the items that would not make it
+ * into the list are discarded immediately.
+ * <p>
+ * When the comparator is an {@link Item.KeyedComparator}, the primary
+ * key of each kept item is computed only once.
+ * <p>
+ * Items can be fed through {@link #add(Item)}, or by passing
+ * {@link #listener()} to the connection methods that decode items,
+ * possibly for more than one item type.
+ */
+public class TopItemsSelector {
+
+	/**
+	 * Forwards decoded items to a selector.
+	 */
+	private static class Feeder<T extends Item> implements ItemDecoder.Listener<T> {
+
+		/// The target
+		TopItemsSelector sel;
+
+		public Feeder (TopItemsSelector sel)
+		{
+			this.sel = sel;
+		}
+
+		public void newItems (ItemLibrary<T> lib)
+		{
+			sel.add (lib);
+		}
+	}
+
+	/// The comparator
+	private Comparator<Item> cmp;
+
+	/// The comparator, if it is keyed. Otherwise <code>null</code>
+	private Item.KeyedComparator kcmp;
+
+	/// The comparator that breaks ties between equal keys. Only meaningful if {@link #kcmp} is set
+	private Comparator<Item> tail;
+
+	/// The heap. The root is the last item, according to {@link #cmp}
+	private Item heap [];
+
+	/// Primary keys of the items in the heap, if {@link #kcmp} is set
+	private long keys [];
+
+	/// Number of items in the heap
+	private int size;
+
+	/// Number of items offered so far
+	private int count;
+
+	/**
+	 * Constructor.
+	 * @param cmp the comparator. The selector keeps the items that come first
+	 * @param k the maximum number of items to keep
+	 */
+	public TopItemsSelector (Comparator<Item> cmp, int k)
+	{
+		this.cmp = cmp;
+
+		if (cmp instanceof Item.KeyedComparator) {
+			kcmp = (Item.KeyedComparator) cmp;
+			tail = kcmp.getSecondKey ();
+			keys = new long [k];
+		}
+
+		heap = new Item [k];
+	}
+
+	/**
+	 * Returns a listener that offers all the items published by
+	 * an {@link ItemDecoder} to this selector.
+	 * @return the listener
+	 */
+	public <T extends Item> ItemDecoder.Listener<T> listener ()
+	{
+		return new Feeder<T> (this);
+	}
+
+	/**
+	 * Offers all the items of a library.
+	 * @param lib the library
+	 */
+	public synchronized void add (ItemLibrary<? extends Item> lib)
+	{
+		for (Item item : lib.list)
+			add (item);
+	}
+
+	/**
+	 * Offers an item. It is kept only if it belongs to the first
+	 * <i>K</i> items seen so far.
+	 * @param item the item
+	 * @return <code>true</code> if the item was kept
+	 */
+	public synchronized boolean add (Item item)
+	{
+		long key;
+
+		count++;
+		key = kcmp != null ? kcmp.getKey (item) : 0;
+		if (size < heap.length) {
+			siftUp (size++, item, key);
+			return true;
+		}
+
+		if (heap.length == 0 || compare (item, key, 0) >= 0)
+			return false;
+
+		siftDown (0, item, key);
+
+		return true;
+	}
+
+	/**
+	 * Compares an item to an element of the heap.
+	 * @param item the item
+	 * @param key its key, if the comparator is keyed
+	 * @param i the index of the heap element
+	 * @return a negative number, zero or a positive number, if <code>item</code>
+	 * comes before, together with, or after the heap element
+	 */
+	private int compare (Item item, long key, int i)
+	{
+		if (kcmp == null)
+			return cmp.compare (item, heap [i]);
+
+		if (key != keys [i])
+			return key < keys [i] ? -1 : 1;
+
+		return tail != null ? tail.compare (item, heap [i]) : 0;
+	}
+
+	/**
+	 * Moves an element of the heap to a new position.
+	 * @param from the old position
+	 * @param to the new position
+	 */
+	private void move (int from, int to)
+	{
+		heap [to] = heap [from];
+		if (keys != null)
+			keys [to] = keys [from];
+	}
+
+	/**
+	 * Stores an item in the heap.
+	 * @param i the position
+	 * @param item the item
+	 * @param key its key
+	 */
+	private void set (int i, Item item, long key)
+	{
+		heap [i] = item;
+		if (keys != null)
+			keys [i] = key;
+	}
+
+	/**
+	 * Inserts an item at a given leaf, moving it up until its parent
+	 * comes after it.
+	 * @param i the leaf
+	 * @param item the item
+	 * @param key its key
+	 */
+	private void siftUp (int i, Item item, long key)
+	{
+		int parent;
+
+		while (i > 0) {
+			parent = (i - 1) >>> 1;
+			if (compare (item, key, parent) <= 0)
+				break;
+			move (parent, i);
+			i = parent;
+		}
+
+		set (i, item, key);
+	}
+
+	/**
+	 * Replaces the item at a given node, moving it down until its
+	 * children come before it.
+	 * @param i the node
+	 * @param item the item
+	 * @param key its key
+	 */
+	private void siftDown (int i, Item item, long key)
+	{
+		int child, half;
+
+		half = size >>> 1;
+		while (i < half) {
+			child = 2 * i + 1;
+			if (child + 1 < size && compare (heap [child + 1],
+					keys != null ? keys [child + 1] : 0, child) > 0)
+				child++;
+			if (compare (item, key, child) >= 0)
+				break;
+			move (child, i);
+			i = child;
+		}
+
+		set (i, item, key);
+	}
+
+	/**
+	 * Returns the items kept so far, in order.
+	 * @return a new list
+	 */
+	public synchronized List<Item> getItems ()
+	{
+		List<Item> ans;
+		int i;
+
+		ans = new Vector<Item> (size);
+		for (i = 0; i < size; i++)
+			ans.add (heap [i]);
+		ItemSorter.sort (ans, cmp, false);
+
+		return ans;
+	}
+
+	/**
+	 * Returns the number of items offered so far.
+	 * @return the number of items
+	 */
+	public synchronized int getCount ()
+	{
+		return count;
+	}
+}
@@ -0,0 +1,129 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The network layer used by {@link Connection}. The default implementation,
+ * {@link HttpTransport}, talks to the real servers; {@link ReplayTransport}
+ * serves recorded responses instead, so the upper layers can be benchmarked
+ * offline.
+ */
+public interface Transport {
+
+	/**
+	 * A GET request.
+	 */
+	public static class Request {
+
+		/// The URL
+		public String url;
+
+		/// Value of the <code>If-None-Match</code> header. May be <code>null</code>
+		public String etag;
+
+		/// Value of the <code>If-Modified-Since</code> header. May be <code>null</code>
+		public Date ifModifiedSince;
+
+		/// Set if a gzip-compressed reply is acceptable
+		public boolean compress;
+
+		public Request (String url)
+		{
+			this.url = url;
+		}
+	}
+
+	/**
+	 * The reply to a request. Must be closed when done, even if the body
+	 * has not been read.
+	 */
+	public interface Response {
+
+		/**
+		 * Returns the HTTP status code.
+		 * @return the code
+		 */
+		public int getCode ()
+			throws IOException;
+
+		/**
+		 * Returns the body of the reply, as it was sent on the wire. If the
+		 * <code>Content-Encoding</code> header is <code>gzip</code>, the caller
+		 * must decompress it.
+		 * @return an input stream
+		 */
+		public InputStream getInputStream ()
+			throws IOException;
+
+		/**
+		 * Returns the value of a header field.
+		 * @param name the field name
+		 * @return the value, or <code>null</code> if missing
+		 */
+		public String getHeaderField (String name);
+
+		/**
+		 * Returns all the header fields. The status line may be
+		 * included with a <code>null</code> key.
+		 * @return the fields (may be <code>null</code>)
+		 */
+		public Map<String, List<String>> getHeaderFields ();
+
+		/**
+		 * Returns the value of the <code>Date</code> header.
+		 * @return the time, or <code>0</code> if missing
+		 */
+		public long getDate ();
+
+		/**
+		 * Returns the value of the <code>Last-Modified</code> header.
+		 * @return the time, or <code>0</code> if missing
+		 */
+		public long getLastModified ();
+
+		/**
+		 * Tells whether the reply was probably received through a connection that
+		 * had already been used by a previous request. This is an estimate:
+		 * transports may not be able to observe it.
+		 * @return <code>true</code> if the connection was likely reused
+		 */
+		public boolean isReused ();
+
+		/**
+		 * Releases the resources associated to this reply. Pooling transports
+		 * may keep the underlying connection open for the next request.
+		 */
+		public void close ();
+	}
+
+	/**
+	 * Issues a request.
+	 * @param req the request
+	 * @return the reply
+	 * @throws IOException if the server could not be reached
+	 */
+	public Response open (Request req)
+		throws IOException;
+
+}
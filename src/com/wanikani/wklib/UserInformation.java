@@ -69,12 +69,12 @@ public class UserInformation {
 		vacationDate = Util.getDate (obj, "vacation_date");
 	}
 	
-	private static Calendar getNormalizedCalendar (Date date)
+	private static Calendar getNormalizedCalendar (long time)
 	{
 		Calendar ans;
 		
 		ans = Calendar.getInstance ();
-		ans.setTime (date);
+		ans.setTimeInMillis (time);
 		ans.set (Calendar.HOUR, 1);
 		ans.set (Calendar.MINUTE, 2);
 		ans.set (Calendar.SECOND, 3);
@@ -90,15 +90,32 @@ public class UserInformation {
 	
 	public int getDay (Date d)
 	{
-		return getDay (creationDate, d);
+		return getDay (creationDate, d.getTime ());
+	}
+	
+	/**
+	 * Returns the day a given time falls in, counting from the creation
+	 * of the account. Equivalent to {@link #getDay(Date)}, but does not require
+	 * the caller to build a date object, e.g. when scanning columns of timestamps.
+	 * @param time the time, in ms
+	 * @return the day
+	 */
+	public int getDay (long time)
+	{
+		return getDay (creationDate, time);
 	}
 	
 	public static int getDay (Date origin, Date d)
+	{
+		return getDay (origin, d.getTime ());
+	}
+	
+	private static int getDay (Date origin, long time)
 	{
 		Calendar cal1, cal2;
 		
-		cal1 = getNormalizedCalendar (origin);
-		cal2 = getNormalizedCalendar (d);
+		cal1 = getNormalizedCalendar (origin.getTime ());
+		cal2 = getNormalizedCalendar (time);
 		return (int) ((cal2.getTimeInMillis () - cal1.getTimeInMillis ()) / ONE_DAY);
 	}
 }
\ No newline at end of file
@@ -48,8 +48,23 @@ public class Util {
 	public static Date getDate (JSONObject obj, String key)
 			throws JSONException
 	{		
-			return obj.isNull (key) || obj.getLong (key) == 0 ? 
-						null : new Date (obj.getLong (key) * 1000);
+			long time;
+			
+			time = getTime (obj, key);
+			
+			return time != 0 ? new Date (time) : null;
+	}
+	
+	/**
+	 * Like {@link #getDate(JSONObject, String)}, but does not allocate a date.
+	 * @param obj the object
+	 * @param key the key
+	 * @return the time, in milliseconds, or <code>0</code> if missing
+	 */
+	public static long getTime (JSONObject obj, String key)
+			throws JSONException
+	{		
+			return obj.isNull (key) ? 0 : obj.getLong (key) * 1000;
 	}
 	
 	public static URL getURL (JSONObject obj, String key)
@@ -53,7 +53,7 @@ public class Vocabulary extends Item {
 	{
 		super (obj, Item.Type.VOCABULARY);
 		
-		kana = Util.getString (obj, "kana");
+		kana = StringPool.ITEMS.intern (Util.getString (obj, "kana"));
 	}
 	
 	public Vocabulary ()
@@ -66,6 +66,12 @@ public class Vocabulary extends Item {
 		return "vocabulary";
 	}
 	
+	@Override
+	public int estimateSize ()
+	{
+		return super.estimateSize () + sizeOf (kana); 
+	}
+	
 	public boolean matches (String s)
 	{
 		return super.matches (s) ||